@@ -168,6 +168,8 @@ public class Bot {
             return;
         shuttingDown = true;
         threadpool.shutdownNow();
+        if (players.getLoadScheduler() != null)
+            players.getLoadScheduler().shutdown();
         if (jda.getStatus() != JDA.Status.SHUTTING_DOWN) {
             jda.getGuilds().forEach(g ->
             {
@@ -181,6 +183,9 @@ public class Bot {
             });
             jda.shutdown();
         }
+        settings.shutdown();
+        if (players.getTrackCache() != null)
+            players.getTrackCache().save();
         if (gui != null)
             gui.dispose();
         System.exit(0);
@@ -44,6 +44,7 @@ public class BotConfig {
     private String prefix;
     private String altprefix;
     private String helpWord;
+    private String audioSendSystem;
     private String playlistsFolder;
     private String mylistfolder;
     private String publistFolder;
@@ -60,8 +61,10 @@ public class BotConfig {
     private String spClientId;
     private String spClientSecret;
     // [JMusicBot-JP] added useNicoNico, changeNickName, pauseNoUsers, resumeJoined, stopNoUsers, cosgyDevHost, helpToDm, officialInvite
+    private boolean opusPassthrough, shareLiveStreams, settingsLogStore;
     private boolean useNicoNico, changeNickName, stayInChannel, pauseNoUsers, resumeJoined, stopNoUsers, songInGame, npImages, updatealerts, useEval, dbots, cosgyDevHost, helpToDm, autoStopQueueSave, auditCommands, officialInvite, useinvitecommand;
     private long owner, maxSeconds, aloneTimeUntilStop;
+    private int frameBufferDuration, opusQualityMin, opusQualityMax, preloadSeconds, stallTimeout, settingsSaveDelay, settingsIdleTime, playlistLoadConcurrency, trackCacheSize, trackCacheTtl, lazyPlaylistSize, lazyResolveAhead, interactiveLoadThreads, bulkLoadThreads, loadItemTimeout, loadSessionTimeout;
     private OnlineStatus status;
     private Activity game;
     private Config aliases, transforms;
@@ -108,6 +111,26 @@ public class BotConfig {
             useEval = config.getBoolean("eval");
             maxSeconds = config.getLong("maxtime");
             aloneTimeUntilStop = config.getLong("alonetimeuntilstop");
+            frameBufferDuration = config.getInt("framebufferduration");
+            opusPassthrough = config.getBoolean("opuspassthrough");
+            opusQualityMin = config.getInt("opusqualitymin");
+            opusQualityMax = config.getInt("opusqualitymax");
+            preloadSeconds = config.getInt("preloadseconds");
+            shareLiveStreams = config.getBoolean("sharelivestreams");
+            stallTimeout = config.getInt("stalltimeout");
+            settingsSaveDelay = config.getInt("settingssavedelay");
+            settingsLogStore = config.getString("settingsstore").equalsIgnoreCase("log");
+            settingsIdleTime = config.getInt("settingsidletime");
+            playlistLoadConcurrency = config.getInt("playlistloadconcurrency");
+            trackCacheSize = config.getInt("trackcachesize");
+            trackCacheTtl = config.getInt("trackcachettl");
+            lazyPlaylistSize = config.getInt("lazyplaylistsize");
+            lazyResolveAhead = Math.max(1, config.getInt("lazyresolveahead"));
+            interactiveLoadThreads = Math.max(1, config.getInt("interactiveloadthreads"));
+            bulkLoadThreads = Math.max(1, config.getInt("bulkloadthreads"));
+            loadItemTimeout = config.getInt("loaditemtimeout");
+            loadSessionTimeout = config.getInt("loadsessiontimeout");
+            audioSendSystem = config.getString("audiosendsystem");
             playlistsFolder = config.getString("playlistsfolder");
             mylistfolder = config.getString("mylistfolder");
             publistFolder = config.getString("publistfolder");
@@ -313,6 +336,86 @@ public class BotConfig {
         return maxSeconds;
     }
 
+    public int getFrameBufferDuration() {
+        return frameBufferDuration;
+    }
+
+    public boolean isOpusPassthrough() {
+        return opusPassthrough;
+    }
+
+    public int getOpusQualityMin() {
+        return opusQualityMin;
+    }
+
+    public int getOpusQualityMax() {
+        return opusQualityMax;
+    }
+
+    public int getPreloadSeconds() {
+        return preloadSeconds;
+    }
+
+    public boolean isShareLiveStreams() {
+        return shareLiveStreams;
+    }
+
+    public String getAudioSendSystem() {
+        return audioSendSystem;
+    }
+
+    public int getStallTimeout() {
+        return stallTimeout;
+    }
+
+    public int getSettingsSaveDelay() {
+        return settingsSaveDelay;
+    }
+
+    public boolean isSettingsLogStore() {
+        return settingsLogStore;
+    }
+
+    public int getSettingsIdleTime() {
+        return settingsIdleTime;
+    }
+
+    public int getPlaylistLoadConcurrency() {
+        return playlistLoadConcurrency;
+    }
+
+    public int getTrackCacheSize() {
+        return trackCacheSize;
+    }
+
+    public int getTrackCacheTtl() {
+        return trackCacheTtl;
+    }
+
+    public int getLazyPlaylistSize() {
+        return lazyPlaylistSize;
+    }
+
+    public int getLazyResolveAhead() {
+        return lazyResolveAhead;
+    }
+
+    public int getInteractiveLoadThreads() {
+        return interactiveLoadThreads;
+    }
+
+    public int getBulkLoadThreads() {
+        return bulkLoadThreads;
+    }
+
+    public int getLoadItemTimeout() {
+        return loadItemTimeout;
+    }
+
+    public int getLoadSessionTimeout() {
+        return loadSessionTimeout;
+    }
+
     public String getMaxTime() {
         return FormatUtil.formatTime(maxSeconds * 1000);
     }
@@ -20,6 +20,7 @@ import com.jagrosh.jdautilities.command.Command;
 import com.jagrosh.jdautilities.command.CommandClientBuilder;
 import com.jagrosh.jdautilities.command.SlashCommand;
 import com.jagrosh.jdautilities.commons.waiter.EventWaiter;
+import com.jagrosh.jmusicbot.audio.AudioSendSystems;
 import com.jagrosh.jmusicbot.entities.Prompt;
 import com.jagrosh.jmusicbot.gui.GUI;
 import com.jagrosh.jmusicbot.settings.SettingsManager;
@@ -35,6 +36,7 @@ import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.OnlineStatus;
 import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.audio.factory.IAudioSendFactory;
 import net.dv8tion.jda.api.entities.Activity;
 import net.dv8tion.jda.api.exceptions.InvalidTokenException;
 import net.dv8tion.jda.api.requests.GatewayIntent;
@@ -141,7 +143,7 @@ public class JMusicBot {
 
         // set up the listener
         EventWaiter waiter = new EventWaiter();
-        SettingsManager settings = new SettingsManager();
+        SettingsManager settings = new SettingsManager(config);
         Bot bot = new Bot(waiter, config, settings);
         Bot.INSTANCE = bot;
 
@@ -219,6 +221,7 @@ public class JMusicBot {
             add(new SettcCmd(bot));
             add(new SetvcCmd(bot));
             add(new SetvcStatusCmd(bot));
+            add(new StallpolicyCmd(bot));
             add(new AutoplaylistCmd(bot));
             add(new ServerListCmd(bot));
             // Owner
@@ -264,15 +267,18 @@ public class JMusicBot {
 
         // attempt to log in and start
         try {
-            JDA jda = JDABuilder.create(config.getToken(), Arrays.asList(INTENTS))
+            JDABuilder builder = JDABuilder.create(config.getToken(), Arrays.asList(INTENTS))
                     .enableCache(CacheFlag.MEMBER_OVERRIDES, CacheFlag.VOICE_STATE)
                     .disableCache(CacheFlag.ACTIVITY, CacheFlag.CLIENT_STATUS, CacheFlag.EMOJI, CacheFlag.ONLINE_STATUS)
                     .setActivity(nogame ? null : Activity.playing("ロード中..."))
                     .setStatus(config.getStatus() == OnlineStatus.INVISIBLE || config.getStatus() == OnlineStatus.OFFLINE
                             ? OnlineStatus.INVISIBLE : OnlineStatus.DO_NOT_DISTURB)
                     .addEventListeners(cb.build(), waiter, new Listener(bot))
-                    .setBulkDeleteSplittingEnabled(true)
-                    .build();
+                    .setBulkDeleteSplittingEnabled(true);
+            IAudioSendFactory sendFactory = AudioSendSystems.create(config.getAudioSendSystem());
+            if (sendFactory != null)
+                builder.setAudioSendFactory(sendFactory);
+            JDA jda = builder.build();
             bot.setJDA(jda);
 
             String unsupportedReason = OtherUtil.getUnsupportedBotReason(jda);
@@ -87,6 +87,13 @@ public class Listener extends ListenerAdapter {
         Logger log = LoggerFactory.getLogger("onGuildVoiceUpdate");
         bot.getAloneInVoiceHandler().onVoiceUpdate(event);
 
+        // ボットの参加・移動・退出時は、エンコード品質を接続先のビットレートに合わせる
+        if (event.getMember().equals(event.getGuild().getSelfMember())
+                && event.getGuild().getAudioManager().getSendingHandler() instanceof AudioHandler) {
+            AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
+            handler.setChannelBitrate(event.getChannelJoined() == null ? 0 : event.getChannelJoined().getBitrate());
+        }
+
         // 退出時のイベント
         log.debug("onGuildVoiceLeave Start");
         onGuildVoiceLeave(event);
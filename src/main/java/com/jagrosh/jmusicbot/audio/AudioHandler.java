@@ -19,16 +19,23 @@ import com.jagrosh.jmusicbot.Bot;
 import com.jagrosh.jmusicbot.JMusicBot;
 import com.jagrosh.jmusicbot.PlayStatus;
 import com.jagrosh.jmusicbot.playlist.PlaylistLoader.Playlist;
-import com.jagrosh.jmusicbot.queue.FairQueue;
-import com.jagrosh.jmusicbot.settings.Settings;
+import com.jagrosh.jmusicbot.settings.SettingsSnapshot;
 import com.jagrosh.jmusicbot.utils.FormatUtil;
+import com.sedmelluq.discord.lavaplayer.container.MediaContainerDescriptor;
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
+import com.sedmelluq.discord.lavaplayer.source.http.HttpAudioTrack;
+import com.sedmelluq.discord.lavaplayer.source.local.LocalAudioTrack;
 import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioTrack;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
-import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
 import dev.cosgy.jmusicbot.settings.RepeatMode;
+import dev.cosgy.jmusicbot.settings.StallPolicy;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.audio.AudioSendHandler;
@@ -36,70 +43,233 @@ import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.utils.messages.MessageCreateBuilder;
 import net.dv8tion.jda.api.utils.messages.MessageCreateData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author John Grosh <john.a.grosh@gmail.com>
  */
 public class AudioHandler extends AudioEventAdapter implements AudioSendHandler {
-    private final FairQueue<QueuedTrack> queue = new FairQueue<>();
+    private static final Logger LOG = LoggerFactory.getLogger("AudioHandler");
+    private static final int MAX_STALL_RETRIES = 2;
+    // 再生待ち・既定のプレイリスト・先読みの状態は、このギルドの mailbox の中でのみ変更する
+    private final GuildMailbox mailbox = new GuildMailbox();
+    private final GuildQueue<QueuedTrack> queue = new GuildQueue<>(mailbox);
     private final List<AudioTrack> defaultQueue = new LinkedList<>();
-    private final Set<String> votes = new HashSet<>();
+    private final Set<String> votes = ConcurrentHashMap.newKeySet();
+    // 読み込み中の仮の楽曲 (mailbox の中でのみ操作する)
+    private final Set<QueuedTrack> resolving = Collections.newSetFromMap(new IdentityHashMap<>());
+    // 再生待ちを削除するたびに増やし、それまでに始めた読み込みを取り消す
+    private final AtomicLong loadGeneration = new AtomicLong();
     private final PlayerManager manager;
-    private final AudioPlayer audioPlayer;
+    // 先読みしたトラックに切り替える際に入れ替わるため final ではない
+    private volatile AudioPlayer audioPlayer;
     private final long guildId;
     private final String stringGuildId;
-    private AudioFrame lastFrame;
+    // 20msごとにフレームを確保しないよう、送信用のバッファとフレームは使い回す
+    private final ByteBuffer frameBuffer = ByteBuffer.allocate(StandardAudioDataFormats.DISCORD_OPUS.maximumChunkSize());
+    private final MutableAudioFrame frame = new MutableAudioFrame();
+    private final PlaybackStats stats = new PlaybackStats();
+
+    // 次の曲の先読み用。一時停止した状態で再生を始め、フレームバッファを埋めておく
+    private AudioPlayer standbyPlayer;
+    private QueuedTrack preloadSource;
+    private AudioTrack preloadTrack;
+    private volatile long gapStart;
+    // 接続中のボイスチャンネルのビットレート。不明な場合は 0
+    private volatile int channelBitrate;
+    // 再生中のトラックを開始した際に適用したエンコード品質 (PlayerManager#executeTrack で設定する)
+    private volatile int appliedQuality = -1;
+    private volatile boolean bitrateLimited;
+
+    // 再生停止の検出用。最後にフレームを送信した時刻と、同じ曲を再生し直した回数
+    private volatile long lastProvided;
+    // 前回の確認時に、このハンドラーがボイスチャンネルへ音声を送信していたか (再生停止の検出スレッドのみが使用する)
+    private boolean sending;
+    private int stallRetries;
+    private volatile long stalls;
 
     protected AudioHandler(PlayerManager manager, Guild guild, AudioPlayer player) {
         this.manager = manager;
         this.audioPlayer = player;
         this.guildId = guild.getIdLong();
         this.stringGuildId = guild.getId();
+        this.frame.setBuffer(frameBuffer);
     }
 
     public int addTrackToFront(QueuedTrack qtrack) {
-        if (audioPlayer.getPlayingTrack() == null) {
-            audioPlayer.playTrack(qtrack.getTrack());
-            return -1;
-        } else {
-            queue.addAt(0, qtrack);
-            return 0;
-        }
+        return mailbox.call(() -> {
+            if (isWaitingForPending()) {
+                // 読み込み中の先頭の楽曲の次に入れる
+                queue.addAt(1, qtrack);
+                return 1;
+            } else if (audioPlayer.getPlayingTrack() == null) {
+                audioPlayer.playTrack(prepare(qtrack.getTrack()));
+                return -1;
+            } else {
+                queue.addAt(0, qtrack);
+                return 0;
+            }
+        });
     }
 
     public int addTrack(QueuedTrack qtrack) {
-        if (audioPlayer.getPlayingTrack() == null) {
-            audioPlayer.playTrack(qtrack.getTrack());
-            return -1;
-        } else {
-            boolean toEnt = manager.getBot().getSettingsManager().getSettings(guildId).isForceToEndQue();
-            return queue.add(qtrack, toEnt);
-        }
+        return mailbox.call(() -> {
+            if (audioPlayer.getPlayingTrack() == null && !isWaitingForPending()) {
+                audioPlayer.playTrack(prepare(qtrack.getTrack()));
+                return -1;
+            } else {
+                return queue.add(compact(qtrack), settings().isForceToEndQue());
+            }
+        });
+    }
+
+    /**
+     * @return 何も再生しておらず、再生待ちの先頭の仮の楽曲の読み込みを待っている場合は {@code true}。
+     * この間に追加した楽曲は、先頭の楽曲を追い越さないように再生待ちに入れます
+     */
+    private boolean isWaitingForPending() {
+        return audioPlayer.getPlayingTrack() == null && !queue.isEmpty() && queue.get(0).isPending();
+    }
+
+    /**
+     * 同じユーザーの複数の楽曲をまとめて追加します。
+     *
+     * @param tracks 追加する楽曲
+     * @param user   楽曲を追加したユーザー
+     * @return 最初の楽曲を何番目に追加したか。再生を開始した場合は -1
+     */
+    public int addTracks(List<AudioTrack> tracks, User user) {
+        return addTracks(null, tracks, user);
+    }
+
+    /**
+     * {@code session} で読み込んだ同じユーザーの複数の楽曲をまとめて追加します。
+     *
+     * @param session 楽曲を読み込んだ処理。取り消されていた場合は追加しません
+     * @param tracks  追加する楽曲
+     * @param user    楽曲を追加したユーザー
+     * @return 最初の楽曲を何番目に追加したか。再生を開始した場合は -1、追加しなかった場合は再生待ちの曲数
+     */
+    public int addTracks(LoadSession session, List<AudioTrack> tracks, User user) {
+        RequestMetadata rm = RequestMetadata.of(user);
+        List<QueuedTrack> queued = new ArrayList<>(tracks.size());
+        for (AudioTrack track : tracks)
+            queued.add(new QueuedTrack(track, rm));
+        return addTracks(session, queued);
+    }
+
+    /**
+     * 複数の楽曲をまとめて追加します。同じユーザーの楽曲が続いている部分は、一度に再生待ちへ並べます。
+     *
+     * @param tracks 追加する楽曲
+     * @return 最初の楽曲を何番目に追加したか。再生を開始した場合は -1
+     */
+    public int addTracks(List<QueuedTrack> tracks) {
+        return addTracks(null, tracks);
+    }
+
+    /**
+     * {@code session} で読み込んだ複数の楽曲をまとめて追加します。
+     * 取り消されたかどうかは mailbox の中で確認するため、{@link #stopAndClear()} の後に楽曲が追加されることはありません。
+     *
+     * @param session 楽曲を読み込んだ処理。取り消されていた場合は追加しません。{@code null} の場合は常に追加します
+     * @param tracks  追加する楽曲
+     * @return 最初の楽曲を何番目に追加したか。再生を開始した場合は -1、追加しなかった場合は再生待ちの曲数
+     */
+    public int addTracks(LoadSession session, List<QueuedTrack> tracks) {
+        if (tracks.isEmpty())
+            return queue.size();
+        boolean toEnt = settings().isForceToEndQue();
+        // 2曲目以降は必ず再生待ちに入るので、mailbox の外で圧縮しておく
+        for (int i = 1; i < tracks.size(); i++)
+            compact(tracks.get(i));
+        return mailbox.call(() -> {
+            if (session != null && session.isCancelled())
+                return queue.size();
+            int first;
+            int start = 0;
+            // 仮の楽曲は再生待ちに入れ、読み込みが終わってから再生を始める
+            if (audioPlayer.getPlayingTrack() == null && !tracks.get(0).isPending() && !isWaitingForPending()) {
+                audioPlayer.playTrack(prepare(tracks.get(0).getTrack()));
+                first = -1;
+                start = 1;
+            } else {
+                compact(tracks.get(0));
+                first = Integer.MAX_VALUE;
+            }
+            while (start < tracks.size()) {
+                long owner = tracks.get(start).getIdentifier();
+                int end = start + 1;
+                while (end < tracks.size() && tracks.get(end).getIdentifier() == owner)
+                    end++;
+                int index = queue.addAll(tracks.subList(start, end), toEnt);
+                if (first != -1)
+                    first = Math.min(first, index);
+                start = end;
+            }
+            if (audioPlayer.getPlayingTrack() == null)
+                playNext(audioPlayer);
+            else
+                resolveAhead();
+            return first;
+        });
     }
 
     public void addTrackIfRepeat(AudioTrack track) {
         // リピートモードの場合は、キューの最後にトラックを追加します
-        RepeatMode mode = manager.getBot().getSettingsManager().getSettings(guildId).getRepeatMode();
-        boolean toEnt = manager.getBot().getSettingsManager().getSettings(guildId).isForceToEndQue();
-        if (mode != RepeatMode.OFF) {
-            queue.add(new QueuedTrack(track.makeClone(), track.getUserData(RequestMetadata.class)), toEnt);
+        SettingsSnapshot settings = settings();
+        if (settings.getRepeatMode() != RepeatMode.OFF) {
+            queue.add(compact(new QueuedTrack(LiveStreamBroadcaster.unwrap(track).makeClone(), track.getUserData(RequestMetadata.class))), settings.isForceToEndQue());
         }
     }
 
-    public FairQueue<QueuedTrack> getQueue() {
+    /**
+     * @return このサーバーの現在の設定
+     */
+    private SettingsSnapshot settings() {
+        return manager.getBot().getSettingsManager().getSnapshot(guildId);
+    }
+
+    /**
+     * 再生待ちに入れる楽曲を圧縮します。先頭に来たとき ({@link QueuedTrack#getTrack()}) に元に戻ります。
+     */
+    private QueuedTrack compact(QueuedTrack qtrack) {
+        qtrack.compact(manager);
+        return qtrack;
+    }
+
+    public GuildQueue<QueuedTrack> getQueue() {
         return queue;
     }
 
+    /**
+     * @return このギルドの再生待ちとプレイヤーの状態を変更する処理を実行する mailbox
+     */
+    public GuildMailbox getMailbox() {
+        return mailbox;
+    }
+
     public void stopAndClear() {
-        queue.clear();
-        defaultQueue.clear();
-        audioPlayer.stopTrack();
+        loadGeneration.incrementAndGet();
+        mailbox.run(() -> {
+            queue.clear();
+            defaultQueue.clear();
+            resolving.clear();
+            audioPlayer.stopTrack();
+            cancelPreload();
+        });
         //current = null;
 
         Guild guild = guild(manager.getBot().getJDA());
@@ -118,6 +288,88 @@ public class AudioHandler extends AudioEventAdapter implements AudioSendHandler
         return audioPlayer;
     }
 
+    /**
+     * 再生リストなどをまとめて読み込む処理を始めます。{@link #stopAndClear()} が呼び出されると取り消されます。
+     */
+    public LoadSession newLoadSession() {
+        return new LoadSession(guildId, loadGeneration, TimeUnit.SECONDS.toMillis(manager.getBot().getConfig().getLoadSessionTimeout()));
+    }
+
+    public PlaybackStats getStats() {
+        return stats;
+    }
+
+    /**
+     * lavaplayer がOpusをそのまま送る (パススルー) のは、ソースがWebM/OggのOpusで音量が100の場合のみです。
+     * それ以外 (MP3/AAC のHTTP・SoundCloud・ニコニコ動画・ローカルファイルなど) は常にデコード・再エンコードを行います。
+     * lavaplayer は送信するフレームの形式を常にDiscord用のOpusとして返すため、フレームからは判別できず、トラックの形式から判断します。
+     *
+     * @return 再生中で、Opusのパススルーが使えない状態か
+     */
+    public boolean isTranscoding() {
+        AudioTrack track = audioPlayer.getPlayingTrack();
+        return track != null && (audioPlayer.getVolume() != 100 || !isOpusSource(LiveStreamBroadcaster.unwrap(track)));
+    }
+
+    /**
+     * YouTube はOpusの形式 (WebM) を優先して選ぶため、パススルーできるものとして扱います。
+     * HTTP・ローカルファイルは、読み込み時に判別したコンテナで判断します。
+     */
+    private static boolean isOpusSource(AudioTrack track) {
+        MediaContainerDescriptor container = null;
+        if (track instanceof HttpAudioTrack)
+            container = ((HttpAudioTrack) track).getContainerTrackFactory();
+        else if (track instanceof LocalAudioTrack)
+            container = ((LocalAudioTrack) track).getContainerTrackFactory();
+        if (container != null) {
+            String name = container.probe.getName();
+            return "matroska/webm".equals(name) || "ogg".equals(name);
+        }
+        return track.getSourceManager() != null && "youtube".equals(track.getSourceManager().getSourceName());
+    }
+
+    public int getChannelBitrate() {
+        return channelBitrate;
+    }
+
+    /**
+     * ボイスチャンネルへの参加・移動時に呼び出します。次に再生を開始したトラックから、ビットレートに応じた品質でエンコードします。
+     *
+     * @param bitrate 接続したチャンネルのビットレート (bps)。切断した場合は 0
+     */
+    public void setChannelBitrate(int bitrate) {
+        this.channelBitrate = bitrate;
+    }
+
+    /**
+     * @return このサーバーのプレイヤーが実際に使用するエンコード品質
+     */
+    public int getEncodingQuality() {
+        return Math.min(manager.getQualityController().getQuality(), QualityController.qualityForBitrate(channelBitrate));
+    }
+
+    void setAppliedQuality(int quality, boolean limited) {
+        this.appliedQuality = quality;
+        this.bitrateLimited = limited;
+    }
+
+    /**
+     * 品質の変更は次のトラックから適用されるため、{@link #getEncodingQuality()} とは異なる場合があります。
+     *
+     * @return 再生中のトラックのエンコードに実際に使用している品質
+     */
+    public int getAppliedQuality() {
+        int quality = appliedQuality;
+        return quality < 0 ? getEncodingQuality() : quality;
+    }
+
+    /**
+     * @return 再生中のトラックを、チャンネルのビットレートに合わせて下げた品質でエンコードしているか
+     */
+    public boolean isBitrateLimited() {
+        return bitrateLimited;
+    }
+
     public RequestMetadata getRequestMetadata() {
         if (audioPlayer.getPlayingTrack() == null)
             return RequestMetadata.EMPTY;
@@ -126,65 +378,357 @@ public class AudioHandler extends AudioEventAdapter implements AudioSendHandler
     }
 
     public boolean playFromDefault() {
+        return mailbox.call(this::startDefaultPlaylist);
+    }
+
+    private boolean startDefaultPlaylist() {
         if (!defaultQueue.isEmpty()) {
-            audioPlayer.playTrack(defaultQueue.remove(0));
+            audioPlayer.playTrack(prepare(defaultQueue.remove(0)));
             return true;
         }
-        Settings settings = manager.getBot().getSettingsManager().getSettings(guildId);
-        if (settings == null || settings.getDefaultPlaylist() == null)
+        String defaultPlaylist = settings().getDefaultPlaylist();
+        if (defaultPlaylist == null)
             return false;
 
-        Playlist pl = manager.getBot().getPlaylistLoader().getPlaylist(stringGuildId, settings.getDefaultPlaylist());
+        Playlist pl = manager.getBot().getPlaylistLoader().getPlaylist(stringGuildId, defaultPlaylist);
         if (pl == null || pl.getItems().isEmpty())
             return false;
-        pl.loadTracks(manager, (at) -> {
+        LoadSession session = newLoadSession();
+        pl.loadTracks(manager, session, (at) -> mailbox.execute(() -> {
+            // 読み込んでいる間に停止された場合は再生しない
+            if (session.isCancelled())
+                return;
             if (audioPlayer.getPlayingTrack() == null)
-                audioPlayer.playTrack(at);
+                audioPlayer.playTrack(prepare(at));
             else
                 defaultQueue.add(at);
-        }, () -> {
+        }), () -> {
             if (pl.getTracks().isEmpty() && !manager.getBot().getConfig().getStay())
                 manager.getBot().closeAudioConnection(guildId);
         });
         return true;
     }
 
+    /**
+     * 再生中の曲の残りが {@code windowMillis} 以下になっていれば、再生待ちの先頭の曲を先読みします。
+     * 先頭の曲が入れ替わっていた場合は、先読みを破棄します。
+     *
+     * @param windowMillis 曲の終わりの何ミリ秒前から先読みを始めるか
+     */
+    public void checkPreload(long windowMillis) {
+        mailbox.execute(() -> preload(windowMillis));
+    }
+
+    private void preload(long windowMillis) {
+        QueuedTrack head = queue.isEmpty() ? null : queue.get(0);
+        if (preloadSource != null && preloadSource != head)
+            cancelPreload();
+
+        AudioTrack current = audioPlayer.getPlayingTrack();
+        if (current == null || head == null || head.isPending() || preloadSource != null || audioPlayer.isPaused())
+            return;
+        if (current.getInfo().isStream || current.getDuration() - current.getPosition() > windowMillis)
+            return;
+        // 1曲リピートでは同じ曲が先頭に戻されるので、先読みしても使われない
+        if (settings().getRepeatMode() == RepeatMode.SINGLE)
+            return;
+
+        if (standbyPlayer == null) {
+            standbyPlayer = manager.createGuildPlayer(guildId);
+            standbyPlayer.addListener(this);
+        }
+        AudioTrack track;
+        try {
+            track = head.getTrack();
+        } catch (IllegalStateException e) {
+            // 復元できない楽曲は、再生する際に playNext で取り除く
+            return;
+        }
+        preloadSource = head;
+        AudioTrack clone = track.makeClone();
+        clone.setUserData(track.getUserData());
+        preloadTrack = prepare(clone);
+        standbyPlayer.setVolume(audioPlayer.getVolume());
+        standbyPlayer.setPaused(true);
+        standbyPlayer.playTrack(preloadTrack);
+    }
+
+    /**
+     * 先読みを破棄します。再生中の曲も再生待ちもない場合は、先読み用のプレイヤーも破棄します。
+     */
+    private void cancelPreload() {
+        if (preloadTrack != null) {
+            preloadSource = null;
+            preloadTrack = null;
+            standbyPlayer.stopTrack();
+        }
+        if (standbyPlayer != null && audioPlayer.getPlayingTrack() == null && queue.isEmpty()) {
+            standbyPlayer.destroy();
+            standbyPlayer = null;
+        }
+    }
+
+    /**
+     * 再生待ちから取り出した曲が先読みした曲であれば、先読み用のプレイヤーに切り替えます。
+     *
+     * @return 切り替えた場合は true
+     */
+    private boolean playPreloaded(QueuedTrack qt) {
+        if (qt != preloadSource || preloadTrack == null || standbyPlayer.getPlayingTrack() != preloadTrack)
+            return false;
+
+        AudioTrack track = preloadTrack;
+        AudioPlayer previous = audioPlayer;
+        AudioPlayer next = standbyPlayer;
+        preloadSource = null;
+        preloadTrack = null;
+        standbyPlayer = previous;
+        audioPlayer = next;
+
+        next.setVolume(previous.getVolume());
+        next.setPaused(previous.isPaused());
+        onTrackStart(next, track);
+        return true;
+    }
+
+    /**
+     * 再生中の曲から {@code timeoutNanos} 以上フレームが届いていなければ、再生が止まったとみなして復旧します。
+     * 切断中・再接続中はJDAがフレームを要求しないため確認せず、接続が戻った時点から改めて計測します。
+     *
+     * @param timeoutNanos 再生が止まったとみなすまでの時間
+     */
+    public void checkStall(long timeoutNanos) {
+        Guild guild = guild(manager.getBot().getJDA());
+        boolean wasSending = sending;
+        sending = guild != null && guild.getAudioManager().isConnected() && guild.getAudioManager().getSendingHandler() == this;
+        if (!sending)
+            return;
+        if (!wasSending) {
+            lastProvided = System.nanoTime();
+            return;
+        }
+        AudioTrack track = audioPlayer.getPlayingTrack();
+        if (track == null || audioPlayer.isPaused())
+            return;
+        if (System.nanoTime() - lastProvided > timeoutNanos)
+            mailbox.execute(() -> recoverFromStall(track));
+    }
+
+    /**
+     * ギルドの設定に従って、止まった曲を止まった位置から再生し直すか、次の曲へスキップします。
+     * 同じ曲で {@link #MAX_STALL_RETRIES} 回再生し直しても止まる場合はスキップします。
+     */
+    private void recoverFromStall(AudioTrack track) {
+        if (audioPlayer.getPlayingTrack() != track)
+            return;
+        lastProvided = System.nanoTime();
+        stalls++;
+        manager.recordStall(track);
+
+        StallPolicy policy = settings().getStallPolicy();
+        if (policy == StallPolicy.RETRY && stallRetries < MAX_STALL_RETRIES) {
+            stallRetries++;
+            AudioTrack retry = track.makeClone();
+            retry.setUserData(track.getUserData());
+            if (track.isSeekable())
+                retry.setPosition(track.getPosition());
+            LOG.info("再生が止まったため、{} を {} から再生し直します。", track.getInfo().title, FormatUtil.formatTime(track.getPosition()));
+            audioPlayer.playTrack(retry);
+        } else {
+            stallRetries = 0;
+            LOG.info("再生が止まったため、{} をスキップします。", track.getInfo().title);
+            audioPlayer.stopTrack();
+        }
+    }
+
+    /**
+     * @return このサーバーで再生が止まったのを検出した回数
+     */
+    public long getStalls() {
+        return stalls;
+    }
+
     // Audio Events
+    @Override
+    public void onTrackStuck(AudioPlayer player, AudioTrack track, long thresholdMs) {
+        if (player == audioPlayer)
+            mailbox.execute(() -> recoverFromStall(track));
+    }
+
     @Override
     public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
-        RepeatMode repeatMode = manager.getBot().getSettingsManager().getSettings(guildId).getRepeatMode();
+        // 再生スレッドから呼ばれた場合は待たずに戻り、次の曲の準備は mailbox で行う
+        mailbox.execute(() -> handleTrackEnd(player, track, endReason));
+    }
+
+    private void handleTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
+        if (player != audioPlayer) {
+            // 先読み中の曲の読み込みに失敗したか、先読みが破棄された
+            if (track == preloadTrack) {
+                preloadSource = null;
+                preloadTrack = null;
+            }
+            return;
+        }
+        // 再生し直すために置き換えた場合は、次の曲へ進まない
+        if (endReason == AudioTrackEndReason.REPLACED)
+            return;
+        stallRetries = 0;
+
+        RepeatMode repeatMode = settings().getRepeatMode();
 
         // もしも楽曲再生が通常通り終了し、リピートモードが有効(!OFF)ならばキューに再追加する
         if (endReason == AudioTrackEndReason.FINISHED && repeatMode != RepeatMode.OFF) {
             // in RepeatMode.ALL
             if (repeatMode == RepeatMode.ALL) {
-                queue.add(new QueuedTrack(track.makeClone(), track.getUserData(RequestMetadata.class)));
+                queue.add(compact(new QueuedTrack(LiveStreamBroadcaster.unwrap(track).makeClone(), track.getUserData(RequestMetadata.class))), false);
 
                 // in RepeatMode.SINGLE
             } else if (repeatMode == RepeatMode.SINGLE) {
-                queue.addAt(0, new QueuedTrack(track.makeClone(), track.getUserData(RequestMetadata.class)));
+                queue.addAt(0, new QueuedTrack(LiveStreamBroadcaster.unwrap(track).makeClone(), track.getUserData(RequestMetadata.class)));
             }
         }
 
-        if (queue.isEmpty()) {
-            if (!playFromDefault()) {
-                manager.getBot().getNowplayingHandler().onTrackUpdate(guildId, null, this);
-                if (!manager.getBot().getConfig().getStay()) manager.getBot().closeAudioConnection(guildId);
-
-                player.setPaused(false);
+        playNext(player);
+    }
 
-                Guild guild = guild(manager.getBot().getJDA());
-                Bot.updatePlayStatus(guild, guild.getSelfMember(), PlayStatus.STOPPED);
+    /**
+     * 再生待ちの先頭の曲を再生します。再生待ちが空の場合は、デフォルトのプレイリストを再生するか、再生を終了します。
+     * 先頭が仮の楽曲の場合は、読み込みが終わってから {@link #onResolved} で改めて呼び出されます。
+     * 圧縮した楽曲を復元できなかった場合は、その曲を飛ばして次の曲を再生します。
+     */
+    private void playNext(AudioPlayer player) {
+        while (true) {
+            if (queue.isEmpty()) {
+                if (!startDefaultPlaylist()) {
+                    cancelPreload();
+                    manager.getBot().getNowplayingHandler().onTrackUpdate(guildId, null, this);
+                    if (!manager.getBot().getConfig().getStay()) manager.getBot().closeAudioConnection(guildId);
+
+                    player.setPaused(false);
+
+                    Guild guild = guild(manager.getBot().getJDA());
+                    Bot.updatePlayStatus(guild, guild.getSelfMember(), PlayStatus.STOPPED);
+                }
+                return;
+            }
+            gapStart = System.nanoTime();
+            if (queue.get(0).isPending()) {
+                resolveAhead();
+                return;
             }
-        } else {
             QueuedTrack qt = queue.pull();
-            player.playTrack(qt.getTrack());
+            resolveAhead();
+            if (playPreloaded(qt))
+                return;
+            cancelPreload();
+            AudioTrack track;
+            try {
+                track = qt.getTrack();
+            } catch (IllegalStateException e) {
+                LOG.warn("再生待ちの楽曲を復元できなかったため、スキップします: {}", qt.getTitle(), e);
+                continue;
+            }
+            player.playTrack(prepare(track));
+            return;
         }
     }
 
+    /**
+     * 再生待ちの先頭から {@code lazyresolveahead} 曲以内にある仮の楽曲の読み込みを始めます。
+     */
+    private void resolveAhead() {
+        int ahead = manager.getBot().getConfig().getLazyResolveAhead();
+        // 読み込みを始める楽曲を先に決めてから、読み込みを依頼する
+        List<QueuedTrack> placeholders = new ArrayList<>();
+        for (QueuedTrack qt : queue.getRange(0, ahead)) {
+            if (qt.isPending() && resolving.add(qt))
+                placeholders.add(qt);
+        }
+        for (QueuedTrack placeholder : placeholders)
+            resolve(placeholder);
+    }
+
+    private void resolve(QueuedTrack placeholder) {
+        LoadSession session = newLoadSession();
+        manager.loadItemCached(session, placeholder.getPendingIdentifier(), new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                mailbox.execute(() -> onResolved(session, placeholder, Collections.singletonList(track)));
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                List<AudioTrack> tracks;
+                if (playlist.isSearchResult())
+                    tracks = playlist.getTracks().isEmpty() ? Collections.emptyList() : playlist.getTracks().subList(0, 1);
+                else if (playlist.getSelectedTrack() != null)
+                    tracks = Collections.singletonList(playlist.getSelectedTrack());
+                else
+                    tracks = playlist.getTracks();
+                mailbox.execute(() -> onResolved(session, placeholder, tracks));
+            }
+
+            @Override
+            public void noMatches() {
+                mailbox.execute(() -> onResolved(session, placeholder, Collections.emptyList()));
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                if (exception instanceof LoadScheduler.DroppedException) {
+                    // 読み込まれなかっただけなので、仮の楽曲は残したまま読み込み直す
+                    mailbox.execute(() -> {
+                        if (resolving.remove(placeholder) && !session.isCancelled())
+                            resolveAhead();
+                    });
+                    return;
+                }
+                LOG.debug("{} を読み込めませんでした: {}", placeholder.getPendingIdentifier(), exception.getMessage());
+                mailbox.execute(() -> onResolved(session, placeholder, Collections.emptyList()));
+            }
+        });
+    }
+
+    /**
+     * 仮の楽曲を読み込んだ楽曲に置き換えます。読み込めなかった場合や、長すぎる楽曲だけの場合は再生待ちから外します。
+     * 仮の楽曲が先頭の近くにない場合(削除された、または後ろに移動された場合)は何もせず、次に先頭へ近づいたときに読み込み直します。
+     */
+    private void onResolved(LoadSession session, QueuedTrack placeholder, List<AudioTrack> tracks) {
+        if (!resolving.remove(placeholder) || session.isCancelled())
+            return;
+        int ahead = manager.getBot().getConfig().getLazyResolveAhead();
+        List<QueuedTrack> head = queue.getRange(0, ahead * 2);
+        int index = -1;
+        for (int i = 0; i < head.size() && index < 0; i++)
+            if (head.get(i) == placeholder)
+                index = i;
+        if (index < 0)
+            return;
+
+        queue.remove(index);
+        int at = index;
+        for (AudioTrack track : tracks) {
+            if (!manager.getBot().getConfig().isTooLong(track))
+                queue.addAt(at++, compact(new QueuedTrack(track, placeholder.getRequestMetadata())));
+        }
+        if (at == index)
+            LOG.debug("{} を読み込めなかったため、再生待ちから外しました。", placeholder.getPendingIdentifier());
+
+        if (audioPlayer.getPlayingTrack() == null)
+            playNext(audioPlayer);
+        else
+            resolveAhead();
+    }
+
     @Override
     public void onTrackStart(AudioPlayer player, AudioTrack track) {
+        // 先読みを始めた時のイベントは無視する (切り替えた時に改めて呼び出される)
+        if (player != audioPlayer)
+            return;
         votes.clear();
+        stats.onTrackChange();
+        lastProvided = System.nanoTime();
         manager.getBot().getNowplayingHandler().onTrackUpdate(guildId, track, this);
 
         Guild guild = guild(manager.getBot().getJDA());
@@ -332,13 +876,22 @@ public class AudioHandler extends AudioEventAdapter implements AudioSendHandler
     // Audio Send Handler methods
     @Override
     public boolean canProvide() {
-        lastFrame = audioPlayer.provide();
-        return lastFrame != null;
+        AudioPlayer player = audioPlayer;
+        boolean provided = player.provide(frame);
+        AudioTrack track = player.getPlayingTrack();
+        stats.onFrame(provided, track != null && !player.isPaused(), PlaybackStats.frameBufferOf(track));
+        if (provided)
+            lastProvided = System.nanoTime();
+        if (provided && gapStart != 0) {
+            manager.getTrackGaps().record(System.nanoTime() - gapStart);
+            gapStart = 0;
+        }
+        return provided;
     }
 
     @Override
     public ByteBuffer provide20MsAudio() {
-        return ByteBuffer.wrap(lastFrame.getData());
+        return frameBuffer.flip();
     }
 
     @Override
@@ -348,6 +901,13 @@ public class AudioHandler extends AudioEventAdapter implements AudioSendHandler
 
 
     // Private methods
+    /**
+     * 他のサーバーでも再生しているライブ配信であれば、共有の配信から再生するトラックに置き換えます。
+     */
+    private AudioTrack prepare(AudioTrack track) {
+        return manager.getBroadcaster().wrap(track);
+    }
+
     private Guild guild(JDA jda) {
         return jda.getGuildById(guildId);
     }
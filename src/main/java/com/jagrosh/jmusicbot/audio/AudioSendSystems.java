@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot.audio;
+
+import net.dv8tion.jda.api.audio.factory.IAudioSendFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * 設定ファイルの {@code audiosendsystem} に応じて、音声パケットの送信処理を選びます。
+ * <p>
+ * {@code native} は jda-nas のネイティブの送信キューを使用します。パケットはJavaのスレッドで先に用意してキューに溜め、
+ * 送信はネイティブのスレッドが行うため、GCでJVMが停止している間も送信間隔が乱れません。
+ * jda-nas はこのBotに同梱していないため、JDA 5 に対応したものをクラスパスに追加した場合だけ使用できます。
+ * 送信キューを読み込めない場合 (jda-nas がない、対応していないOS・CPUなど) は、理由をエラーとして記録し、JDA標準の送信処理を使用します。
+ *
+ * @author Cosgy Dev
+ */
+public final class AudioSendSystems {
+    /**
+     * jda-nas の送信処理のクラス名です。コンパイル時には参照せず、実行時にクラスパスから読み込みます。
+     */
+    public static final String NATIVE_FACTORY = "com.sedmelluq.discord.lavaplayer.jdaudp.NativeAudioSendFactory";
+    private static final String NATIVE_LIBRARY = "com.sedmelluq.discord.lavaplayer.udpqueue.natives.UdpQueueManagerLibrary";
+    private static final Logger LOG = LoggerFactory.getLogger("AudioSendSystems");
+
+    private AudioSendSystems() {
+    }
+
+    /**
+     * @param system 設定ファイルの {@code audiosendsystem} の値
+     * @return 使用する送信処理。JDA標準の送信処理を使用する場合は null
+     */
+    public static IAudioSendFactory create(String system) {
+        switch (system.toLowerCase()) {
+            case "native":
+                try {
+                    IAudioSendFactory factory = createNative();
+                    LOG.info("音声の送信にネイティブの送信キューを使用します。");
+                    return factory;
+                } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+                    LOG.error("audiosendsystem に native が設定されていますが、ネイティブの送信キュー ({}) を読み込めませんでした。"
+                            + "JDA標準の送信処理を使用します。", NATIVE_FACTORY, e);
+                    return null;
+                }
+            case "dedicated":
+                LOG.info("音声の送信に専用の送信スレッドを使用します。");
+                return new DedicatedAudioSendFactory();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * クラスパスの jda-nas からネイティブの送信処理を作成します。ネイティブライブラリもこの時点で読み込みます。
+     *
+     * @return ネイティブの送信キューを使用する送信処理
+     * @throws ReflectiveOperationException jda-nas がクラスパスにないか、ネイティブライブラリを読み込めなかった場合
+     * @throws LinkageError                 jda-nas が使用中の JDA に対応していない場合
+     * @throws ClassCastException           {@link #NATIVE_FACTORY} が JDA の送信処理を実装していない場合
+     */
+    public static IAudioSendFactory createNative() throws ReflectiveOperationException {
+        ClassLoader loader = AudioSendSystems.class.getClassLoader();
+        try {
+            Class.forName(NATIVE_LIBRARY, true, loader).getMethod("getInstance").invoke(null);
+        } catch (InvocationTargetException e) {
+            // 読み込みに失敗した理由を、呼び出し元でそのまま記録できるようにする
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw e;
+        }
+        return Class.forName(NATIVE_FACTORY, true, loader)
+                .asSubclass(IAudioSendFactory.class)
+                .getConstructor()
+                .newInstance();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot.audio;
+
+import com.sedmelluq.discord.lavaplayer.container.common.OpusPacketRouter;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.BaseAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link LiveStreamBroadcaster} が共有しているライブ配信から、エンコード済みのOpusフレームを受け取って再生するトラックです。
+ * 音量が100であれば、受け取ったフレームはそのまま送信されます。
+ *
+ * @author Cosgy Dev
+ */
+public class BroadcastAudioTrack extends BaseAudioTrack {
+    private final LiveStreamBroadcaster broadcaster;
+    private final AudioTrack source;
+
+    BroadcastAudioTrack(LiveStreamBroadcaster broadcaster, AudioTrack source) {
+        super(source.getInfo());
+        this.broadcaster = broadcaster;
+        this.source = source;
+    }
+
+    /**
+     * @return 共有元の配信のトラック
+     */
+    public AudioTrack getSource() {
+        return source;
+    }
+
+    @Override
+    public void process(LocalAudioTrackExecutor executor) throws Exception {
+        OpusPacketRouter router = new OpusPacketRouter(executor.getProcessingContext(), 48000, 2);
+        byte[] packet = new byte[LiveStreamBroadcaster.maxFrameSize()];
+        ByteBuffer buffer = ByteBuffer.wrap(packet);
+
+        try (LiveStreamBroadcaster.Subscription subscription = broadcaster.subscribe(source)) {
+            executor.executeProcessingLoop(() -> {
+                int length;
+                while ((length = subscription.read(packet)) >= 0) {
+                    buffer.clear();
+                    buffer.limit(length);
+                    router.process(buffer);
+                }
+            }, null);
+        } finally {
+            router.close();
+        }
+    }
+
+    @Override
+    protected AudioTrack makeShallowClone() {
+        return new BroadcastAudioTrack(broadcaster, source.makeClone());
+    }
+}
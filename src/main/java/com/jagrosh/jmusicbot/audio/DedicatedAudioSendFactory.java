@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot.audio;
+
+import net.dv8tion.jda.api.audio.factory.IAudioSendFactory;
+import net.dv8tion.jda.api.audio.factory.IAudioSendSystem;
+import net.dv8tion.jda.api.audio.factory.IPacketProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * JDA標準の送信処理の代わりに使用する音声パケットの送信処理です。
+ * <p>
+ * 標準の送信処理との違いは以下の通りです。
+ * <ul>
+ *     <li>接続ごとに優先度の高い専用スレッドで送信する</li>
+ *     <li>パケットごとに {@link DatagramPacket} を確保せず、送信用の領域を使い回す</li>
+ *     <li>送信時刻を前回の送信からの相対時間ではなく、20ms刻みの絶対時刻で決める</li>
+ * </ul>
+ * 送信時刻を絶対時刻で管理するため、GCなどで一時的に送信が遅れても、その後の送信間隔が崩れ続けることがありません。
+ * ただし送信はJavaのスレッドで行うため、GCでJVMが停止している間の送信は止まります。
+ * ネイティブライブラリを使用できる環境では、{@link AudioSendSystems} の {@code native} を使用してください。
+ *
+ * @author Cosgy Dev
+ */
+public class DedicatedAudioSendFactory implements IAudioSendFactory {
+    static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    // これ以上遅れた場合は追いつこうとせず、送信時刻の基準を今に合わせ直す
+    private static final long MAX_LAG_NANOS = FRAME_NANOS * 3;
+    private static final int MAX_PACKET_SIZE = 4096;
+
+    @Override
+    public IAudioSendSystem createSendSystem(IPacketProvider packetProvider) {
+        return new DedicatedSendSystem(packetProvider);
+    }
+
+    private static class DedicatedSendSystem implements IAudioSendSystem {
+        private final Logger log = LoggerFactory.getLogger("DedicatedAudioSendFactory");
+        private final IPacketProvider packetProvider;
+        private final byte[] data = new byte[MAX_PACKET_SIZE];
+        private final DatagramPacket packet = new DatagramPacket(data, 0);
+        private volatile Thread sendThread;
+
+        private DedicatedSendSystem(IPacketProvider packetProvider) {
+            this.packetProvider = packetProvider;
+        }
+
+        @Override
+        public void start() {
+            Thread thread = new Thread(this::run, packetProvider.getIdentifier() + " Dedicated Sending Thread");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            sendThread = thread;
+            thread.start();
+        }
+
+        @Override
+        public void shutdown() {
+            Thread thread = sendThread;
+            sendThread = null;
+            if (thread != null)
+                thread.interrupt();
+        }
+
+        private void run() {
+            DatagramSocket socket = packetProvider.getUdpSocket();
+            long deadline = System.nanoTime();
+            long lastSent = deadline;
+            boolean sentPacket = true;
+
+            while (sendThread == Thread.currentThread() && !socket.isClosed()) {
+                try {
+                    boolean changeTalking = !sentPacket || System.nanoTime() - lastSent > FRAME_NANOS;
+                    ByteBuffer raw = packetProvider.getNextPacketRaw(changeTalking);
+                    sentPacket = raw != null && raw.remaining() <= data.length;
+                    if (sentPacket) {
+                        int length = raw.remaining();
+                        raw.get(data, 0, length);
+                        packet.setData(data, 0, length);
+                        packet.setSocketAddress(packetProvider.getSocketAddress());
+                        socket.send(packet);
+                        lastSent = System.nanoTime();
+                    }
+                } catch (NoRouteToHostException e) {
+                    packetProvider.onConnectionLost();
+                } catch (SocketException e) {
+                    // ソケットが閉じられた
+                } catch (Exception e) {
+                    log.error("音声パケットの送信中にエラーが発生しました", e);
+                }
+
+                deadline += FRAME_NANOS;
+                long now = System.nanoTime();
+                if (now - deadline > MAX_LAG_NANOS)
+                    deadline = now;
+                long wait;
+                while ((wait = deadline - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                    if (Thread.interrupted())
+                        return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot.audio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ギルドごとに、再生待ちとプレイヤーの状態を変更する処理を1つずつ順番に実行します。
+ * <p>
+ * 処理は全ギルドで共有するスレッドプールで実行されますが、同じギルドの処理が同時に実行されることはありません。
+ * また、ギルド同士が同じロックを待ち合うこともありません。
+ * 実行中の処理の中から呼び出した場合は、順番を待たずにその場で実行します。
+ *
+ * @author Cosgy Dev
+ */
+public class GuildMailbox {
+    private static final ExecutorService POOL = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "GuildMailbox");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Logger log = LoggerFactory.getLogger("GuildMailbox");
+    private final Executor executor;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile Thread owner;
+
+    public GuildMailbox() {
+        this(POOL);
+    }
+
+    GuildMailbox(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return 現在のスレッドがこのギルドの処理を実行中か
+     */
+    public boolean isInMailbox() {
+        return owner == Thread.currentThread();
+    }
+
+    /**
+     * 処理を順番待ちに追加し、完了を待たずに戻ります。
+     */
+    public void execute(Runnable task) {
+        if (isInMailbox()) {
+            task.run();
+            return;
+        }
+        tasks.add(task);
+        schedule();
+    }
+
+    /**
+     * 処理を順番待ちに追加し、完了するまで待ちます。
+     */
+    public void run(Runnable task) {
+        call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * 処理を順番待ちに追加し、完了するまで待って結果を返します。
+     * 処理で発生した例外は、そのまま呼び出し元に投げ直します。
+     */
+    public <V> V call(Callable<V> task) {
+        if (isInMailbox()) {
+            try {
+                return task.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        FutureTask<V> future = new FutureTask<>(task);
+        tasks.add(future);
+        schedule();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("処理の完了を待っている間に割り込まれました", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true))
+            executor.execute(this::drain);
+    }
+
+    private void drain() {
+        owner = Thread.currentThread();
+        try {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    log.error("ギルドの処理の実行中にエラーが発生しました", t);
+                }
+            }
+        } finally {
+            owner = null;
+            scheduled.set(false);
+            // 終了する直前に追加された処理があれば、改めて実行する
+            if (!tasks.isEmpty())
+                schedule();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot.audio;
+
+import com.jagrosh.jmusicbot.queue.FairQueue;
+import com.jagrosh.jmusicbot.queue.Queueable;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * ギルドの {@link GuildMailbox} を通してのみ操作される {@link FairQueue} です。
+ * 変更だけでなく読み取りも順番待ちを通すため、常に他の変更の途中ではない状態を読み取れます。
+ * <p>
+ * 各メソッドはそれぞれ1回ずつ順番待ちを通すため、複数のメソッドを続けて呼び出すと、その間に他の変更が入ることがあります。
+ * 同じ時点の状態で複数の値を読み取る場合や、読み取った結果に応じて変更する場合は {@link #call(Function)} を使用してください。
+ *
+ * @param <T> 再生待ちの楽曲の型
+ * @author Cosgy Dev
+ */
+public class GuildQueue<T extends Queueable> {
+    private final FairQueue<T> queue = new FairQueue<>();
+    private final GuildMailbox mailbox;
+
+    public GuildQueue(GuildMailbox mailbox) {
+        this.mailbox = mailbox;
+    }
+
+    /**
+     * {@code action} を順番待ちの中で1回だけ実行し、結果を返します。
+     * 実行中は他の変更が入らないため、複数の読み取りや、読み取りとそれに応じた変更をまとめて行えます。
+     * 渡された {@link FairQueue} は {@code action} の外に持ち出さないでください。
+     *
+     * @param action キューを操作する処理
+     * @param <R>    処理の結果の型
+     * @return {@code action} の結果
+     */
+    public <R> R call(Function<FairQueue<T>, R> action) {
+        return mailbox.call(() -> action.apply(queue));
+    }
+
+    public int add(T item, boolean forceToEnd) {
+        return mailbox.call(() -> queue.add(item, forceToEnd));
+    }
+
+    public int addAll(List<T> items, boolean forceToEnd) {
+        return mailbox.call(() -> queue.addAll(items, forceToEnd));
+    }
+
+    public void addAt(int index, T item) {
+        mailbox.run(() -> queue.addAt(index, item));
+    }
+
+    public int size() {
+        return mailbox.call(queue::size);
+    }
+
+    public T pull() {
+        return mailbox.call(queue::pull);
+    }
+
+    public boolean isEmpty() {
+        return mailbox.call(queue::isEmpty);
+    }
+
+    /**
+     * @return その時点の再生待ちのコピー
+     */
+    public List<T> getList() {
+        return mailbox.call(queue::getList);
+    }
+
+    public T get(int index) {
+        return mailbox.call(() -> queue.get(index));
+    }
+
+    public List<T> getRange(int from, int to) {
+        return mailbox.call(() -> queue.getRange(from, to));
+    }
+
+    public long getTotalDuration() {
+        return mailbox.call(queue::getTotalDuration);
+    }
+
+    public int getUnknownDurationCount() {
+        return mailbox.call(queue::getUnknownDurationCount);
+    }
+
+    public int count(long identifier) {
+        return mailbox.call(() -> queue.count(identifier));
+    }
+
+    public int indexOf(String query) {
+        return mailbox.call(() -> queue.indexOf(query));
+    }
+
+    public int indexOf(String query, long identifier) {
+        return mailbox.call(() -> queue.indexOf(query, identifier));
+    }
+
+    public T remove(int index) {
+        return mailbox.call(() -> queue.remove(index));
+    }
+
+    /**
+     * 指定した位置の楽曲を、そのユーザーが追加した楽曲か {@code isDJ} の場合だけ削除します。
+     * 楽曲の確認と削除を同じ順番待ちの中で行うため、その間に位置がずれることはありません。
+     * 削除したかどうかは、返された楽曲の {@link Queueable#getIdentifier()} と {@code isDJ} から同じ条件で判断できます。
+     *
+     * @param index      削除する楽曲の位置
+     * @param identifier 削除を依頼したユーザーのID
+     * @param isDJ       他のユーザーの楽曲も削除できるか
+     * @return 指定した位置にあった楽曲 (削除できなかった場合も返します)。位置が範囲外の場合は {@code null}
+     */
+    public T removeIfAllowed(int index, long identifier, boolean isDJ) {
+        return mailbox.call(() -> {
+            if (index < 0 || index >= queue.size())
+                return null;
+            T item = queue.get(index);
+            if (item.getIdentifier() == identifier || isDJ)
+                queue.remove(index);
+            return item;
+        });
+    }
+
+    public int removeAll(long identifier) {
+        return mailbox.call(() -> queue.removeAll(identifier));
+    }
+
+    public void clear() {
+        mailbox.run(queue::clear);
+    }
+
+    public int shuffle(long identifier) {
+        return mailbox.call(() -> queue.shuffle(identifier));
+    }
+
+    public void skip(int number) {
+        mailbox.run(() -> queue.skip(number));
+    }
+
+    /**
+     * 先頭から {@code number} 曲を飛ばし、新しく先頭になった楽曲を返します。
+     *
+     * @param number 飛ばす曲数
+     * @return 新しく先頭になった楽曲。飛ばした後に楽曲が残らない場合は何もせずに {@code null}
+     */
+    public T skipTo(int number) {
+        return mailbox.call(() -> {
+            if (number < 0 || number >= queue.size())
+                return null;
+            queue.skip(number);
+            return queue.get(0);
+        });
+    }
+
+    /**
+     * 楽曲を別の位置に移動します。位置の確認と移動を同じ順番待ちの中で行います。
+     *
+     * @param from 移動する楽曲の位置
+     * @param to   移動先の位置
+     * @return 移動した楽曲。どちらかの位置が範囲外の場合は何もせずに {@code null}
+     */
+    public T moveItem(int from, int to) {
+        return mailbox.call(() -> {
+            if (from < 0 || from >= queue.size() || to < 0 || to >= queue.size())
+                return null;
+            return queue.moveItem(from, to);
+        });
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot.audio;
+
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 同じライブ配信を複数のサーバーで再生している場合に、配信ごとに1つのプレイヤーだけで受信とエンコードを行い、
+ * エンコード済みのOpusフレームを各サーバーの {@link BroadcastAudioTrack} に配ります。
+ * <p>
+ * 購読しているサーバーがいなくなった配信は停止します。
+ *
+ * @author Cosgy Dev
+ */
+public class LiveStreamBroadcaster {
+    private static final int SLOTS = 50; // 1秒分
+    private static final int MAX_FRAME_SIZE = StandardAudioDataFormats.DISCORD_OPUS.maximumChunkSize();
+
+    private final Logger log = LoggerFactory.getLogger("LiveStreamBroadcaster");
+    private final PlayerManager manager;
+    private final boolean enabled;
+    private final Map<String, Broadcast> broadcasts = new HashMap<>();
+    private final ScheduledExecutorService pump = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "LiveStreamBroadcaster");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public LiveStreamBroadcaster(PlayerManager manager, boolean enabled) {
+        this.manager = manager;
+        this.enabled = enabled;
+    }
+
+    /**
+     * ライブ配信のトラックであれば、共有の配信から再生するトラックに置き換えます。
+     *
+     * @param track 再生しようとしているトラック
+     * @return 置き換えたトラック、または対象外の場合は元のトラック
+     */
+    public AudioTrack wrap(AudioTrack track) {
+        if (!enabled || track instanceof BroadcastAudioTrack || !track.getInfo().isStream || track.getInfo().uri == null)
+            return track;
+        AudioTrack wrapped = new BroadcastAudioTrack(this, track);
+        wrapped.setUserData(track.getUserData());
+        return wrapped;
+    }
+
+    /**
+     * @return 共有の配信から再生するトラックであれば元のトラック、それ以外はそのまま
+     */
+    public static AudioTrack unwrap(AudioTrack track) {
+        return track instanceof BroadcastAudioTrack ? ((BroadcastAudioTrack) track).getSource() : track;
+    }
+
+    synchronized Subscription subscribe(AudioTrack source) {
+        String uri = source.getInfo().uri;
+        Broadcast broadcast = broadcasts.get(uri);
+        if (broadcast == null || broadcast.isEnded()) {
+            broadcast = new Broadcast(uri);
+            broadcasts.put(uri, broadcast);
+            broadcast.start(source.makeClone());
+            log.info("ライブ配信の共有を開始しました: {}", uri);
+        }
+        broadcast.subscribers++;
+        return new Subscription(broadcast);
+    }
+
+    private synchronized void unsubscribe(Broadcast broadcast) {
+        if (--broadcast.subscribers > 0)
+            return;
+        broadcast.stop();
+        broadcasts.remove(broadcast.uri, broadcast);
+        log.info("ライブ配信の共有を終了しました: {}", broadcast.uri);
+    }
+
+    public synchronized int getBroadcastCount() {
+        return broadcasts.size();
+    }
+
+    public synchronized int getSubscriberCount() {
+        int count = 0;
+        for (Broadcast broadcast : broadcasts.values())
+            count += broadcast.subscribers;
+        return count;
+    }
+
+    /**
+     * 1つの配信。送信用のスレッドが20msごとにプレイヤーからフレームを取り出し、リングバッファに書き込みます。
+     */
+    private class Broadcast {
+        private final String uri;
+        private final byte[][] slots = new byte[SLOTS][MAX_FRAME_SIZE];
+        private final int[] lengths = new int[SLOTS];
+        private final ByteBuffer buffer = ByteBuffer.allocate(MAX_FRAME_SIZE);
+        private final MutableAudioFrame frame = new MutableAudioFrame();
+        private AudioPlayer player;
+        private ScheduledFuture<?> task;
+        private long written;
+        // 購読の解除と送信用スレッドの終了処理が同時に stop() を呼び出しても、片付けは1回だけ行う
+        private final AtomicBoolean ended = new AtomicBoolean();
+        private int subscribers; // LiveStreamBroadcaster で同期
+
+        private Broadcast(String uri) {
+            this.uri = uri;
+            this.frame.setBuffer(buffer);
+        }
+
+        private void start(AudioTrack track) {
+            player = manager.createPlayer();
+            player.playTrack(track);
+            task = pump.scheduleAtFixedRate(this::pump, 0, 20, TimeUnit.MILLISECONDS);
+        }
+
+        private void pump() {
+            try {
+                while (player.provide(frame)) {
+                    buffer.flip();
+                    synchronized (this) {
+                        int slot = (int) (written % SLOTS);
+                        lengths[slot] = buffer.remaining();
+                        buffer.get(slots[slot], 0, lengths[slot]);
+                        written++;
+                        notifyAll();
+                    }
+                    buffer.clear();
+                }
+                if (player.getPlayingTrack() == null)
+                    stop();
+            } catch (Exception e) {
+                log.warn("ライブ配信の共有中にエラーが発生しました: {}", e.toString());
+                stop();
+            }
+        }
+
+        private void stop() {
+            if (!ended.compareAndSet(false, true))
+                return;
+            if (task != null)
+                task.cancel(false);
+            player.destroy();
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        private boolean isEnded() {
+            return ended.get();
+        }
+    }
+
+    /**
+     * 1つのサーバーからの購読。読み取り位置を持ちます。
+     */
+    class Subscription implements AutoCloseable {
+        private final Broadcast broadcast;
+        private long cursor;
+        private boolean closed;
+
+        private Subscription(Broadcast broadcast) {
+            this.broadcast = broadcast;
+            synchronized (broadcast) {
+                this.cursor = broadcast.written;
+            }
+        }
+
+        /**
+         * 次のフレームが届くまで待ち、{@code target} にコピーします。
+         *
+         * @return コピーしたバイト数、配信が終了した場合は -1
+         */
+        int read(byte[] target) throws InterruptedException {
+            synchronized (broadcast) {
+                while (cursor >= broadcast.written && !broadcast.isEnded())
+                    broadcast.wait();
+                if (cursor >= broadcast.written)
+                    return -1;
+                // 遅れすぎた場合は最新のフレームまで飛ばす
+                if (broadcast.written - cursor > SLOTS)
+                    cursor = broadcast.written - 1;
+                int slot = (int) (cursor % SLOTS);
+                int length = broadcast.lengths[slot];
+                System.arraycopy(broadcast.slots[slot], 0, target, 0, length);
+                cursor++;
+                return length;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed)
+                return;
+            closed = true;
+            unsubscribe(broadcast);
+        }
+    }
+
+    static int maxFrameSize() {
+        return MAX_FRAME_SIZE;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot.audio;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 楽曲の読み込みを、コマンドから1曲ずつ読み込む「通常」と、再生リストなどをまとめて読み込む「一括」の2つの列に分けて実行します。
+ * <p>
+ * それぞれの列は専用のスレッドで読み込むため、大きな再生リストを読み込んでいる間も、コマンドで指定した曲はすぐに読み込まれます。
+ * <ul>
+ *     <li>通常の列では、同じギルドの読み込みを1件ずつ受け付けた順番に実行します ({@code loadItemOrdered} と同じ動作です)。</li>
+ *     <li>一括の列では、ギルドごとに順番待ちを持ち、ギルドを順番に回りながら1件ずつ取り出します。
+ *     1つのギルドが大量の項目を追加しても、他のギルドの読み込みが後回しになり続けることはありません。</li>
+ * </ul>
+ * 各スレッドは lavaplayer に読み込みを依頼し、完了するまで待ってから次の項目に進みます。
+ * そのため lavaplayer の読み込み用のスレッド数は、両方の列のスレッド数の合計以上にしてください。
+ * <p>
+ * 1件の読み込みが {@code itemTimeoutMillis} 以内に終わらない場合は読み込みを中断し、失敗としてハンドラーに渡します。
+ * 一括の列の項目は {@link LoadSession} ごとに受け付け、順番が来たときに取り消されていたり期限切れだった場合は読み込まず、
+ * {@link DroppedException} を失敗としてハンドラーに渡します。
+ *
+ * @author Cosgy Dev
+ */
+public class LoadScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger("LoadScheduler");
+
+    private final AudioPlayerManager manager;
+    private final long itemTimeoutMillis;
+    private final Lane interactive;
+    private final Lane bulk;
+    // 取り消し・期限切れのため、読み込まなかったか結果を捨てた項目の数
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong itemTimeouts = new AtomicLong();
+
+    /**
+     * @param interactiveThreads 通常の列で同時に読み込む件数
+     * @param bulkThreads        一括の列で同時に読み込む件数
+     * @param itemTimeoutMillis  1件の読み込みの制限時間。{@code 0} 以下の場合は制限しません
+     */
+    public LoadScheduler(AudioPlayerManager manager, int interactiveThreads, int bulkThreads, long itemTimeoutMillis) {
+        this.manager = manager;
+        this.itemTimeoutMillis = itemTimeoutMillis;
+        this.interactive = new Lane("load-interactive", Math.max(1, interactiveThreads), true);
+        this.bulk = new Lane("load-bulk", Math.max(1, bulkThreads), false);
+    }
+
+    /**
+     * コマンドから指定された1曲を読み込みます。同じギルドの読み込みは、呼び出した順番に1件ずつ行います。
+     */
+    public void loadInteractive(long guildId, String identifier, AudioLoadResultHandler handler) {
+        interactive.submit(guildId, new Request(null, identifier, handler, null));
+    }
+
+    /**
+     * 再生リストなどの項目を読み込みます。同じギルドの項目も同時に読み込むため、順番を揃える必要がある場合は呼び出し側で揃えてください。
+     * 順番が来たときに {@code session} が取り消されていたり期限切れだった場合は読み込まず、{@link DroppedException} を
+     * {@code handler} の {@code loadFailed} に渡します。
+     */
+    public void loadBulk(LoadSession session, String identifier, AudioLoadResultHandler handler) {
+        loadBulk(session, identifier, handler, null);
+    }
+
+    /**
+     * {@link #loadBulk(LoadSession, String, AudioLoadResultHandler)} と同じですが、順番が来たときに一括の列のスレッドで先に {@code cached} を呼び出します。
+     * {@code cached} が {@code true} を返した場合は、結果を渡し終えたものとして読み込みません。
+     * 保存された結果の復元を、読み込みを依頼したスレッドで行わないために使用します。
+     */
+    public void loadBulk(LoadSession session, String identifier, AudioLoadResultHandler handler, BooleanSupplier cached) {
+        bulk.submit(session.getGuildId(), new Request(session, identifier, handler, cached));
+    }
+
+    /**
+     * @return 通常の列で順番を待っている件数
+     */
+    public int getInteractivePending() {
+        return interactive.pending();
+    }
+
+    /**
+     * @return 一括の列で順番を待っている件数
+     */
+    public int getBulkPending() {
+        return bulk.pending();
+    }
+
+    /**
+     * 読み込みを依頼した側で結果を捨てた件数を加えます。
+     */
+    public void recordDropped(int count) {
+        dropped.addAndGet(count);
+    }
+
+    /**
+     * @return 取り消し・期限切れのため、読み込まなかったか結果を捨てた項目の数
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return 制限時間内に読み込みが終わらなかった項目の数
+     */
+    public long getItemTimeouts() {
+        return itemTimeouts.get();
+    }
+
+    public void shutdown() {
+        interactive.shutdown();
+        bulk.shutdown();
+    }
+
+    private void load(Request request) throws InterruptedException {
+        if (request.session != null && !request.session.isActive()) {
+            dropped.incrementAndGet();
+            request.loadFailed(new DroppedException(request.session.isCancelled()
+                    ? "読み込みが取り消されました。" : "読み込みが時間内に終わりませんでした。"));
+            return;
+        }
+        if (request.cached != null && request.cached.getAsBoolean())
+            return;
+        Future<Void> future = manager.loadItem(request.identifier, request);
+        try {
+            if (itemTimeoutMillis > 0)
+                future.get(itemTimeoutMillis, TimeUnit.MILLISECONDS);
+            else
+                future.get();
+        } catch (ExecutionException e) {
+            LOG.warn("楽曲の読み込み中にエラーが発生しました: {}", request.identifier, e.getCause());
+        } catch (TimeoutException e) {
+            itemTimeouts.incrementAndGet();
+            LOG.debug("楽曲の読み込みが {}ms 以内に終わらなかったため中断しました: {}", itemTimeoutMillis, request.identifier);
+            // 中断された読み込みが返す結果より先に、失敗として渡しておく
+            request.loadFailed(new FriendlyException("読み込みが時間内に終わりませんでした。", FriendlyException.Severity.COMMON, null));
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * 取り消し・期限切れのため、読み込まなかった項目のハンドラーに渡す例外です。
+     * この項目は {@link #getDropped()} に数えられているため、受け取った側で改めて数える必要はありません。
+     */
+    public static final class DroppedException extends FriendlyException {
+        private DroppedException(String message) {
+            super(message, Severity.COMMON, null);
+        }
+    }
+
+    /**
+     * 1件の読み込みの依頼です。制限時間を過ぎた後に届いた結果を渡さないように、最初の結果だけをハンドラーに渡します。
+     */
+    private static final class Request implements AudioLoadResultHandler {
+        private final LoadSession session;
+        private final String identifier;
+        private final AudioLoadResultHandler handler;
+        // 保存された結果を渡す処理。渡した場合は true を返す
+        private final BooleanSupplier cached;
+        private final AtomicBoolean answered = new AtomicBoolean();
+
+        private Request(LoadSession session, String identifier, AudioLoadResultHandler handler, BooleanSupplier cached) {
+            this.session = session;
+            this.identifier = identifier;
+            this.handler = handler;
+            this.cached = cached;
+        }
+
+        @Override
+        public void trackLoaded(AudioTrack track) {
+            if (answered.compareAndSet(false, true))
+                handler.trackLoaded(track);
+        }
+
+        @Override
+        public void playlistLoaded(AudioPlaylist playlist) {
+            if (answered.compareAndSet(false, true))
+                handler.playlistLoaded(playlist);
+        }
+
+        @Override
+        public void noMatches() {
+            if (answered.compareAndSet(false, true))
+                handler.noMatches();
+        }
+
+        @Override
+        public void loadFailed(FriendlyException exception) {
+            if (answered.compareAndSet(false, true))
+                handler.loadFailed(exception);
+        }
+    }
+
+    /**
+     * ギルドごとの順番待ちを持ち、取り出せるギルドを順番に回りながら読み込むスレッドの集まりです。
+     */
+    private final class Lane {
+        private final boolean ordered;
+        private final Map<Long, ArrayDeque<Request>> queues = new HashMap<>();
+        // 取り出せる項目があるギルド。1つのギルドは多くても1回しか含まれない
+        private final ArrayDeque<Long> ready = new ArrayDeque<>();
+        // 順番を守る列で、読み込み中のギルド
+        private final Set<Long> busy = new HashSet<>();
+        private final Thread[] threads;
+        private int pending;
+        private boolean shutdown;
+
+        private Lane(String name, int threads, boolean ordered) {
+            this.ordered = ordered;
+            this.threads = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                Thread thread = new Thread(this::work, name + "-" + i);
+                thread.setDaemon(true);
+                thread.start();
+                this.threads[i] = thread;
+            }
+        }
+
+        private synchronized void submit(long guildId, Request request) {
+            ArrayDeque<Request> queue = queues.computeIfAbsent(guildId, k -> new ArrayDeque<>());
+            queue.add(request);
+            pending++;
+            if (queue.size() == 1 && !busy.contains(guildId)) {
+                ready.add(guildId);
+                notify();
+            }
+        }
+
+        private void work() {
+            while (true) {
+                long guildId;
+                Request request;
+                synchronized (this) {
+                    while (ready.isEmpty() && !shutdown) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (shutdown)
+                        return;
+                    guildId = ready.poll();
+                    ArrayDeque<Request> queue = queues.get(guildId);
+                    request = queue.poll();
+                    pending--;
+                    if (ordered)
+                        busy.add(guildId);
+                    else if (queue.isEmpty())
+                        queues.remove(guildId);
+                    else {
+                        // 次の項目は、他のギルドの後に回す。待っているスレッドがあれば、そのスレッドに読み込ませる
+                        ready.add(guildId);
+                        notify();
+                    }
+                }
+                try {
+                    load(request);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    LOG.warn("楽曲の読み込み中にエラーが発生しました: {}", request.identifier, e);
+                } finally {
+                    if (ordered)
+                        release(guildId);
+                }
+            }
+        }
+
+        private synchronized void release(long guildId) {
+            busy.remove(guildId);
+            ArrayDeque<Request> queue = queues.get(guildId);
+            if (queue.isEmpty())
+                queues.remove(guildId);
+            else {
+                ready.add(guildId);
+                notify();
+            }
+        }
+
+        private synchronized int pending() {
+            return pending;
+        }
+
+        private synchronized void shutdown() {
+            shutdown = true;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot.audio;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 再生リストなどをまとめて読み込む1回の処理です。
+ * <p>
+ * 作成したときのギルドの世代を覚えておき、{@link AudioHandler#stopAndClear()} などで世代が進んだ場合は取り消されたものとして扱います。
+ * また、作成してから一定の時間が経過した場合は期限切れとして扱います。
+ * 取り消された・期限切れの処理は、まだ始めていない項目を読み込まず、読み込み中だった項目の結果も再生待ちに追加しません。
+ *
+ * @author Cosgy Dev
+ */
+public final class LoadSession {
+    private final long guildId;
+    private final AtomicLong generation;
+    private final long expected;
+    private final long deadline;
+
+    /**
+     * @param guildId       読み込みを依頼したギルドのID
+     * @param generation    ギルドの世代。値が変わると、この処理は取り消されます
+     * @param timeoutMillis 処理全体の制限時間。{@code 0} 以下の場合は制限しません
+     */
+    public LoadSession(long guildId, AtomicLong generation, long timeoutMillis) {
+        this.guildId = guildId;
+        this.generation = generation;
+        this.expected = generation.get();
+        this.deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+    }
+
+    public long getGuildId() {
+        return guildId;
+    }
+
+    /**
+     * @return ギルドの世代が進み、取り消された場合は {@code true}
+     */
+    public boolean isCancelled() {
+        return generation.get() != expected;
+    }
+
+    /**
+     * @return 制限時間を過ぎた場合は {@code true}
+     */
+    public boolean isExpired() {
+        return deadline != 0 && System.nanoTime() - deadline > 0;
+    }
+
+    /**
+     * @return 取り消されておらず、制限時間内の場合は {@code true}
+     */
+    public boolean isActive() {
+        return !isCancelled() && !isExpired();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot.audio;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.InternalAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrameBuffer;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioTrackExecutor;
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+
+/**
+ * ギルドごとのフレームバッファの状態と、再生の途切れ(アンダーラン)を記録します。
+ * <p>
+ * {@link #onFrame} は音声送信スレッドから 20ms ごとに呼ばれるため、オブジェクトを確保しません。
+ * 書き込みは送信スレッドのみが行い、読み取りはコマンドなど他のスレッドから行われます。
+ *
+ * @author Cosgy Dev
+ */
+public class PlaybackStats {
+    private volatile int bufferedFrames;
+    private volatile int bufferCapacity;
+    private volatile int lowWaterMark = -1;
+
+    private volatile long underruns;
+    private volatile long underrunSince;
+    private volatile long lastRecoveryNanos;
+    private volatile long maxRecoveryNanos;
+    private volatile long totalRecoveryNanos;
+    private volatile long recoveries;
+
+    static AudioFrameBuffer frameBufferOf(AudioTrack track) {
+        if (track instanceof InternalAudioTrack) {
+            AudioTrackExecutor executor = ((InternalAudioTrack) track).getActiveExecutor();
+            if (executor instanceof LocalAudioTrackExecutor)
+                return ((LocalAudioTrackExecutor) executor).getAudioBuffer();
+        }
+        return null;
+    }
+
+    /**
+     * 1フレーム分の送信結果を記録します。
+     *
+     * @param provided フレームを送信できたか
+     * @param playing  一時停止しておらず、トラックを再生中か
+     * @param buffer   再生中のトラックのフレームバッファ (取得できない場合は null)
+     */
+    void onFrame(boolean provided, boolean playing, AudioFrameBuffer buffer) {
+        if (buffer != null) {
+            int capacity = buffer.getFullCapacity();
+            int depth = capacity - buffer.getRemainingCapacity();
+            bufferCapacity = capacity;
+            bufferedFrames = depth;
+            if (playing && (lowWaterMark < 0 || depth < lowWaterMark))
+                lowWaterMark = depth;
+        } else {
+            bufferedFrames = 0;
+        }
+
+        if (provided) {
+            if (underrunSince != 0) {
+                long recovery = System.nanoTime() - underrunSince;
+                underrunSince = 0;
+                lastRecoveryNanos = recovery;
+                totalRecoveryNanos += recovery;
+                recoveries++;
+                if (recovery > maxRecoveryNanos)
+                    maxRecoveryNanos = recovery;
+            }
+        } else if (playing && underrunSince == 0 && buffer != null && buffer.hasReceivedFrames()) {
+            // トラック開始直後はまだ何もデコードされていないのが普通なので数えない
+            underrunSince = System.nanoTime();
+            underruns++;
+        }
+    }
+
+    /**
+     * トラックが変わったときに呼び出し、途中だったアンダーランと最低残量をリセットします。
+     */
+    void onTrackChange() {
+        underrunSince = 0;
+        lowWaterMark = -1;
+    }
+
+    public int getBufferedFrames() {
+        return bufferedFrames;
+    }
+
+    public int getBufferCapacity() {
+        return bufferCapacity;
+    }
+
+    public int getLowWaterMark() {
+        return lowWaterMark;
+    }
+
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    public boolean isUnderrun() {
+        return underrunSince != 0;
+    }
+
+    public long getLastRecoveryMillis() {
+        return lastRecoveryNanos / 1_000_000;
+    }
+
+    public long getMaxRecoveryMillis() {
+        return maxRecoveryNanos / 1_000_000;
+    }
+
+    public long getAverageRecoveryMillis() {
+        long count = recoveries;
+        return count == 0 ? 0 : totalRecoveryNanos / count / 1_000_000;
+    }
+}
@@ -16,26 +16,56 @@
 package com.jagrosh.jmusicbot.audio;
 
 import com.jagrosh.jmusicbot.Bot;
+import com.jagrosh.jmusicbot.settings.SettingsSnapshot;
+import com.jagrosh.jmusicbot.utils.OtherUtil;
 import com.sedmelluq.discord.lavaplayer.player.AudioConfiguration;
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerOptions;
 import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.source.AudioSourceManagers;
 import com.sedmelluq.discord.lavaplayer.source.nico.NicoAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.InternalAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.TrackStateListener;
+import com.sedmelluq.discord.lavaplayer.track.playback.NonAllocatingAudioFrameBuffer;
+import dev.cosgy.jmusicbot.playlist.TrackCache;
 import dev.lavalink.youtube.YoutubeAudioSourceManager;
 import dev.lavalink.youtube.clients.*;
 import net.dv8tion.jda.api.entities.Guild;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * @author John Grosh <john.a.grosh@gmail.com>
  */
 public class PlayerManager extends DefaultAudioPlayerManager {
     private final Bot bot;
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final QualityController qualityController;
+    private final TrackGapHistogram trackGaps = new TrackGapHistogram();
+    private final LiveStreamBroadcaster broadcaster;
+    // ギルド用に作成したプレイヤーと、そのギルドのID
+    private final Map<AudioPlayer, Long> playerGuilds = Collections.synchronizedMap(new WeakHashMap<>());
+    // ソースごとの再生停止の検出回数
+    private final Map<String, AtomicLong> stallsBySource = new ConcurrentHashMap<>();
+    private TrackCache trackCache;
+    private LoadScheduler loadScheduler;
 
     public PlayerManager(Bot bot) {
         this.bot = bot;
+        this.qualityController = new QualityController(this, bot.getConfig().getOpusQualityMin(), bot.getConfig().getOpusQualityMax());
+        this.broadcaster = new LiveStreamBroadcaster(this, bot.getConfig().isShareLiveStreams());
     }
 
     public void init() {
@@ -60,21 +90,254 @@ public class PlayerManager extends DefaultAudioPlayerManager {
         AudioSourceManagers.registerLocalSource(this);
         source(YoutubeAudioSourceManager.class).setPlaylistPageCount(10);
 
-        if (getConfiguration().getOpusEncodingQuality() != 10) {
-            logger.debug("OpusEncodingQuality は、{}(< 10), 品質を10に設定します。", getConfiguration().getOpusEncodingQuality());
-            getConfiguration().setOpusEncodingQuality(10);
+        // 2つの列のスレッドは読み込みの完了を待つため、lavaplayer 側で順番待ちにならない数のスレッドを用意する
+        int interactiveThreads = bot.getConfig().getInteractiveLoadThreads();
+        int bulkThreads = bot.getConfig().getBulkLoadThreads();
+        setItemLoaderThreadPoolSize(interactiveThreads + bulkThreads);
+        loadScheduler = new LoadScheduler(this, interactiveThreads, bulkThreads,
+                TimeUnit.SECONDS.toMillis(bot.getConfig().getLoadItemTimeout()));
+
+        // エンコード品質とリサンプリング品質は、設定の上限から始めて負荷に応じて調整する
+        qualityController.init(bot.getThreadpool());
+        logger.debug("OpusEncodingQuality を {}, ResamplingQuality を {} に設定しました。", qualityController.getQuality(), qualityController.getResamplingQuality().name());
+
+        // AudioHandler の MutableAudioFrame と組み合わせることで、再生中にフレームごとの確保が発生しなくなる
+        getConfiguration().setFrameBufferFactory(NonAllocatingAudioFrameBuffer::new);
+        setFrameBufferDuration(bot.getConfig().getFrameBufferDuration());
+
+        if (bot.getConfig().getPreloadSeconds() > 0) {
+            long window = TimeUnit.SECONDS.toMillis(bot.getConfig().getPreloadSeconds());
+            bot.getThreadpool().scheduleWithFixedDelay(() -> checkPreloads(window), 1, 1, TimeUnit.SECONDS);
         }
 
-        if (getConfiguration().getResamplingQuality() != AudioConfiguration.ResamplingQuality.HIGH) {
-            logger.debug("ResamplingQuality は {}(HIGHではない), 品質をHIGHに設定します。", getConfiguration().getResamplingQuality().name());
-            getConfiguration().setResamplingQuality(AudioConfiguration.ResamplingQuality.HIGH);
+        if (bot.getConfig().getTrackCacheSize() > 0) {
+            trackCache = new TrackCache(this, OtherUtil.getPath("trackcache.bin"),
+                    bot.getConfig().getTrackCacheSize() * 1024L * 1024L, TimeUnit.HOURS.toMillis(bot.getConfig().getTrackCacheTtl()));
+            bot.getThreadpool().scheduleWithFixedDelay(trackCache::save, 5, 5, TimeUnit.MINUTES);
+        }
+
+        if (bot.getConfig().getStallTimeout() > 0) {
+            long timeout = TimeUnit.SECONDS.toNanos(bot.getConfig().getStallTimeout());
+            bot.getThreadpool().scheduleWithFixedDelay(() -> checkStalls(timeout), 1, 1, TimeUnit.SECONDS);
         }
     }
 
+    private void checkStalls(long timeoutNanos) {
+        if (bot.getJDA() == null)
+            return;
+        for (Guild guild : bot.getJDA().getGuilds()) {
+            AudioHandler handler = (AudioHandler) guild.getAudioManager().getSendingHandler();
+            if (handler == null)
+                continue;
+            try {
+                handler.checkStall(timeoutNanos);
+            } catch (Exception e) {
+                logger.warn("再生停止からの復旧に失敗しました: {}", e.toString());
+            }
+        }
+    }
+
+    void recordStall(AudioTrack track) {
+        AudioTrack source = LiveStreamBroadcaster.unwrap(track);
+        String name = source.getSourceManager() == null ? "unknown" : source.getSourceManager().getSourceName();
+        stallsBySource.computeIfAbsent(name, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * @return ソースごとの再生停止の検出回数 (ソース名順)
+     */
+    public Map<String, Long> getStallsBySource() {
+        Map<String, Long> result = new TreeMap<>();
+        stallsBySource.forEach((name, count) -> result.put(name, count.get()));
+        return result;
+    }
+
+    private void checkPreloads(long windowMillis) {
+        if (bot.getJDA() == null)
+            return;
+        for (Guild guild : bot.getJDA().getGuilds()) {
+            AudioHandler handler = (AudioHandler) guild.getAudioManager().getSendingHandler();
+            if (handler == null)
+                continue;
+            try {
+                handler.checkPreload(windowMillis);
+            } catch (Exception e) {
+                logger.warn("次の曲の先読みに失敗しました: {}", e.toString());
+            }
+        }
+    }
+
+    /**
+     * トラックの再生を始める際に、そのギルドのボイスチャンネルのビットレートに合わせてエンコード品質を下げます。
+     */
+    @Override
+    public void executeTrack(TrackStateListener listener, InternalAudioTrack track, AudioConfiguration configuration, AudioPlayerOptions playerOptions) {
+        super.executeTrack(listener, track, configurationFor(listener, configuration), playerOptions);
+    }
+
+    private AudioConfiguration configurationFor(TrackStateListener listener, AudioConfiguration configuration) {
+        AudioHandler handler = handlerOf(listener);
+        if (handler == null)
+            return configuration;
+        int quality = handler.getEncodingQuality();
+        if (quality >= configuration.getOpusEncodingQuality()) {
+            handler.setAppliedQuality(configuration.getOpusEncodingQuality(), false);
+            return configuration;
+        }
+        handler.setAppliedQuality(quality, true);
+        AudioConfiguration copy = configuration.copy();
+        copy.setOpusEncodingQuality(quality);
+        copy.setResamplingQuality(QualityController.resamplingFor(quality));
+        return copy;
+    }
+
+    private AudioHandler handlerOf(Object player) {
+        Long guildId = playerGuilds.get(player);
+        if (guildId == null || bot.getJDA() == null)
+            return null;
+        Guild guild = bot.getJDA().getGuildById(guildId);
+        return guild == null ? null : (AudioHandler) guild.getAudioManager().getSendingHandler();
+    }
+
     public Bot getBot() {
         return bot;
     }
 
+    public QualityController getQualityController() {
+        return qualityController;
+    }
+
+    public TrackGapHistogram getTrackGaps() {
+        return trackGaps;
+    }
+
+    public LiveStreamBroadcaster getBroadcaster() {
+        return broadcaster;
+    }
+
+    /**
+     * @return 再生リストの項目の読み込み結果のキャッシュ。無効な場合は {@code null}
+     */
+    public TrackCache getTrackCache() {
+        return trackCache;
+    }
+
+    public LoadScheduler getLoadScheduler() {
+        return loadScheduler;
+    }
+
+    /**
+     * コマンドで指定された1曲を {@link LoadScheduler} の通常の列で読み込みます。同じギルドの読み込みは呼び出した順番に行います。
+     */
+    public void loadInteractive(Guild guild, String identifier, AudioLoadResultHandler handler) {
+        loadScheduler.loadInteractive(guild.getIdLong(), identifier, handler);
+    }
+
+    /**
+     * 再生リストなどの項目を {@link LoadScheduler} の一括の列で読み込みます。{@code session} が取り消された後は読み込みません。
+     */
+    public void loadBulk(LoadSession session, String identifier, AudioLoadResultHandler handler) {
+        loadScheduler.loadBulk(session, identifier, handler);
+    }
+
+    /**
+     * 一括の列で、{@link TrackCache} に保存された結果があればそれを {@code handler} に渡し、なければ読み込んで結果を保存します。
+     * 保存された結果の復元も一括の列のスレッドで行うため、{@code handler} が呼び出し元のスレッドで呼ばれることはありません。
+     */
+    public void loadItemCached(LoadSession session, String identifier, AudioLoadResultHandler handler) {
+        TrackCache cache = trackCache;
+        if (cache == null) {
+            loadBulk(session, identifier, handler);
+            return;
+        }
+        loadScheduler.loadBulk(session, identifier, new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                cache.put(identifier, track);
+                handler.trackLoaded(track);
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                cache.put(identifier, playlist);
+                handler.playlistLoaded(playlist);
+            }
+
+            @Override
+            public void noMatches() {
+                handler.noMatches();
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                handler.loadFailed(exception);
+            }
+        }, () -> cache.replay(identifier, handler));
+    }
+
+    /**
+     * @return ソースの形式や音量の変更によって再エンコードを行っているプレイヤーの数
+     */
+    public int getTranscodingPlayerCount() {
+        if (bot.getJDA() == null)
+            return 0;
+        int count = 0;
+        for (Guild guild : bot.getJDA().getGuilds()) {
+            AudioHandler handler = (AudioHandler) guild.getAudioManager().getSendingHandler();
+            if (handler != null && handler.isTranscoding())
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return 全てのプレイヤーで発生したアンダーランの合計
+     */
+    public long getTotalUnderruns() {
+        if (bot.getJDA() == null)
+            return 0;
+        long total = 0;
+        for (Guild guild : bot.getJDA().getGuilds()) {
+            AudioHandler handler = (AudioHandler) guild.getAudioManager().getSendingHandler();
+            if (handler != null)
+                total += handler.getStats().getUnderruns();
+        }
+        return total;
+    }
+
+    /**
+     * @return ビットレートの低いチャンネルのため、品質を下げてエンコードしているプレイヤーの数
+     */
+    public int getBitrateLimitedPlayerCount() {
+        if (bot.getJDA() == null)
+            return 0;
+        int count = 0;
+        for (Guild guild : bot.getJDA().getGuilds()) {
+            AudioHandler handler = (AudioHandler) guild.getAudioManager().getSendingHandler();
+            if (handler != null && handler.isTranscoding() && handler.isBitrateLimited())
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return 再エンコードしている全てのプレイヤーを現在の品質でエンコードした場合と比べて、節約しているエンコードのCPUの推定割合 (0.0-1.0)
+     */
+    public double getEstimatedEncoderSaving() {
+        if (bot.getJDA() == null)
+            return 0;
+        int transcoding = 0;
+        double saving = 0;
+        for (Guild guild : bot.getJDA().getGuilds()) {
+            AudioHandler handler = (AudioHandler) guild.getAudioManager().getSendingHandler();
+            if (handler == null || !handler.isTranscoding())
+                continue;
+            transcoding++;
+            saving += QualityController.estimatedSaving(qualityController.getQuality(), handler.getAppliedQuality());
+        }
+        return transcoding == 0 ? 0 : saving / transcoding;
+    }
+
     public boolean hasHandler(Guild guild) {
         return guild.getAudioManager().getSendingHandler() != null;
     }
@@ -82,8 +345,7 @@ public class PlayerManager extends DefaultAudioPlayerManager {
     public AudioHandler setUpHandler(Guild guild) {
         AudioHandler handler;
         if (guild.getAudioManager().getSendingHandler() == null) {
-            AudioPlayer player = createPlayer();
-            player.setVolume(bot.getSettingsManager().getSettings(guild).getVolume());
+            AudioPlayer player = createGuildPlayer(guild.getIdLong());
             handler = new AudioHandler(this, guild, player);
             player.addListener(handler);
             guild.getAudioManager().setSendingHandler(handler);
@@ -91,4 +353,23 @@ public class PlayerManager extends DefaultAudioPlayerManager {
             handler = (AudioHandler) guild.getAudioManager().getSendingHandler();
         return handler;
     }
+
+    /**
+     * ギルドの設定を反映したプレイヤーを作成します。
+     *
+     * @param guildId ギルドのID
+     * @return 作成したプレイヤー
+     */
+    AudioPlayer createGuildPlayer(long guildId) {
+        AudioPlayer player = createPlayer();
+        playerGuilds.put(player, guildId);
+        SettingsSnapshot settings = bot.getSettingsManager().getSnapshot(guildId);
+        // 既定の100のままならOpusのパススルーが維持されるので、変更されている場合だけ設定する
+        if (settings.getVolume() != player.getVolume())
+            player.setVolume(settings.getVolume());
+        // 0 の場合は BotConfig の framebufferduration に従う
+        if (settings.getFrameBufferDuration() > 0)
+            player.setFrameBufferDuration(settings.getFrameBufferDuration());
+        return player;
+    }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot.audio;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * プロセスのCPU使用率とフレームの供給状況を監視し、Opusのエンコード品質とリサンプリング品質を調整します。
+ * <p>
+ * 高負荷が続いた場合は品質を {@value #STEP} 段階下げ、負荷が十分に下がった状態がしばらく続いた場合にのみ {@value #STEP} 段階上げます。
+ * 変更した品質は、次に再生を開始したトラックから適用されます。
+ *
+ * @author Cosgy Dev
+ */
+public class QualityController {
+    private static final long INTERVAL_SECONDS = 5;
+    private static final double HIGH_CPU = 0.85;
+    private static final double LOW_CPU = 0.60;
+    private static final int STEP = 2;
+    // 品質を上げる前に必要な、負荷の低い状態が連続した回数 (5秒 x 6 = 30秒)
+    private static final int CALM_SAMPLES_TO_STEP_UP = 6;
+    // 品質(complexity)ごとのエンコード時間のおおよその比率。品質10を1とする
+    private static final double[] RELATIVE_ENCODE_COST = {0.25, 0.30, 0.35, 0.40, 0.50, 0.55, 0.65, 0.75, 0.85, 0.92, 1.0};
+
+    private final Logger log = LoggerFactory.getLogger("QualityController");
+    private final PlayerManager manager;
+    private final int floor;
+    private final int ceiling;
+    private final AtomicLong stepsDown = new AtomicLong();
+    private final AtomicLong stepsUp = new AtomicLong();
+
+    private volatile int quality;
+    private volatile double lastCpuLoad = -1;
+    private long lastUnderruns;
+    private int calmSamples;
+
+    public QualityController(PlayerManager manager, int floor, int ceiling) {
+        this.manager = manager;
+        this.floor = Math.max(0, Math.min(10, Math.min(floor, ceiling)));
+        this.ceiling = Math.max(0, Math.min(10, ceiling));
+        this.quality = this.ceiling;
+    }
+
+    public void init(ScheduledExecutorService threadpool) {
+        apply(ceiling);
+        if (floor < ceiling)
+            threadpool.scheduleWithFixedDelay(this::sample, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void sample() {
+        try {
+            double cpu = processCpuLoad();
+            lastCpuLoad = cpu;
+            long underruns = manager.getTotalUnderruns();
+            boolean starved = underruns > lastUnderruns;
+            lastUnderruns = underruns;
+
+            if (cpu >= HIGH_CPU || (starved && cpu >= LOW_CPU)) {
+                calmSamples = 0;
+                if (quality > floor) {
+                    stepsDown.incrementAndGet();
+                    apply(Math.max(floor, quality - STEP));
+                    log.info("負荷が高いため、エンコード品質を{}に下げました。(CPU: {}%, アンダーラン発生: {})", quality, Math.round(cpu * 100), starved);
+                }
+            } else if (cpu >= 0 && cpu < LOW_CPU && !starved) {
+                if (++calmSamples >= CALM_SAMPLES_TO_STEP_UP && quality < ceiling) {
+                    calmSamples = 0;
+                    stepsUp.incrementAndGet();
+                    apply(Math.min(ceiling, quality + STEP));
+                    log.info("負荷が下がったため、エンコード品質を{}に上げました。(CPU: {}%)", quality, Math.round(cpu * 100));
+                }
+            } else {
+                calmSamples = 0;
+            }
+        } catch (Exception e) {
+            log.warn("品質の調整中にエラーが発生しました: {}", e.toString());
+        }
+    }
+
+    private void apply(int newQuality) {
+        quality = newQuality;
+        AudioConfiguration configuration = manager.getConfiguration();
+        configuration.setOpusEncodingQuality(newQuality);
+        configuration.setResamplingQuality(resamplingFor(newQuality));
+    }
+
+    static AudioConfiguration.ResamplingQuality resamplingFor(int quality) {
+        if (quality >= 9)
+            return AudioConfiguration.ResamplingQuality.HIGH;
+        if (quality >= 5)
+            return AudioConfiguration.ResamplingQuality.MEDIUM;
+        return AudioConfiguration.ResamplingQuality.LOW;
+    }
+
+    /**
+     * ボイスチャンネルのビットレートに見合ったエンコード品質の上限を返します。
+     * ビットレートの低いチャンネルでは、高い品質でエンコードしても Discord 側で劣化するため、その分のCPUを節約します。
+     *
+     * @param bitrate チャンネルのビットレート (bps)。不明な場合は 0 以下
+     * @return エンコード品質の上限
+     */
+    static int qualityForBitrate(int bitrate) {
+        if (bitrate <= 0 || bitrate >= 128_000)
+            return 10;
+        if (bitrate >= 96_000)
+            return 8;
+        if (bitrate >= 64_000)
+            return 6;
+        if (bitrate >= 32_000)
+            return 4;
+        return 2;
+    }
+
+    /**
+     * @return 品質 {@code from} の代わりに {@code to} でエンコードした場合に節約できるCPUの推定割合 (0.0-1.0)
+     */
+    static double estimatedSaving(int from, int to) {
+        if (to >= from)
+            return 0;
+        return 1 - RELATIVE_ENCODE_COST[to] / RELATIVE_ENCODE_COST[from];
+    }
+
+    private static double processCpuLoad() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuLoad();
+        return -1;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public AudioConfiguration.ResamplingQuality getResamplingQuality() {
+        return resamplingFor(quality);
+    }
+
+    public int getFloor() {
+        return floor;
+    }
+
+    public int getCeiling() {
+        return ceiling;
+    }
+
+    public double getLastCpuLoad() {
+        return lastCpuLoad;
+    }
+
+    public long getStepsDown() {
+        return stepsDown.get();
+    }
+
+    public long getStepsUp() {
+        return stepsUp.get();
+    }
+}
@@ -17,40 +17,180 @@ package com.jagrosh.jmusicbot.audio;
 
 import com.jagrosh.jmusicbot.queue.Queueable;
 import com.jagrosh.jmusicbot.utils.FormatUtil;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.DecodedTrackHolder;
 import dev.cosgy.agent.GensokyoInfoAgent;
 import dev.cosgy.agent.objects.ResultSet;
 import net.dv8tion.jda.api.entities.User;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
 /**
+ * 再生待ちの楽曲です。
+ * <p>
+ * {@link #compact(AudioPlayerManager)} を呼び出すと、{@link AudioTrack} の代わりにエンコードしたバイト列と、曲名・長さだけを保持します。
+ * {@link AudioTrack} は {@link #getTrack()} で必要になったときに作り直します。
+ * 曲名以外の楽曲情報はバイト列に含まれているため別には保持せず、{@link #getInfo()} で表示する行の分だけデコードします。
+ * <p>
+ * {@link #pending(String, RequestMetadata)} で作成した場合は、再生リストの項目(URLや検索語)だけを持つ仮の楽曲になります。
+ * 仮の楽曲は再生待ちの先頭に近づいたときに {@link AudioHandler} が読み込み、読み込んだ楽曲と置き換えます。
+ * 仮の楽曲の長さは分からないため、{@link #getDuration()} は {@code -1} を返します。
+ *
  * @author John Grosh <john.a.grosh@gmail.com>
  */
 public class QueuedTrack implements Queueable {
-    private final AudioTrack track;
+    private final RequestMetadata rm;
+    // 圧縮している間も曲名で検索できるように保持する
+    private final String title;
+    // 圧縮している間は null
+    private AudioTrack track;
+    // 圧縮している間だけ保持する
+    private byte[] encoded;
+    private AudioPlayerManager manager;
+    private long duration;
+    // 仮の楽曲の場合だけ保持する、読み込む項目
+    private final String pending;
 
     public QueuedTrack(AudioTrack track, User owner) {
-        this(track, new RequestMetadata(owner));
+        this(track, RequestMetadata.of(owner));
     }
 
     public QueuedTrack(AudioTrack track, RequestMetadata rm) {
         this.track = track;
+        this.rm = rm;
+        this.title = track.getInfo().title;
+        this.pending = null;
         this.track.setUserData(rm);
     }
 
+    private QueuedTrack(String identifier, String title, RequestMetadata rm) {
+        this.rm = rm;
+        this.title = title;
+        this.pending = identifier;
+        this.duration = -1;
+    }
+
+    /**
+     * まだ読み込んでいない再生リストの項目から、仮の楽曲を作成します。
+     * 検索語の場合は検索する文字列を、それ以外は項目そのものを曲名として表示します。
+     *
+     * @param identifier 再生リストの項目
+     * @param rm         楽曲を追加したユーザーの情報
+     */
+    public static QueuedTrack pending(String identifier, RequestMetadata rm) {
+        int colon = identifier.indexOf(':');
+        String title = colon > 0 && identifier.substring(0, colon).endsWith("search")
+                ? identifier.substring(colon + 1).trim()
+                : identifier;
+        return new QueuedTrack(identifier, title, rm);
+    }
+
+    /**
+     * @return まだ読み込んでいない仮の楽曲の場合は {@code true}
+     */
+    public boolean isPending() {
+        return pending != null;
+    }
+
+    /**
+     * @return 仮の楽曲が読み込む項目。仮の楽曲でない場合は {@code null}
+     */
+    public String getPendingIdentifier() {
+        return pending;
+    }
+
     @Override
     public long getIdentifier() {
-        return track.getUserData(RequestMetadata.class).getOwner();
+        return rm.getOwner();
+    }
+
+    @Override
+    public String getTitle() {
+        return title;
+    }
+
+    public RequestMetadata getRequestMetadata() {
+        return rm;
     }
 
-    public AudioTrack getTrack() {
+    /**
+     * 楽曲をエンコードしたバイト列に置き換え、{@link AudioTrack} を手放します。
+     * エンコードできない楽曲の場合は何もしません。
+     *
+     * @param manager エンコードと、後で作り直すときに使用するマネージャー
+     */
+    public synchronized void compact(AudioPlayerManager manager) {
+        if (track == null || track.getSourceManager() == null || !track.getSourceManager().isTrackEncodable(track))
+            return;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+            manager.encodeTrack(new MessageOutput(out), track);
+            encoded = out.toByteArray();
+        } catch (IOException | RuntimeException e) {
+            return;
+        }
+        this.manager = manager;
+        duration = track.getDuration();
+        track = null;
+    }
+
+    public synchronized boolean isCompact() {
+        return track == null;
+    }
+
+    /**
+     * 圧縮している場合は、ここで {@link AudioTrack} を作り直して保持します。
+     */
+    public synchronized AudioTrack getTrack() {
+        if (pending != null)
+            throw new IllegalStateException("まだ読み込まれていない楽曲です: " + pending);
+        if (track == null) {
+            track = decode();
+            encoded = null;
+            manager = null;
+        }
         return track;
     }
 
+    /**
+     * 表示用の楽曲情報です。圧縮している場合は、呼び出すたびにバイト列からデコードし、結果は保持しません。
+     */
+    public synchronized AudioTrackInfo getInfo() {
+        if (pending != null)
+            return new AudioTrackInfo(title, "", 0, pending, false, pending, null, null);
+        return track != null ? track.getInfo() : decode().getInfo();
+    }
+
+    @Override
+    public synchronized long getDuration() {
+        return track != null ? track.getDuration() : duration;
+    }
+
+    private AudioTrack decode() {
+        DecodedTrackHolder holder;
+        try {
+            holder = manager.decodeTrack(new MessageInput(new ByteArrayInputStream(encoded)));
+        } catch (IOException e) {
+            throw new IllegalStateException("楽曲を復元できませんでした", e);
+        }
+        if (holder == null || holder.decodedTrack == null)
+            throw new IllegalStateException("楽曲を復元できませんでした");
+        AudioTrack decoded = holder.decodedTrack;
+        decoded.setUserData(rm);
+        return decoded;
+    }
+
     @Override
     public String toString() {
+        AudioTrackInfo trackInfo = getInfo();
 
-        if (track.getInfo().uri.contains("https://stream.gensokyoradio.net/")) {
+        if (trackInfo.uri.contains("https://stream.gensokyoradio.net/")) {
 
             ResultSet data = null;
             try {
@@ -63,12 +203,11 @@ public class QueuedTrack implements Queueable {
             String titleUrl = data.getMisc().getCirclelink().equals("") ?
                     "https://gensokyoradio.net/" :
                     data.getMisc().getCirclelink();
-            return "`[" + FormatUtil.formatTime(data.getSongtimes().getDuration()) + "]` [**" + title + "**](" + titleUrl + ") - <@" + track.getUserData(RequestMetadata.class).getOwner() + ">";
+            return "`[" + FormatUtil.formatTime(data.getSongtimes().getDuration()) + "]` [**" + title + "**](" + titleUrl + ") - <@" + rm.getOwner() + ">";
         }
 
-        String entry = "`[" + FormatUtil.formatTime(track.getDuration()) + "]` ";
-        AudioTrackInfo trackInfo = track.getInfo();
+        String entry = "`[" + (pending != null ? "--:--" : FormatUtil.formatTime(getDuration())) + "]` ";
         entry = entry + (trackInfo.uri.startsWith("http") ? "[**" + trackInfo.title + "**](" + trackInfo.uri + ")" : "**" + trackInfo.title + "**");
-        return entry + " - <@" + track.getUserData(RequestMetadata.class).getOwner() + ">";
+        return entry + " - <@" + rm.getOwner() + ">";
     }
 }
@@ -18,15 +18,83 @@ package com.jagrosh.jmusicbot.audio;
 
 import net.dv8tion.jda.api.entities.User;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 楽曲をリクエストしたユーザーの情報です。作成後に変更されることはありません。
+ * <p>
+ * {@link #of(User)} で取得すると、同じユーザーの楽曲はすべて同じインスタンスを共有します。
+ * 共有しているインスタンスは、どの楽曲からも参照されなくなると破棄されます。
+ */
 public class RequestMetadata {
     public static final RequestMetadata EMPTY = new RequestMetadata(null);
 
+    // ユーザーIDごとの共有しているインスタンス
+    private static final Map<Long, Entry> REGISTRY = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<RequestMetadata> CLEARED = new ReferenceQueue<>();
+
     public final UserInfo user;
 
+    /**
+     * @deprecated 同じユーザーの情報を共有する {@link #of(User)} を使用してください。
+     */
+    @Deprecated
     public RequestMetadata(User user) {
         this.user = user == null ? null : new UserInfo(user.getIdLong(), user.getName(), user.getDiscriminator(), user.getEffectiveAvatarUrl());
     }
 
+    private RequestMetadata(long id, String username, String discrim, String avatar) {
+        this.user = new UserInfo(id, username, discrim, avatar);
+    }
+
+    /**
+     * ユーザーの情報を取得します。ユーザー名やアイコンが変わっていた場合は、新しい情報に置き換えます。
+     * 置き換える前に追加された楽曲は、追加したときの情報のままになります。
+     *
+     * @param user リクエストしたユーザー
+     * @return 同じユーザーで共有するインスタンス
+     */
+    public static RequestMetadata of(User user) {
+        if (user == null)
+            return EMPTY;
+        expungeCleared();
+        long id = user.getIdLong();
+        String username = user.getName();
+        String discrim = user.getDiscriminator();
+        String avatar = user.getEffectiveAvatarUrl();
+        // 戻り値を返すまで GC で破棄されないように、強い参照で受け取る
+        RequestMetadata[] result = new RequestMetadata[1];
+        REGISTRY.compute(id, (key, entry) -> {
+            RequestMetadata current = entry == null ? null : entry.get();
+            if (current != null && current.user.username.equals(username)
+                    && Objects.equals(current.user.discrim, discrim) && Objects.equals(current.user.avatar, avatar)) {
+                result[0] = current;
+                return entry;
+            }
+            result[0] = new RequestMetadata(id, username, discrim, avatar);
+            return new Entry(id, result[0]);
+        });
+        return result[0];
+    }
+
+    /**
+     * @return 共有しているユーザーの情報の数
+     */
+    public static int getInternedCount() {
+        expungeCleared();
+        return REGISTRY.size();
+    }
+
+    private static void expungeCleared() {
+        Entry entry;
+        while ((entry = (Entry) CLEARED.poll()) != null)
+            REGISTRY.remove(entry.id, entry);
+    }
+
     public long getOwner() {
         return user == null ? 0L : user.id;
     }
@@ -40,6 +108,15 @@ public class RequestMetadata {
         }
     }
 
+    private static class Entry extends WeakReference<RequestMetadata> {
+        private final long id;
+
+        private Entry(long id, RequestMetadata metadata) {
+            super(metadata, CLEARED);
+            this.id = id;
+        }
+    }
+
     public class UserInfo {
         public final long id;
         public final String username, discrim, avatar;
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot.audio;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 曲が終わってから次の曲の最初のフレームを送信するまでの無音時間を集計します。
+ *
+ * @author Cosgy Dev
+ */
+public class TrackGapHistogram {
+    private static final long[] BOUNDS_MILLIS = {20, 50, 100, 250, 500, 1000, 2000, 3000, 5000};
+
+    // 最後の要素は上限を超えたもの
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_MILLIS.length + 1);
+
+    public void record(long gapNanos) {
+        long millis = gapNanos / 1_000_000;
+        int i = 0;
+        while (i < BOUNDS_MILLIS.length && millis >= BOUNDS_MILLIS[i])
+            i++;
+        counts.incrementAndGet(i);
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++)
+            total += counts.get(i);
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < counts.length(); i++) {
+            if (i > 0)
+                sb.append(", ");
+            if (i < BOUNDS_MILLIS.length)
+                sb.append("<").append(BOUNDS_MILLIS[i]).append("ms");
+            else
+                sb.append(">=").append(BOUNDS_MILLIS[BOUNDS_MILLIS.length - 1]).append("ms");
+            sb.append(": ").append(counts.get(i));
+        }
+        return sb.toString();
+    }
+}
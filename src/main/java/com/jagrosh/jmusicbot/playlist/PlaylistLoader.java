@@ -16,31 +16,44 @@
 package com.jagrosh.jmusicbot.playlist;
 
 import com.jagrosh.jmusicbot.BotConfig;
+import com.jagrosh.jmusicbot.audio.AudioHandler;
+import com.jagrosh.jmusicbot.audio.LoadSession;
+import com.jagrosh.jmusicbot.audio.QueuedTrack;
+import com.jagrosh.jmusicbot.audio.RequestMetadata;
 import com.jagrosh.jmusicbot.utils.OtherUtil;
 import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
-import dev.cosgy.jmusicbot.playlist.MylistLoader;
+import dev.cosgy.jmusicbot.playlist.OrderedResolver;
+import dev.cosgy.jmusicbot.playlist.PlaylistIndex;
+import dev.cosgy.jmusicbot.playlist.TrackBatcher;
+import net.dv8tion.jda.api.entities.User;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.*;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
 /**
+ * サーバーごとの再生リストを読み込みます。
+ * <p>
+ * フォルダの内容は {@link PlaylistIndex} に保持しているため、名前の一覧や再生リストの取得では通常ファイルを読みません。
+ * {@link Playlist} はマイリスト({@link dev.cosgy.jmusicbot.playlist.MylistLoader})と
+ * 公開リスト({@link dev.cosgy.jmusicbot.playlist.PubliclistLoader})でも共通です。
+ *
  * @author John Grosh (john.a.grosh@gmail.com)
  */
 public class PlaylistLoader {
     private final BotConfig config;
+    private final PlaylistIndex index;
 
     public PlaylistLoader(BotConfig config) {
         this.config = config;
+        this.index = new PlaylistIndex(config.getPlaylistsFolder(), true);
     }
 
     private static <T> void shuffle(List<T> list) {
@@ -53,19 +66,13 @@ public class PlaylistLoader {
     }
 
     public List<String> getPlaylistNames(String guildId) {
-        if (folderExists()) {
-            if (folderGuildExists(guildId)) {
-                File folder = new File(OtherUtil.getPath(config.getPlaylistsFolder() + File.separator + guildId).toString());
-                return Arrays.stream(Objects.requireNonNull(folder.listFiles((pathname) -> pathname.getName().endsWith(".txt")))).map(f -> f.getName().substring(0, f.getName().length() - 4)).collect(Collectors.toList());
-            } else {
-                createGuildFolder(guildId);
-                return getPlaylistNames(guildId);
-            }
-        } else {
+        List<String> names = index.getNames(guildId);
+        if (names == null) {
             createFolder();
             createGuildFolder(guildId);
-            return getPlaylistNames(guildId);
+            names = index.getNames(guildId);
         }
+        return names == null ? new ArrayList<>() : new ArrayList<>(names);
     }
 
     public void createGuildFolder(String guildId) {
@@ -83,133 +90,163 @@ public class PlaylistLoader {
     }
 
     public boolean folderGuildExists(String guildId) {
-        return Files.exists(Paths.get(config.getPlaylistsFolder() + File.separator + guildId));
+        return index.getNames(guildId) != null;
     }
 
     public boolean folderExists() {
-        return Files.exists(Paths.get(config.getPlaylistsFolder()));
+        return Files.exists(OtherUtil.getPath(config.getPlaylistsFolder()));
     }
 
     public void createPlaylist(String guildId, String name) throws IOException {
-        Files.createFile(Paths.get(config.getPlaylistsFolder() + File.separator + guildId + File.separator + name + ".txt"));
+        Files.createFile(index.getPath(guildId, name));
+        index.invalidate(guildId);
     }
 
     public void deletePlaylist(String guildId, String name) throws IOException {
-        Files.delete(Paths.get(config.getPlaylistsFolder() + File.separator + guildId + File.separator + name + ".txt"));
+        Files.delete(index.getPath(guildId, name));
+        index.invalidate(guildId);
     }
 
     public void writePlaylist(String guildId, String name, String text) throws IOException {
-        Files.write(Paths.get(config.getPlaylistsFolder() + File.separator + guildId + File.separator + name + ".txt"), text.trim().getBytes(StandardCharsets.UTF_8));
+        Files.write(index.getPath(guildId, name), text.trim().getBytes(StandardCharsets.UTF_8));
+        index.invalidate(guildId);
     }
 
     public Playlist getPlaylist(String guildId, String name) {
-        if (!getPlaylistNames(guildId).contains(name))
-            return null;
         try {
-            if (folderExists()) {
-                if (folderGuildExists(guildId)) {
-                    boolean[] shuffle = {false};
-                    List<String> list = new ArrayList<>();
-                    Files.readAllLines(Paths.get(config.getPlaylistsFolder() + File.separator + guildId + File.separator + name + ".txt")).forEach(str ->
-                    {
-                        MylistLoader.Trim(shuffle, list, str);
-                    });
-                    if (shuffle[0])
-                        shuffle(list);
-                    return new Playlist(name, list, shuffle[0]);
-                } else {
+            PlaylistIndex.Items items = index.getItems(guildId, name);
+            if (items == null) {
+                if (!folderGuildExists(guildId)) {
+                    createFolder();
                     createGuildFolder(guildId);
-                    return null;
                 }
-            } else {
-                createFolder();
-                createGuildFolder(guildId);
                 return null;
             }
+            return Playlist.of(config, name, items);
         } catch (IOException e) {
             return null;
         }
     }
 
-    public class Playlist {
+    public static class Playlist {
+        private final BotConfig config;
         private final String name;
         private final List<String> items;
         private final boolean shuffle;
         private final List<AudioTrack> tracks = new LinkedList<>();
         private final List<PlaylistLoadError> errors = new LinkedList<>();
         private boolean loaded = false;
+        // 仮の楽曲として再生待ちに追加した場合の曲数
+        private int pending = -1;
 
-        private Playlist(String name, List<String> items, boolean shuffle) {
+        private Playlist(BotConfig config, String name, List<String> items, boolean shuffle) {
+            this.config = config;
             this.name = name;
             this.items = items;
             this.shuffle = shuffle;
         }
 
-        public void loadTracks(AudioPlayerManager manager, Consumer<AudioTrack> consumer, Runnable callback) {
+        /**
+         * 解析済みの内容から再生リストを作成します。{@code #shuffle} が指定されている場合は、項目の順番を入れ替えます。
+         */
+        public static Playlist of(BotConfig config, String name, PlaylistIndex.Items parsed) {
+            List<String> items = new ArrayList<>(parsed.getItems());
+            if (parsed.isShuffle())
+                shuffle(items);
+            return new Playlist(config, name, items, parsed.isShuffle());
+        }
+
+        /**
+         * 再生リストの曲を {@code handler} の再生待ちに追加します。
+         * <p>
+         * 項目が {@code lazyplaylistsize} 以上ある場合は、曲を読み込まずに {@link QueuedTrack#pending 仮の楽曲} として
+         * すぐに追加し、{@code callback} を呼び出します。仮の楽曲は再生待ちの先頭に近づいたときに読み込まれ、
+         * 読み込めなかった曲はその時に再生待ちから外されるため、{@link #getErrors()} には含まれません。
+         * それ以外の場合は {@link #loadTrackBatches} で読み込みながら追加します。
+         */
+        public void queueTo(AudioPlayerManager manager, AudioHandler handler, User user, Runnable callback) {
+            int lazySize = config.getLazyPlaylistSize();
+            if (lazySize <= 0 || items.size() < lazySize) {
+                LoadSession session = handler.newLoadSession();
+                loadTrackBatches(manager, session, batch -> handler.addTracks(session, batch, user), callback);
+                return;
+            }
             if (loaded)
                 return;
             loaded = true;
-            for (int i = 0; i < items.size(); i++) {
-                boolean last = i + 1 == items.size();
-                int index = i;
-                manager.loadItemOrdered(name, items.get(i), new AudioLoadResultHandler() {
-                    private void done() {
-                        if (last) {
-                            if (shuffle)
-                                shuffleTracks();
-                            if (callback != null)
-                                callback.run();
-                        }
-                    }
+            RequestMetadata rm = RequestMetadata.of(user);
+            List<QueuedTrack> queued = new ArrayList<>(items.size());
+            for (String item : items)
+                queued.add(QueuedTrack.pending(item, rm));
+            pending = queued.size();
+            handler.addTracks(queued);
+            if (callback != null)
+                callback.run();
+        }
 
-                    @Override
-                    public void trackLoaded(AudioTrack at) {
-                        if (config.isTooLong(at))
-                            errors.add(new PlaylistLoadError(index, items.get(index), "このトラックは許可された最大長を超えています"));
-                        else {
-                            at.setUserData(0L);
-                            tracks.add(at);
-                            consumer.accept(at);
-                        }
-                        done();
-                    }
+        public void loadTracks(AudioPlayerManager manager, LoadSession session, Consumer<AudioTrack> consumer, Runnable callback) {
+            loadTrackBatches(manager, session, batch -> batch.forEach(consumer), callback);
+        }
 
-                    @Override
-                    public void playlistLoaded(AudioPlaylist ap) {
-                        if (ap.isSearchResult()) {
-                            trackLoaded(ap.getTracks().get(0));
-                        } else if (ap.getSelectedTrack() != null) {
-                            trackLoaded(ap.getSelectedTrack());
-                        } else {
-                            List<AudioTrack> loaded = new ArrayList<>(ap.getTracks());
-                            if (shuffle)
-                                for (int first = 0; first < loaded.size(); first++) {
-                                    int second = (int) (Math.random() * loaded.size());
-                                    AudioTrack tmp = loaded.get(first);
-                                    loaded.set(first, loaded.get(second));
-                                    loaded.set(second, tmp);
-                                }
-                            loaded.removeIf(config::isTooLong);
-                            loaded.forEach(at -> at.setUserData(0L));
-                            tracks.addAll(loaded);
-                            loaded.forEach(consumer);
-                        }
-                        done();
+        /**
+         * 楽曲を {@link OrderedResolver} で同時にいくつか読み込み、ファイルの順番のまま {@link TrackBatcher} でまとめて
+         * {@code consumer} に渡します。
+         */
+        public void loadTrackBatches(AudioPlayerManager manager, LoadSession session, Consumer<List<AudioTrack>> consumer, Runnable callback) {
+            if (loaded)
+                return;
+            loaded = true;
+            TrackBatcher batcher = new TrackBatcher(consumer);
+            OrderedResolver.resolve(manager, session, items, config.getPlaylistLoadConcurrency(), index -> new AudioLoadResultHandler() {
+                @Override
+                public void trackLoaded(AudioTrack at) {
+                    if (config.isTooLong(at))
+                        errors.add(new PlaylistLoadError(index, items.get(index), "このトラックは許可された最大長を超えています"));
+                    else {
+                        at.setUserData(0L);
+                        tracks.add(at);
+                        batcher.add(at);
                     }
+                }
 
-                    @Override
-                    public void noMatches() {
-                        errors.add(new PlaylistLoadError(index, items.get(index), "一致するものが見つかりませんでした。"));
-                        done();
+                @Override
+                public void playlistLoaded(AudioPlaylist ap) {
+                    if (ap.isSearchResult()) {
+                        trackLoaded(ap.getTracks().get(0));
+                    } else if (ap.getSelectedTrack() != null) {
+                        trackLoaded(ap.getSelectedTrack());
+                    } else {
+                        List<AudioTrack> loaded = new ArrayList<>(ap.getTracks());
+                        if (shuffle)
+                            for (int first = 0; first < loaded.size(); first++) {
+                                int second = (int) (Math.random() * loaded.size());
+                                AudioTrack tmp = loaded.get(first);
+                                loaded.set(first, loaded.get(second));
+                                loaded.set(second, tmp);
+                            }
+                        loaded.removeIf(config::isTooLong);
+                        loaded.forEach(at -> at.setUserData(0L));
+                        tracks.addAll(loaded);
+                        batcher.addAll(loaded);
                     }
+                }
 
-                    @Override
-                    public void loadFailed(FriendlyException fe) {
-                        errors.add(new PlaylistLoadError(index, items.get(index), "トラックを読み込めませんでした: " + fe.getLocalizedMessage()));
-                        done();
-                    }
-                });
-            }
+                @Override
+                public void noMatches() {
+                    errors.add(new PlaylistLoadError(index, items.get(index), "一致するものが見つかりませんでした。"));
+                }
+
+                @Override
+                public void loadFailed(FriendlyException fe) {
+                    errors.add(new PlaylistLoadError(index, items.get(index), "トラックを読み込めませんでした: " + fe.getLocalizedMessage()));
+                }
+            }, () -> {
+                batcher.flush();
+                if (shuffle)
+                    shuffleTracks();
+                if (callback != null)
+                    callback.run();
+            });
         }
 
         public void shuffleTracks() {
@@ -228,12 +265,19 @@ public class PlaylistLoader {
             return tracks;
         }
 
+        /**
+         * @return 再生待ちに追加した曲数。仮の楽曲として追加した場合は、まだ読み込んでいない曲も含みます
+         */
+        public int getQueuedCount() {
+            return pending >= 0 ? pending : tracks.size();
+        }
+
         public List<PlaylistLoadError> getErrors() {
             return errors;
         }
     }
 
-    public class PlaylistLoadError {
+    public static class PlaylistLoadError {
         private final int number;
         private final String item;
         private final String reason;
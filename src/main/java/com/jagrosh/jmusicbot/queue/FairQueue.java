@@ -16,17 +16,46 @@
 package com.jagrosh.jmusicbot.queue;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.TreeSet;
 
 /**
+ * 追加したユーザーごとに順番が回るように楽曲を並べるキューです。
+ * <p>
+ * 内部では位置をキーにした平衡二分木(treap)で楽曲を保持し、ユーザーごとの楽曲も並び順に記録しています。
+ * そのため、キューの長さを n、キューにいるユーザーの数を u、同じユーザーの楽曲の数を m として、
+ * 追加は O(log n + u)、取り出し・スキップ・位置を指定した追加・移動は O(log n log m) で行えます。
+ * 合計の長さとユーザーごとの曲数は変更のたびに更新しているので、一覧をたどらずに取得できます。
+ * また、曲名を {@link TitleTokens} で分けた語ごとに楽曲を記録しているので、曲名での検索も一覧をたどらずに行えます。
+ *
  * @param <T>
  * @author John Grosh (jagrosh)
  */
 public class FairQueue<T extends Queueable> {
-    private final List<T> list = new ArrayList<>();
-    private final Set<Long> set = new HashSet<>();
+    // addAll() で1曲ずつ追加する代わりに木を作り直す、キューの長さに対する追加曲数の割合の目安
+    private static final int BULK_THRESHOLD = 16;
+
+    // ユーザーごとの楽曲を並び順に保持する。位置を指定した追加では、ここから同じユーザーの前後の楽曲を探す
+    private final Map<Long, TreeSet<Node<T>>> owned = new HashMap<>();
+    // 木の中の位置で比べる。楽曲の追加・削除で他の楽曲どうしの前後は変わらないので、記録した順番は崩れない
+    private final Comparator<Node<T>> byPosition = (a, b) -> Integer.compare(rank(a), rank(b));
+    // 曲名の語ごとの、その語を含む楽曲
+    private final Map<String, Set<Node<T>>> titles = new HashMap<>();
+    private final Set<Long> seen = new HashSet<>();
+    private final Random random = new Random();
+    private Node<T> root;
+    private long totalDuration;
+    // 長さが分からない (負の長さの) 楽曲の数
+    private int unknownDurations;
+
+    // split() の結果
+    private Node<T> splitLeft, splitRight;
 
     /**
      * @deprecated 新しくフェアキューと普通のキューを切り替えられるメゾットを追加したのでそちらを使用してください。
@@ -34,114 +63,309 @@ public class FairQueue<T extends Queueable> {
      * @return 何曲目に追加したか
      */
     public int add(T item) {
-        int lastIndex;
-        for (lastIndex = list.size() - 1; lastIndex > -1; lastIndex--)
-            if (list.get(lastIndex).getIdentifier() == item.getIdentifier())
-                break;
-        lastIndex++;
-        set.clear();
-        for (; lastIndex < list.size(); lastIndex++) {
-            if (set.contains(list.get(lastIndex).getIdentifier()))
-                break;
-            set.add(list.get(lastIndex).getIdentifier());
-        }
-        list.add(lastIndex, item);
-        return lastIndex;
+        return add(item, false);
     }
 
     /**
      * キューに楽曲を追加します。
+     * <p>
+     * 同じユーザーの最後の楽曲の後ろから、同じユーザーの楽曲が2回目に現れる直前までの間の末尾に追加します。
+     * 同じユーザーの楽曲がない場合は、先頭から同じように数えます。
+     *
      * @param item 楽曲情報
      * @param forceToEnd 強制的にキューの一番最後に追加するか
      * @return 何番目に追加したか
      */
     public int add(T item, boolean forceToEnd) {
         if (forceToEnd) {
-            list.add(item);
-            return list.size() - 1;
+            int index = size();
+            insert(index, new Node<>(item, random.nextInt()));
+            return index;
         }
 
-        int lastIndex;
-        for (lastIndex = list.size() - 1; lastIndex > -1; lastIndex--)
-            if (list.get(lastIndex).getIdentifier() == item.getIdentifier())
-                break;
-        lastIndex++;
-        set.clear();
-        for (; lastIndex < list.size(); lastIndex++) {
-            if (set.contains(list.get(lastIndex).getIdentifier()))
-                break;
-            set.add(list.get(lastIndex).getIdentifier());
+        Node<T> tail = tail(item.getIdentifier());
+        int index;
+        Node<T> cursor;
+        if (tail == null) {
+            index = 0;
+            cursor = first(root);
+        } else {
+            index = rank(tail) + 1;
+            cursor = successor(tail);
         }
-        list.add(lastIndex, item);
-        return lastIndex;
+        seen.clear();
+        while (cursor != null && seen.add(cursor.owner)) {
+            index++;
+            cursor = successor(cursor);
+        }
+        insert(index, new Node<>(item, random.nextInt()));
+        return index;
+    }
+
+    /**
+     * 同じユーザーの複数の楽曲を、{@link #add(Queueable, boolean)} を順番に呼び出した場合と同じ位置に追加します。
+     * <p>
+     * 追加する曲数がキューの長さに比べて多い場合は、キューを先頭から1回たどるだけで全ての位置を決め、木を作り直します。
+     *
+     * @param items      追加する楽曲情報 (全て同じユーザーのもの)
+     * @param forceToEnd 強制的にキューの一番最後に追加するか
+     * @return 最初の楽曲を何番目に追加したか
+     * @throws IllegalArgumentException 異なるユーザーの楽曲が含まれている場合
+     */
+    public int addAll(List<T> items, boolean forceToEnd) {
+        if (items.isEmpty())
+            return size();
+        long owner = items.get(0).getIdentifier();
+        for (T item : items)
+            if (item.getIdentifier() != owner)
+                throw new IllegalArgumentException("異なるユーザーの楽曲は一度に追加できません");
+
+        // 少しだけ追加する場合は、1曲ずつ追加した方が速い
+        if ((long) items.size() * BULK_THRESHOLD < size()) {
+            int first = add(items.get(0), forceToEnd);
+            for (int i = 1; i < items.size(); i++)
+                add(items.get(i), forceToEnd);
+            return first;
+        }
+
+        List<Node<T>> nodes = new ArrayList<>(size() + items.size());
+        for (Node<T> node = first(root); node != null; node = successor(node))
+            nodes.add(node);
+        int existing = nodes.size();
+        List<Node<T>> added = new ArrayList<>(items.size());
+        for (T item : items)
+            added.add(new Node<>(item, random.nextInt()));
+        int first;
+        if (forceToEnd) {
+            first = existing;
+            nodes.addAll(added);
+        } else {
+            Node<T> tail = tail(owner);
+            int start = tail == null ? 0 : rank(tail) + 1;
+            List<Node<T>> merged = new ArrayList<>(existing + items.size());
+            merged.addAll(nodes.subList(0, start));
+            int cursor = start;
+            first = -1;
+            for (Node<T> node : added) {
+                seen.clear();
+                while (cursor < existing && seen.add(nodes.get(cursor).owner))
+                    merged.add(nodes.get(cursor++));
+                if (first < 0)
+                    first = merged.size();
+                merged.add(node);
+            }
+            merged.addAll(nodes.subList(cursor, existing));
+            nodes = merged;
+        }
+        root = build(nodes);
+
+        // 追加した楽曲は全て同じユーザーの既存の楽曲より後ろにあるので、記録の末尾に加わる
+        TreeSet<Node<T>> same = owned.computeIfAbsent(owner, k -> new TreeSet<>(byPosition));
+        for (Node<T> node : added) {
+            same.add(node);
+            addDuration(node.duration);
+            index(node);
+        }
+        return first;
     }
 
     public void addAt(int index, T item) {
-        if (index >= list.size())
-            list.add(item);
-        else
-            list.add(index, item);
+        if (index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        insert(Math.min(index, size()), new Node<>(item, random.nextInt()));
     }
 
     public int size() {
-        return list.size();
+        return size(root);
     }
 
     public T pull() {
-        return list.remove(0);
+        return removeNode(0).item;
     }
 
     public boolean isEmpty() {
-        return list.isEmpty();
+        return root == null;
     }
 
+    /**
+     * @return キューの内容のコピー
+     */
     public List<T> getList() {
+        List<T> list = new ArrayList<>(size());
+        for (Node<T> node = first(root); node != null; node = successor(node))
+            list.add(node.item);
         return list;
     }
 
     public T get(int index) {
-        return list.get(index);
+        return nodeAt(index).item;
+    }
+
+    /**
+     * @param from 最初の位置
+     * @param to   最後の位置の次 (キューの長さを超える場合は末尾まで)
+     * @return 指定した範囲の楽曲のコピー
+     */
+    public List<T> getRange(int from, int to) {
+        to = Math.min(to, size());
+        List<T> list = new ArrayList<>(Math.max(0, to - from));
+        if (from >= to)
+            return list;
+        Node<T> node = nodeAt(from);
+        for (int i = from; i < to; i++, node = successor(node))
+            list.add(node.item);
+        return list;
+    }
+
+    /**
+     * @return キュー内の楽曲の長さの合計 (ミリ秒)。長さが分からない楽曲は含みません
+     */
+    public long getTotalDuration() {
+        return totalDuration;
+    }
+
+    /**
+     * @return 長さが分からないため {@link #getTotalDuration()} に含まれていない楽曲の数
+     */
+    public int getUnknownDurationCount() {
+        return unknownDurations;
+    }
+
+    /**
+     * @param identifier ユーザーのID
+     * @return そのユーザーの楽曲の数
+     */
+    public int count(long identifier) {
+        TreeSet<Node<T>> same = owned.get(identifier);
+        return same == null ? 0 : same.size();
+    }
+
+    /**
+     * 曲名に {@code query} の語を全て含む楽曲のうち、最も前にあるものの位置を返します。
+     *
+     * @param query 検索する文字列
+     * @return 見つかった楽曲の位置。見つからない場合は -1
+     */
+    public int indexOf(String query) {
+        return indexOf(query, null);
+    }
+
+    /**
+     * {@link #indexOf(String)} と同じですが、指定したユーザーの楽曲だけを対象にします。
+     *
+     * @param query      検索する文字列
+     * @param identifier ユーザーのID
+     * @return 見つかった楽曲の位置。見つからない場合は -1
+     */
+    public int indexOf(String query, long identifier) {
+        return indexOf(query, (Long) identifier);
+    }
+
+    private int indexOf(String query, Long identifier) {
+        String[] tokens = TitleTokens.tokenize(query);
+        if (tokens.length == 0)
+            return -1;
+        // 最も少ない楽曲にしか含まれない語から候補を絞る
+        Set<Node<T>> candidates = null;
+        for (String token : tokens) {
+            Set<Node<T>> nodes = titles.get(token);
+            if (nodes == null)
+                return -1;
+            if (candidates == null || nodes.size() < candidates.size())
+                candidates = nodes;
+        }
+        int best = -1;
+        for (Node<T> node : candidates) {
+            if (identifier != null && node.owner != identifier)
+                continue;
+            if (!TitleTokens.containsAll(node.tokens, tokens))
+                continue;
+            int rank = rank(node);
+            if (best < 0 || rank < best)
+                best = rank;
+        }
+        return best;
     }
 
     public T remove(int index) {
-        return list.remove(index);
+        return removeNode(index).item;
     }
 
     public int removeAll(long identifier) {
-        int count = 0;
-        for (int i = list.size() - 1; i >= 0; i--) {
-            if (list.get(i).getIdentifier() == identifier) {
-                list.remove(i);
+        // キューの多くを占める場合は、1曲ずつ削除せずに残りの楽曲から木を作り直す
+        if ((long) count(identifier) * BULK_THRESHOLD >= size()) {
+            List<Node<T>> rest = new ArrayList<>(size());
+            int count = 0;
+            for (Node<T> node = first(root); node != null; node = successor(node)) {
+                if (node.owner != identifier) {
+                    rest.add(node);
+                    continue;
+                }
+                removeDuration(node.duration);
+                unindex(node);
                 count++;
             }
+            owned.remove(identifier);
+            root = build(rest);
+            return count;
+        }
+        int count = 0;
+        Node<T> tail;
+        while ((tail = tail(identifier)) != null) {
+            removeNode(rank(tail));
+            count++;
         }
         return count;
     }
 
     public void clear() {
-        list.clear();
+        root = null;
+        owned.clear();
+        titles.clear();
+        totalDuration = 0;
+        unknownDurations = 0;
     }
 
     public int shuffle(long identifier) {
-        List<Integer> iset = new ArrayList<>();
-        for (int i = 0; i < list.size(); i++) {
-            if (list.get(i).getIdentifier() == identifier)
-                iset.add(i);
-        }
-        for (int j = 0; j < iset.size(); j++) {
-            int first = iset.get(j);
-            int second = iset.get((int) (Math.random() * iset.size()));
-            T temp = list.get(first);
-            list.set(first, list.get(second));
-            list.set(second, temp);
+        TreeSet<Node<T>> same = owned.get(identifier);
+        if (same == null)
+            return 0;
+        List<Node<T>> nodes = new ArrayList<>(same);
+        for (int j = 0; j < nodes.size(); j++) {
+            Node<T> first = nodes.get(j);
+            Node<T> second = nodes.get((int) (Math.random() * nodes.size()));
+            if (first == second)
+                continue;
+            unindex(first);
+            unindex(second);
+            T temp = first.item;
+            first.item = second.item;
+            second.item = temp;
+            long duration = first.duration;
+            first.duration = second.duration;
+            second.duration = duration;
+            String[] tokens = first.tokens;
+            first.tokens = second.tokens;
+            second.tokens = tokens;
+            index(first);
+            index(second);
         }
-        return iset.size();
+        return nodes.size();
     }
 
     public void skip(int number) {
-        if (number > 0) {
-            list.subList(0, number).clear();
-        }
+        if (number <= 0)
+            return;
+        checkIndex(number - 1);
+        // 飛ばす楽曲は、それぞれのユーザーの楽曲の中で先頭から順に並んでいる。木を分けると位置で比べられなくなるため、先に取り除く
+        Node<T> node = first(root);
+        for (int i = 0; i < number; i++, node = successor(node))
+            forget(node, true);
+        split(root, number);
+        Node<T> skipped = detach(splitLeft);
+        root = detach(splitRight);
+        for (node = first(skipped); node != null; node = successor(node))
+            unlink(node);
     }
 
     /**
@@ -152,8 +376,258 @@ public class FairQueue<T extends Queueable> {
      * @return the 移動したアイテム
      */
     public T moveItem(int from, int to) {
-        T item = list.remove(from);
-        list.add(to, item);
-        return item;
+        Node<T> node = removeNode(from);
+        if (to < 0 || to > size())
+            throw new IndexOutOfBoundsException("Index: " + to + ", Size: " + size());
+        insert(to, node);
+        return node.item;
+    }
+
+    // 木の操作
+
+    /**
+     * {@code node} を {@code index} の位置に挿入し、同じユーザーの楽曲の記録に加えます。
+     */
+    private void insert(int index, Node<T> node) {
+        split(root, index);
+        Node<T> left = detach(splitLeft);
+        Node<T> right = detach(splitRight);
+        root = detach(merge(merge(left, node), right));
+
+        // 木に入れた後なので、同じユーザーの楽曲と位置で比べて記録の中の位置が決まる
+        owned.computeIfAbsent(node.owner, k -> new TreeSet<>(byPosition)).add(node);
+        addDuration(node.duration);
+        index(node);
+    }
+
+    private Node<T> removeNode(int index) {
+        // 木から外す前に、位置で比べて同じユーザーの楽曲の記録から取り除く
+        forget(nodeAt(index), false);
+        split(root, index);
+        Node<T> left = detach(splitLeft);
+        split(splitRight, 1);
+        Node<T> node = detach(splitLeft);
+        Node<T> right = detach(splitRight);
+        root = detach(merge(left, right));
+        unlink(node);
+        return node;
+    }
+
+    /**
+     * 同じユーザーの楽曲の記録から {@code node} を取り除きます。{@code node} はまだ木の中にある必要があります。
+     *
+     * @param first {@code node} がそのユーザーの楽曲の中で先頭にあることが分かっている場合は {@code true}
+     */
+    private void forget(Node<T> node, boolean first) {
+        TreeSet<Node<T>> same = owned.get(node.owner);
+        if (first)
+            same.pollFirst();
+        else
+            same.remove(node);
+        if (same.isEmpty())
+            owned.remove(node.owner);
+    }
+
+    /**
+     * 木から外した {@code node} を、合計の長さと曲名の索引から取り除きます。
+     */
+    private void unlink(Node<T> node) {
+        removeDuration(node.duration);
+        unindex(node);
+    }
+
+    private Node<T> tail(long owner) {
+        TreeSet<Node<T>> same = owned.get(owner);
+        return same == null ? null : same.last();
+    }
+
+    private void addDuration(long duration) {
+        if (duration < 0)
+            unknownDurations++;
+        else
+            totalDuration += duration;
+    }
+
+    private void removeDuration(long duration) {
+        if (duration < 0)
+            unknownDurations--;
+        else
+            totalDuration -= duration;
+    }
+
+    private void index(Node<T> node) {
+        for (String token : node.tokens)
+            titles.computeIfAbsent(token, k -> new HashSet<>()).add(node);
+    }
+
+    private void unindex(Node<T> node) {
+        for (String token : node.tokens) {
+            Set<Node<T>> nodes = titles.get(token);
+            if (nodes != null && nodes.remove(node) && nodes.isEmpty())
+                titles.remove(token);
+        }
+    }
+
+    private Node<T> nodeAt(int index) {
+        checkIndex(index);
+        Node<T> node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+    }
+
+    /**
+     * 先頭から {@code count} 個を {@link #splitLeft}、残りを {@link #splitRight} に分けます。
+     */
+    private void split(Node<T> node, int count) {
+        if (node == null) {
+            splitLeft = null;
+            splitRight = null;
+        } else if (size(node.left) < count) {
+            split(node.right, count - size(node.left) - 1);
+            node.right = splitLeft;
+            update(node);
+            splitLeft = node;
+        } else {
+            split(node.left, count);
+            node.left = splitRight;
+            update(node);
+            splitRight = node;
+        }
+    }
+
+    /**
+     * 並び順通りの {@code nodes} から、各ノードの優先度を保ったまま木を作ります。
+     */
+    private static <T extends Queueable> Node<T> build(List<Node<T>> nodes) {
+        List<Node<T>> stack = new ArrayList<>();
+        for (Node<T> node : nodes) {
+            node.left = null;
+            node.right = null;
+            node.parent = null;
+            Node<T> last = null;
+            while (!stack.isEmpty() && stack.get(stack.size() - 1).priority <= node.priority)
+                last = stack.remove(stack.size() - 1);
+            node.left = last;
+            if (!stack.isEmpty())
+                stack.get(stack.size() - 1).right = node;
+            stack.add(node);
+        }
+        if (stack.isEmpty())
+            return null;
+        Node<T> root = stack.get(0);
+        updateAll(root);
+        return root;
+    }
+
+    private static <T extends Queueable> void updateAll(Node<T> node) {
+        if (node.left != null)
+            updateAll(node.left);
+        if (node.right != null)
+            updateAll(node.right);
+        update(node);
+    }
+
+    private Node<T> merge(Node<T> a, Node<T> b) {
+        if (a == null)
+            return b;
+        if (b == null)
+            return a;
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        } else {
+            b.left = merge(a, b.left);
+            update(b);
+            return b;
+        }
+    }
+
+    private static <T extends Queueable> Node<T> detach(Node<T> node) {
+        if (node != null)
+            node.parent = null;
+        return node;
+    }
+
+    private static <T extends Queueable> void update(Node<T> node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        if (node.left != null)
+            node.left.parent = node;
+        if (node.right != null)
+            node.right.parent = node;
+    }
+
+    private static <T extends Queueable> int size(Node<T> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static <T extends Queueable> int rank(Node<T> node) {
+        int rank = size(node.left);
+        for (Node<T> n = node; n.parent != null; n = n.parent)
+            if (n == n.parent.right)
+                rank += size(n.parent.left) + 1;
+        return rank;
+    }
+
+    private static <T extends Queueable> Node<T> first(Node<T> node) {
+        if (node == null)
+            return null;
+        while (node.left != null)
+            node = node.left;
+        return node;
+    }
+
+    private static <T extends Queueable> Node<T> last(Node<T> node) {
+        while (node.right != null)
+            node = node.right;
+        return node;
+    }
+
+    private static <T extends Queueable> Node<T> predecessor(Node<T> node) {
+        if (node.left != null)
+            return last(node.left);
+        while (node.parent != null && node == node.parent.left)
+            node = node.parent;
+        return node.parent;
+    }
+
+    private static <T extends Queueable> Node<T> successor(Node<T> node) {
+        if (node.right != null)
+            return first(node.right);
+        while (node.parent != null && node == node.parent.right)
+            node = node.parent;
+        return node.parent;
+    }
+
+    private static class Node<T extends Queueable> {
+        private final long owner;
+        private final int priority;
+        private T item;
+        private long duration;
+        private String[] tokens;
+        private int size = 1;
+        private Node<T> left, right, parent;
+
+        private Node(T item, int priority) {
+            this.item = item;
+            this.owner = item.getIdentifier();
+            this.duration = item.getDuration();
+            this.tokens = TitleTokens.tokenize(item.getTitle());
+            this.priority = priority;
+        }
     }
 }
@@ -21,4 +21,19 @@ package com.jagrosh.jmusicbot.queue;
 public interface Queueable {
 
     long getIdentifier();
+
+    /**
+     * @return {@link FairQueue#getTotalDuration()} に加える長さ (ミリ秒)。長さが分からない場合は負の値を返し、
+     * 合計には加えずに {@link FairQueue#getUnknownDurationCount()} として数えます
+     */
+    default long getDuration() {
+        return 0;
+    }
+
+    /**
+     * @return {@link FairQueue#indexOf(String)} で検索する曲名。検索の対象にしない場合は null
+     */
+    default String getTitle() {
+        return null;
+    }
 }
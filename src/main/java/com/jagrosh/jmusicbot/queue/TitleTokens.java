@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot.queue;
+
+import java.text.Normalizer;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 曲名を検索用の語に分けます。
+ * <p>
+ * 全角・半角と大文字・小文字の違いをなくしてから、文字と数字が続く部分ごとに分け、さらに英数字とそれ以外の文字の境目で分けます。
+ * 英数字だけの部分はそのまま1語とします。日本語などの単語の区切りがない文字の部分は、1文字ずつと2文字ずつの両方の語にします。
+ * 1文字ずつの語も記録するので、「桜」のような1文字での検索にも一致します。
+ * 検索する文字列も同じように分け、全ての語を含む曲を一致とみなします。
+ *
+ * @author Cosgy Dev
+ */
+public final class TitleTokens {
+    private static final String[] EMPTY = new String[0];
+
+    private TitleTokens() {
+    }
+
+    public static String[] tokenize(String text) {
+        if (text == null || text.isEmpty())
+            return EMPTY;
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        Set<String> tokens = new LinkedHashSet<>();
+        int start = -1;
+        boolean ascii = true;
+        for (int i = 0; i <= normalized.length(); i++) {
+            char c = i < normalized.length() ? normalized.charAt(i) : ' ';
+            boolean letter = Character.isLetterOrDigit(c);
+            // 英数字とそれ以外が切り替わる位置でも区切る
+            if (start >= 0 && (!letter || (c < 0x80) != ascii)) {
+                addRun(tokens, normalized.substring(start, i), ascii);
+                start = -1;
+            }
+            if (letter && start < 0) {
+                start = i;
+                ascii = c < 0x80;
+            }
+        }
+        return tokens.toArray(EMPTY);
+    }
+
+    private static void addRun(Set<String> tokens, String run, boolean ascii) {
+        if (ascii) {
+            tokens.add(run);
+            return;
+        }
+        for (int i = 0; i < run.length(); i++)
+            tokens.add(run.substring(i, i + 1));
+        for (int i = 0; i + 2 <= run.length(); i++)
+            tokens.add(run.substring(i, i + 2));
+    }
+
+    /**
+     * @return {@code tokens} が {@code query} の語を全て含んでいるか
+     */
+    static boolean containsAll(String[] tokens, String[] query) {
+        outer:
+        for (String q : query) {
+            for (String t : tokens)
+                if (t.equals(q))
+                    continue outer;
+            return false;
+        }
+        return true;
+    }
+}
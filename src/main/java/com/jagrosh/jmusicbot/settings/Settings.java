@@ -17,6 +17,7 @@ package com.jagrosh.jmusicbot.settings;
 
 import com.jagrosh.jdautilities.command.GuildSettingsProvider;
 import dev.cosgy.jmusicbot.settings.RepeatMode;
+import dev.cosgy.jmusicbot.settings.StallPolicy;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Role;
 import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
@@ -25,180 +26,177 @@ import net.dv8tion.jda.api.entities.channel.middleman.AudioChannel;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.function.UnaryOperator;
 
 /**
+ * サーバーの設定です。
+ * <p>
+ * 値は {@link SettingsSnapshot} として保持しており、値を変更するたびに新しいスナップショットに置き換えます。
+ * 読み取りはロックを取らずに、その時点のスナップショットから行います。
+ *
  * @author John Grosh <john.a.grosh@gmail.com>
  */
 public class Settings implements GuildSettingsProvider {
     private final SettingsManager manager;
-    protected long textId;
-    protected long voiceId;
-    protected long roleId;
-    private int volume, announce;
-    private String defaultPlaylist;
-    private RepeatMode repeatMode;
-    private String prefix;
-    private boolean bitrateWarningReaded;
-    private double skipRatio;
-    private boolean vcStatus;
-    private boolean ForceToEndQue;
-
-
-    public Settings(SettingsManager manager, String textId, String voiceId, String roleId, int volume, String defaultPlaylist, RepeatMode repeatMode, String prefix, boolean bitrateWarningReaded, int announce, double skipRatio, boolean vcStatus, boolean forceToEndQue) {
+    private volatile SettingsSnapshot snapshot;
+    // SettingsManager が設定を保存するギルドと、使われなくなった設定をメモリから外す時期を判断するために使用する
+    long guildId;
+    volatile long lastAccess;
+
+
+    public Settings(SettingsManager manager, String textId, String voiceId, String roleId, int volume, String defaultPlaylist, RepeatMode repeatMode, String prefix, boolean bitrateWarningReaded, int announce, double skipRatio, boolean vcStatus, boolean forceToEndQue, int frameBufferDuration, StallPolicy stallPolicy) {
+        this(manager, parseId(textId), parseId(voiceId), parseId(roleId), volume, defaultPlaylist, repeatMode, prefix, bitrateWarningReaded, announce, skipRatio, vcStatus, forceToEndQue, frameBufferDuration, stallPolicy);
+    }
+
+    public Settings(SettingsManager manager, long textId, long voiceId, long roleId, int volume, String defaultPlaylist, RepeatMode repeatMode, String prefix, boolean bitrateWarningReaded, int announce, double skipRatio, boolean vcStatus, boolean forceToEndQue, int frameBufferDuration, StallPolicy stallPolicy) {
         this.manager = manager;
+        this.snapshot = new SettingsSnapshot(textId, voiceId, roleId, volume, defaultPlaylist, repeatMode, prefix,
+                bitrateWarningReaded, announce, skipRatio, vcStatus, forceToEndQue, frameBufferDuration, stallPolicy);
+    }
+
+    private static long parseId(String id) {
         try {
-            this.textId = Long.parseLong(textId);
-        } catch (NumberFormatException e) {
-            this.textId = 0;
-        }
-        try {
-            this.voiceId = Long.parseLong(voiceId);
+            return Long.parseLong(id);
         } catch (NumberFormatException e) {
-            this.voiceId = 0;
+            return 0;
         }
-        try {
-            this.roleId = Long.parseLong(roleId);
-        } catch (NumberFormatException e) {
-            this.roleId = 0;
+    }
+
+    /**
+     * @return 現在の設定。この後に設定が変更されても内容は変わりません
+     */
+    public SettingsSnapshot snapshot() {
+        return snapshot;
+    }
+
+    private void update(UnaryOperator<SettingsSnapshot> change) {
+        // 同時に別の値が変更されても、どちらかの変更が失われないようにする
+        synchronized (this) {
+            snapshot = change.apply(snapshot);
         }
-        this.volume = volume;
-        this.defaultPlaylist = defaultPlaylist;
-        this.repeatMode = repeatMode;
-        this.prefix = prefix;
-        this.bitrateWarningReaded = bitrateWarningReaded;
-        this.announce = announce;
-        this.skipRatio = skipRatio;
-        this.vcStatus = vcStatus;
-        this.ForceToEndQue = forceToEndQue;
-    }
-
-    public Settings(SettingsManager manager, long textId, long voiceId, long roleId, int volume, String defaultPlaylist, RepeatMode repeatMode, String prefix, boolean bitrateWarningReaded, int announce, double skipRatio, boolean vcStatus, boolean forceToEndQue) {
-        this.manager = manager;
-        this.textId = textId;
-        this.voiceId = voiceId;
-        this.roleId = roleId;
-        this.volume = volume;
-        this.defaultPlaylist = defaultPlaylist;
-        this.repeatMode = repeatMode;
-        this.prefix = prefix;
-        this.bitrateWarningReaded = bitrateWarningReaded;
-        this.announce = announce;
-        this.skipRatio = skipRatio;
-        this.vcStatus = vcStatus;
-        this.ForceToEndQue = forceToEndQue;
+        this.manager.writeSettings(this);
     }
 
     // Getters
     public TextChannel getTextChannel(Guild guild) {
-        return guild == null ? null : guild.getTextChannelById(textId);
+        return guild == null ? null : guild.getTextChannelById(snapshot.getTextId());
     }
 
     public VoiceChannel getVoiceChannel(Guild guild) {
-        return guild == null ? null : guild.getVoiceChannelById(voiceId);
+        return guild == null ? null : guild.getVoiceChannelById(snapshot.getVoiceId());
     }
 
     public Role getRole(Guild guild) {
-        return guild == null ? null : guild.getRoleById(roleId);
+        return guild == null ? null : guild.getRoleById(snapshot.getRoleId());
     }
 
     public int getVolume() {
-        return volume;
+        return snapshot.getVolume();
     }
 
     public void setVolume(int volume) {
-        this.volume = volume;
-        this.manager.writeSettings();
+        update(s -> s.withVolume(volume));
     }
 
     public String getDefaultPlaylist() {
-        return defaultPlaylist;
+        return snapshot.getDefaultPlaylist();
     }
 
     public void setDefaultPlaylist(String defaultPlaylist) {
-        this.defaultPlaylist = defaultPlaylist;
-        this.manager.writeSettings();
+        update(s -> s.withDefaultPlaylist(defaultPlaylist));
     }
 
     public RepeatMode getRepeatMode() {
-        return repeatMode;
+        return snapshot.getRepeatMode();
     }
 
     public void setRepeatMode(RepeatMode mode) {
-        this.repeatMode = mode;
-        this.manager.writeSettings();
+        update(s -> s.withRepeatMode(mode));
     }
 
     public String getPrefix() {
-        return prefix;
+        return snapshot.getPrefix();
     }
 
     public void setPrefix(String prefix) {
-        this.prefix = prefix;
-        this.manager.writeSettings();
+        update(s -> s.withPrefix(prefix));
     }
 
     public double getSkipRatio() {
-        return skipRatio;
+        return snapshot.getSkipRatio();
     }
 
     public void setSkipRatio(double skipRatio) {
-        this.skipRatio = skipRatio;
-        this.manager.writeSettings();
+        update(s -> s.withSkipRatio(skipRatio));
     }
 
     public int getAnnounce() {
-        return announce;
+        return snapshot.getAnnounce();
     }
 
     public void setAnnounce(int announce) {
-        this.announce = announce;
-        this.manager.writeSettings();
+        update(s -> s.withAnnounce(announce));
     }
 
     public boolean getVCStatus() {
-        return vcStatus;
+        return snapshot.getVCStatus();
     }
 
     public void setVCStatus(boolean vcStatus) {
-        this.vcStatus = vcStatus;
-        this.manager.writeSettings();
+        update(s -> s.withVCStatus(vcStatus));
     }
 
     public boolean isBitrateWarningReaded() {
-        return bitrateWarningReaded;
+        return snapshot.isBitrateWarningReaded();
     }
 
-    public void setBitrateWarning(boolean readied) {
-        this.bitrateWarningReaded = readied;
+    public synchronized void setBitrateWarning(boolean readied) {
+        this.snapshot = snapshot.withBitrateWarningReaded(readied);
     }
 
     @Override
     public Collection<String> getPrefixes() {
+        String prefix = snapshot.getPrefix();
         return prefix == null ? Collections.EMPTY_SET : Collections.singleton(prefix);
     }
 
     // Setters
     public void setTextChannel(TextChannel tc) {
-        this.textId = tc == null ? 0 : tc.getIdLong();
-        this.manager.writeSettings();
+        update(s -> s.withTextId(tc == null ? 0 : tc.getIdLong()));
     }
 
     public void setVoiceChannel(AudioChannel vc) {
-        this.voiceId = vc == null ? 0 : vc.getIdLong();
-        this.manager.writeSettings();
+        update(s -> s.withVoiceId(vc == null ? 0 : vc.getIdLong()));
     }
 
     public void setDJRole(Role role) {
-        this.roleId = role == null ? 0 : role.getIdLong();
-        this.manager.writeSettings();
+        update(s -> s.withRoleId(role == null ? 0 : role.getIdLong()));
     }
 
     public void setForceToEndQue(boolean forceToEndQue) {
-        this.ForceToEndQue = forceToEndQue;
-        this.manager.writeSettings();
+        update(s -> s.withForceToEndQue(forceToEndQue));
     }
 
     public boolean isForceToEndQue() {
-        return ForceToEndQue;
+        return snapshot.isForceToEndQue();
+    }
+
+    /**
+     * @return このギルドのフレームバッファの長さ(ミリ秒)。0 の場合は設定ファイルの値を使用します。
+     */
+    public int getFrameBufferDuration() {
+        return snapshot.getFrameBufferDuration();
+    }
+
+    public void setFrameBufferDuration(int frameBufferDuration) {
+        update(s -> s.withFrameBufferDuration(frameBufferDuration));
+    }
+
+    public StallPolicy getStallPolicy() {
+        return snapshot.getStallPolicy();
+    }
+
+    public void setStallPolicy(StallPolicy stallPolicy) {
+        update(s -> s.withStallPolicy(stallPolicy));
     }
-}
\ No newline at end of file
+}
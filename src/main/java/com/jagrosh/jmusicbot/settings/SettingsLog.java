@@ -0,0 +1,216 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot.settings;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * サーバーごとの設定を1行ずつ追記していくファイルです。
+ * <p>
+ * 1行が1つのギルドの設定で、{@code ギルドID<TAB>設定のJSON} の形式です。
+ * 同じギルドの設定が何度も書き込まれた場合は、最後の行が有効になります。
+ * 起動時にはファイルを読み飛ばしながら各ギルドの最後の行の位置だけを記録し、設定の内容は必要になったときに読み込みます。
+ * <p>
+ * 古い行が増えてファイルが有効な行の {@link #COMPACT_RATIO} 倍を超えると、有効な行だけを別のファイルに書き出して置き換えます。
+ *
+ * @author Cosgy Dev
+ */
+final class SettingsLog {
+    private static final Logger LOG = LoggerFactory.getLogger("Settings");
+    private static final int COMPACT_RATIO = 2;
+    private static final long COMPACT_MIN_SIZE = 1 << 20;
+    private static final int LENGTH_BITS = 24;
+    private static final long LENGTH_MASK = (1L << LENGTH_BITS) - 1;
+
+    private final Path path;
+    /**
+     * ギルドIDごとの最後の行の位置です。上位ビットが行の開始位置、下位 {@link #LENGTH_BITS} ビットが改行を含まない行の長さです。
+     */
+    private final Map<Long, Long> index = new HashMap<>();
+    private FileChannel channel;
+    private long liveBytes;
+
+    private SettingsLog(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * ファイルを開き、各ギルドの設定の位置を読み込みます。ファイルがなければ作成します。
+     * 最後の行が途中で切れている場合は、書き込み中に終了したものとして切り捨てます。
+     */
+    static SettingsLog open(Path path) throws IOException {
+        SettingsLog log = new SettingsLog(path);
+        log.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long end = log.scan();
+        if (end < log.channel.size()) {
+            LOG.warn("設定ファイルの最後の行が壊れていたため切り捨てました: " + path);
+            log.channel.truncate(end);
+        }
+        return log;
+    }
+
+    private long scan() throws IOException {
+        long offset = 0;
+        long lineStart = 0;
+        long id = 0;
+        boolean inId = true;
+        InputStream in = new BufferedInputStream(Channels.newInputStream(channel.position(0)), 1 << 16);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int length = (int) (offset - lineStart);
+                if (!inId)
+                    put(id, lineStart, length);
+                lineStart = offset + 1;
+                id = 0;
+                inId = true;
+            } else if (inId) {
+                if (b == '\t')
+                    inId = false;
+                else
+                    id = id * 10 + (b - '0');
+            }
+            offset++;
+        }
+        return lineStart;
+    }
+
+    private void put(long id, long offset, int length) {
+        Long old = index.put(id, offset << LENGTH_BITS | length);
+        if (old != null)
+            liveBytes -= (old & LENGTH_MASK) + 1;
+        liveBytes += length + 1;
+    }
+
+    /**
+     * @return ギルドの設定のJSON、保存されていない場合は {@code null}
+     */
+    synchronized String read(long id) throws IOException {
+        Long entry = index.get(id);
+        if (entry == null)
+            return null;
+        String line = readLine(channel, entry);
+        return line.substring(line.indexOf('\t') + 1);
+    }
+
+    private static String readLine(FileChannel channel, long entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (entry & LENGTH_MASK));
+        long position = entry >>> LENGTH_BITS;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("設定ファイルが途中で終わっています");
+        }
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * ギルドの設定をまとめて追記し、ディスクに書き込まれるまで待ちます。
+     *
+     * @param records ギルドIDと設定のJSON
+     */
+    synchronized void append(Map<Long, String> records) throws IOException {
+        if (records.isEmpty())
+            return;
+        long position = channel.size();
+        StringBuilder sb = new StringBuilder();
+        List<long[]> added = new ArrayList<>(records.size());
+        int bytes = 0;
+        for (Map.Entry<Long, String> record : records.entrySet()) {
+            // JSONの文字列は改行をエスケープするため、1行に収まる
+            String line = record.getKey() + "\t" + record.getValue();
+            int length = line.getBytes(StandardCharsets.UTF_8).length;
+            if (length > LENGTH_MASK)
+                throw new IOException("ギルドの設定が大きすぎます: " + record.getKey());
+            sb.append(line).append('\n');
+            added.add(new long[]{record.getKey(), position + bytes, length});
+            bytes += length + 1;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining())
+            channel.write(buffer, position + buffer.position());
+        channel.force(false);
+        for (long[] a : added)
+            put(a[0], a[1], (int) a[2]);
+        if (channel.size() > COMPACT_MIN_SIZE && channel.size() > liveBytes * COMPACT_RATIO)
+            compact();
+    }
+
+    /**
+     * 有効な行だけを一時ファイルに書き出し、元のファイルと置き換えます。
+     */
+    synchronized void compact() throws IOException {
+        long before = channel.size();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        // 元のファイルを先頭から順に読むように、位置の順に並べる
+        List<Map.Entry<Long, Long>> entries = new ArrayList<>(index.entrySet());
+        entries.sort(Map.Entry.comparingByValue());
+        Map<Long, Long> compacted = new HashMap<>(index.size() * 2);
+        long written = 0;
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<Long, Long> e : entries) {
+                long length = e.getValue() & LENGTH_MASK;
+                ByteBuffer line = ByteBuffer.wrap((readLine(channel, e.getValue()) + "\n").getBytes(StandardCharsets.UTF_8));
+                while (line.hasRemaining())
+                    out.write(line);
+                compacted.put(e.getKey(), written << LENGTH_BITS | length);
+                written += length + 1;
+            }
+            out.force(true);
+        }
+        channel.close();
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            // 置き換えに失敗した場合は、元のファイルを開き直して使い続ける
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        index.clear();
+        index.putAll(compacted);
+        liveBytes = written;
+        LOG.info("設定ファイルを整理しました: " + before + " -> " + written + " bytes");
+    }
+
+    /**
+     * @return 設定が保存されているギルドの数
+     */
+    synchronized int size() {
+        return index.size();
+    }
+
+    synchronized void close() throws IOException {
+        channel.close();
+    }
+}
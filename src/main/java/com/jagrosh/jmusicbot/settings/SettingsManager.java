@@ -16,74 +16,154 @@
 package com.jagrosh.jmusicbot.settings;
 
 import com.jagrosh.jdautilities.command.GuildSettingsManager;
+import com.jagrosh.jmusicbot.BotConfig;
 import com.jagrosh.jmusicbot.utils.OtherUtil;
 import dev.cosgy.jmusicbot.settings.RepeatMode;
+import dev.cosgy.jmusicbot.settings.StallPolicy;
+import dev.cosgy.jmusicbot.util.ConcurrentLongMap;
 import net.dv8tion.jda.api.entities.Guild;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
-import java.util.HashMap;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
+ * サーバーごとの設定を管理します。
+ * <p>
+ * 設定が変更されると、{@code settingssavedelay} 秒後にバックグラウンドのスレッドで保存します。
+ * 待っている間に行われた変更は同じ1回の保存にまとめられます。
+ * <p>
+ * {@code settingsstore} が {@code json} の場合は、起動時に serversettings.json から全てのギルドの設定を読み込み、
+ * 保存のたびに全てのギルドの設定を書き直します。保存の途中で終了してもファイルが壊れないように、一時ファイルに書き込んでから置き換えます。
+ * <p>
+ * {@code log} の場合は、変更されたギルドの設定だけを serversettings.log に追記し({@link SettingsLog})、
+ * 設定は初めて使われたときに読み込みます。{@code settingsidletime} 分間使われなかった設定はメモリから外します。
+ * serversettings.log がなく serversettings.json がある場合は、最初の起動時に内容を移行します。
+ *
  * @author John Grosh (john.a.grosh@gmail.com)
  */
 public class SettingsManager implements GuildSettingsManager {
     private final static double SKIP_RATIO = .55;
-    private final HashMap<Long, Settings> settings;
+    private final static int DEFAULT_VOLUME = 10;
+    private final static int PASSTHROUGH_VOLUME = 100;
+    private final static String JSON_FILE = "serversettings.json";
+    private final static String LOG_FILE = "serversettings.log";
+    private final ConcurrentLongMap<Settings> settings;
+    // メモリから外した後もどこかで使われている設定は、同じインスタンスを返す
+    private final Map<Long, WeakReference<Settings>> evicted = new ConcurrentHashMap<>();
+    // 追記を待っている設定
+    private final Map<Long, Settings> pending = new ConcurrentHashMap<>();
+    private final int defaultVolume;
+    private final long saveDelay;
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    private final ScheduledExecutorService writer;
+    private final SettingsLog log;
+    private final long idleTime;
+    private final Path jsonPath;
+    private final Path logPath;
+
+    public SettingsManager(BotConfig config) {
+        this(OtherUtil.getPath(JSON_FILE), OtherUtil.getPath(LOG_FILE), config.isOpusPassthrough(), config.getSettingsSaveDelay(),
+                config.isSettingsLogStore(), TimeUnit.MINUTES.toMillis(Math.max(0, config.getSettingsIdleTime())));
+    }
+
+    /**
+     * @param idleTime 使われなかった設定をメモリから外すまでの時間 (ミリ秒)。0 の場合は外さない
+     */
+    SettingsManager(Path jsonPath, Path logPath, boolean opusPassthrough, int saveDelay, boolean logStore, long idleTime) {
+        this.jsonPath = jsonPath;
+        this.logPath = logPath;
+        // 保存用のスレッドが読み取っている間にも、コマンドから新しいギルドの設定が追加される
+        this.settings = new ConcurrentLongMap<>();
+        this.saveDelay = Math.max(0, saveDelay);
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "settings-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        // Ctrl+C などで終了した場合も、保存を待っている変更を失わないようにする
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "settings-flush"));
+        // 音量が100以外だとOpusのソースでもデコードと再エンコードが必要になるため、パススルーモードでは100を既定値にする
+        this.defaultVolume = opusPassthrough ? PASSTHROUGH_VOLUME : DEFAULT_VOLUME;
+        this.log = logStore ? openLog() : null;
+        this.idleTime = log == null ? 0 : idleTime;
+        if (log == null)
+            loadJson();
+        else if (idleTime > 0)
+            writer.scheduleWithFixedDelay(this::evictIdle, 1, 1, TimeUnit.MINUTES);
+    }
 
-    public SettingsManager() {
-        this.settings = new HashMap<>();
+    private void loadJson() {
         try {
-            JSONObject loadedSettings = new JSONObject(new String(Files.readAllBytes(OtherUtil.getPath("serversettings.json"))));
+            JSONObject loadedSettings = new JSONObject(new String(Files.readAllBytes(jsonPath)));
             loadedSettings.keySet().forEach((id) -> {
-                JSONObject o = loadedSettings.getJSONObject(id);
-
-                // 以前の(boolean型)バージョンをサポートするための
-                try {
-                    if (o.getBoolean("repeat")) {
-                        o.put("repeat", RepeatMode.ALL);
-                    } else {
-                        o.put("repeat", RepeatMode.OFF);
-                    }
-                    //バグで誤った値を入れていたのでその数値を正しいものに変更するため
-                    if (o.getInt("announce") == 50) {
-                        o.put("announce", 0);
-                    }
-                } catch (JSONException ignored) { /* ignored */ }
-
-                settings.put(Long.parseLong(id), new Settings(this,
-                        o.has("text_channel_id") ? o.getString("text_channel_id") : null,
-                        o.has("voice_channel_id") ? o.getString("voice_channel_id") : null,
-                        o.has("dj_role_id") ? o.getString("dj_role_id") : null,
-                        o.has("volume") ? o.getInt("volume") : 10,
-                        o.has("default_playlist") ? o.getString("default_playlist") : null,
-                        o.has("repeat") ? o.getEnum(RepeatMode.class, "repeat") : RepeatMode.OFF,
-                        o.has("prefix") ? o.getString("prefix") : null,
-                        o.has("bitrate_warnings_readied") && o.getBoolean("bitrate_warnings_readied"),
-                        o.has("announce") ? o.getInt("announce") : 0,
-                        o.has("skip_ratio") ? o.getDouble("skip_ratio") : SKIP_RATIO,
-                        o.has("vc_status") && o.getBoolean("vc_status"),
-                        o.has("force_to_end_que") && o.getBoolean("force_to_end_que")));
+                long guildId = Long.parseLong(id);
+                settings.put(guildId, fromJson(guildId, loadedSettings.getJSONObject(id)));
             });
         } catch (NoSuchFileException e) {
             // ignore, it just means no settings have been saved yet
             // create an empty json file
             try {
-                LoggerFactory.getLogger("Settings").info("serversettings.json を" + OtherUtil.getPath("serversettings.json").toAbsolutePath() + "に作成しました。");
-                Files.write(OtherUtil.getPath("serversettings.json"), new JSONObject().toString(4).getBytes());
+                LoggerFactory.getLogger("Settings").info("serversettings.json を" + jsonPath.toAbsolutePath() + "に作成しました。");
+                Files.write(jsonPath, new JSONObject().toString(4).getBytes());
             } catch(IOException ex) {
                 LoggerFactory.getLogger("Settings").warn("サーバー設定ファイルの作成に失敗しました:"+ex);
             }
-            return;
         } catch(IOException | JSONException e) {
             LoggerFactory.getLogger("Settings").warn("サーバー設定ファイルの読み込みに失敗しました: "+e);
         }
     }
 
+    /**
+     * serversettings.log を開きます。開けなかった場合は serversettings.json を使用します。
+     */
+    private SettingsLog openLog() {
+        Path path = logPath;
+        Path json = jsonPath;
+        boolean migrate = !Files.exists(path) && Files.exists(json);
+        SettingsLog opened = null;
+        try {
+            opened = SettingsLog.open(path);
+            if (migrate) {
+                JSONObject loadedSettings = new JSONObject(new String(Files.readAllBytes(json)));
+                Map<Long, String> records = new LinkedHashMap<>();
+                for (String id : loadedSettings.keySet()) {
+                    JSONObject o = loadedSettings.getJSONObject(id);
+                    if (o.length() > 0)
+                        records.put(Long.parseLong(id), o.toString());
+                }
+                opened.append(records);
+                LoggerFactory.getLogger("Settings").info(records.size() + "件のサーバー設定を serversettings.json から " + LOG_FILE + " に移行しました。");
+            }
+            LoggerFactory.getLogger("Settings").info(LOG_FILE + " を読み込みました。保存されているサーバー設定: " + opened.size() + "件");
+            return opened;
+        } catch (IOException | JSONException | NumberFormatException e) {
+            LoggerFactory.getLogger("Settings").warn(LOG_FILE + " を使用できないため、serversettings.json を使用します: " + e);
+            if (migrate && opened != null) {
+                // 移行が途中で終わったファイルを残すと、次の起動で移行されなくなる
+                try {
+                    opened.close();
+                    Files.deleteIfExists(path);
+                } catch (IOException ignored) { /* ignored */ }
+            }
+            return null;
+        }
+    }
+
     /**
      * ギルドのnull以外の設定を取得します
      *
@@ -96,47 +176,218 @@ public class SettingsManager implements GuildSettingsManager {
     }
 
     public Settings getSettings(long guildId) {
-        return settings.computeIfAbsent(guildId, id -> createDefaultSettings());
+        Settings s = settings.get(guildId);
+        if (s == null)
+            s = settings.computeIfAbsent(guildId, this::load);
+        if (idleTime > 0)
+            s.lastAccess = System.currentTimeMillis();
+        return s;
     }
 
-    private Settings createDefaultSettings() {
-        return new Settings(this, 0, 0, 0, 10, null, RepeatMode.OFF, null, false, 0, SKIP_RATIO, true, false);
+    /**
+     * 再生中のイベントのように、頻繁に設定を読む処理から使用します。
+     *
+     * @return ギルドの現在の設定
+     */
+    public SettingsSnapshot getSnapshot(long guildId) {
+        return getSettings(guildId).snapshot();
     }
 
-    protected void writeSettings() {
-        var obj = new JSONObject();
-        for (Long key : settings.keySet()) {
-            var o = new JSONObject();
-            Settings s = settings.get(key);
-            if (s.textId != 0)
-                o.put("text_channel_id", Long.toString(s.textId));
-            if (s.voiceId != 0)
-                o.put("voice_channel_id", Long.toString(s.voiceId));
-            if (s.roleId != 0)
-                o.put("dj_role_id", Long.toString(s.roleId));
-            if (s.getVolume() != 50)
-                o.put("volume", s.getVolume());
-            if (s.getDefaultPlaylist() != null)
-                o.put("default_playlist", s.getDefaultPlaylist());
-            if (s.getRepeatMode() != RepeatMode.OFF)
-                o.put("repeat", s.getRepeatMode());
-            if (s.getPrefix() != null)
-                o.put("prefix", s.getPrefix());
-            if (s.getAnnounce() != 0)
-                o.put("announce", s.getAnnounce());
-            if (s.getSkipRatio() != SKIP_RATIO)
-                o.put("skip_ratio", s.getSkipRatio());
-            if (!s.getVCStatus())
-                o.put("vc_status", s.getVCStatus());
-            if(s.isForceToEndQue())
-                o.put("force_to_end_que", s.isForceToEndQue());
-
-            obj.put(Long.toString(key), o);
+    /**
+     * @return メモリに読み込まれているギルドの設定の数
+     */
+    public int getLoadedCount() {
+        return settings.size();
+    }
+
+    private Settings load(long guildId) {
+        if (log == null)
+            return createDefaultSettings(guildId);
+        Settings s = pending.get(guildId);
+        if (s != null)
+            return s;
+        WeakReference<Settings> ref = evicted.remove(guildId);
+        if (ref != null && (s = ref.get()) != null)
+            return s;
+        try {
+            String json = log.read(guildId);
+            if (json != null)
+                return fromJson(guildId, new JSONObject(json));
+        } catch (IOException | JSONException e) {
+            LoggerFactory.getLogger("Settings").warn("サーバー設定の読み込みに失敗しました: " + guildId + " " + e);
+        }
+        return createDefaultSettings(guildId);
+    }
+
+    /**
+     * {@code settingsidletime} 分間使われなかった設定をメモリから外します。保存を待っている設定は外しません。
+     */
+    void evictIdle() {
+        try {
+            long deadline = System.currentTimeMillis() - idleTime;
+            settings.forEach((id, s) -> {
+                if (s.lastAccess >= deadline || pending.containsKey(id))
+                    return;
+                // 外した直後に読み込まれても同じインスタンスを返せるように、外す前に evicted に入れておく
+                WeakReference<Settings> ref = new WeakReference<>(s);
+                evicted.put(id, ref);
+                if (!settings.remove(id, s))
+                    evicted.remove(id, ref);
+            });
+            evicted.values().removeIf(ref -> ref.get() == null);
+        } catch (RuntimeException e) {
+            LoggerFactory.getLogger("Settings").warn("サーバー設定の整理に失敗しました: " + e);
+        }
+    }
+
+    private Settings createDefaultSettings(long guildId) {
+        Settings s = new Settings(this, 0, 0, 0, defaultVolume, null, RepeatMode.OFF, null, false, 0, SKIP_RATIO, true, false, 0, StallPolicy.RETRY);
+        s.guildId = guildId;
+        return s;
+    }
+
+    private Settings fromJson(long guildId, JSONObject o) {
+        // 以前の(boolean型)バージョンをサポートするための
+        try {
+            if (o.getBoolean("repeat")) {
+                o.put("repeat", RepeatMode.ALL);
+            } else {
+                o.put("repeat", RepeatMode.OFF);
+            }
+            //バグで誤った値を入れていたのでその数値を正しいものに変更するため
+            if (o.getInt("announce") == 50) {
+                o.put("announce", 0);
+            }
+        } catch (JSONException ignored) { /* ignored */ }
+
+        Settings s = new Settings(this,
+                o.has("text_channel_id") ? o.getString("text_channel_id") : null,
+                o.has("voice_channel_id") ? o.getString("voice_channel_id") : null,
+                o.has("dj_role_id") ? o.getString("dj_role_id") : null,
+                o.has("volume") ? o.getInt("volume") : defaultVolume,
+                o.has("default_playlist") ? o.getString("default_playlist") : null,
+                o.has("repeat") ? o.getEnum(RepeatMode.class, "repeat") : RepeatMode.OFF,
+                o.has("prefix") ? o.getString("prefix") : null,
+                o.has("bitrate_warnings_readied") && o.getBoolean("bitrate_warnings_readied"),
+                o.has("announce") ? o.getInt("announce") : 0,
+                o.has("skip_ratio") ? o.getDouble("skip_ratio") : SKIP_RATIO,
+                o.has("vc_status") && o.getBoolean("vc_status"),
+                o.has("force_to_end_que") && o.getBoolean("force_to_end_que"),
+                o.has("frame_buffer_duration") ? o.getInt("frame_buffer_duration") : 0,
+                o.has("stall_policy") ? o.getEnum(StallPolicy.class, "stall_policy") : StallPolicy.RETRY);
+        s.guildId = guildId;
+        return s;
+    }
+
+    /**
+     * 設定が変更されたことを記録し、保存を予約します。
+     * 既に保存が予約されている場合は、その保存にまとめられます。
+     */
+    protected void writeSettings(Settings changed) {
+        if (log != null)
+            pending.put(changed.guildId, changed);
+        // 終了処理が始まった後の変更は、その場で保存する
+        if (saveDelay == 0 || writer.isShutdown()) {
+            dirty.set(true);
+            save();
+            return;
         }
+        if (dirty.compareAndSet(false, true))
+            writer.schedule(this::save, saveDelay, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 保存を待っている変更があれば、その場で保存します。
+     */
+    public void flush() {
+        save();
+    }
+
+    /**
+     * 保存を待っている変更を保存してから、保存用のスレッドを終了します。
+     */
+    public void shutdown() {
+        // 保存中のスレッドに割り込むと書き込みが中断されるため、shutdownNow は使わない
+        writer.shutdown();
+        flush();
+    }
+
+    private synchronized void save() {
+        // 書き出している間に行われた変更は、次の保存で書き込まれる
+        // 追記に失敗した設定は pending に残っているため、次の保存で書き込む
+        if (!dirty.getAndSet(false) && pending.isEmpty())
+            return;
+        if (log != null)
+            saveLog();
+        else
+            saveJson();
+    }
+
+    private void saveLog() {
+        Map<Long, Settings> saving = new LinkedHashMap<>();
+        Map<Long, String> records = new LinkedHashMap<>();
+        for (Long id : pending.keySet()) {
+            Settings s = pending.remove(id);
+            if (s == null)
+                continue;
+            saving.put(id, s);
+            records.put(id, toJson(s).toString());
+        }
+        try {
+            log.append(records);
+        } catch (IOException ex) {
+            saving.forEach(pending::putIfAbsent);
+            LoggerFactory.getLogger("Settings").warn("ファイルへの書き込みに失敗しました： " + ex);
+        }
+    }
+
+    private void saveJson() {
+        var obj = new JSONObject();
+        settings.forEach((id, s) -> obj.put(Long.toString(id), toJson(s)));
+        Path path = jsonPath;
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
         try {
-            Files.write(OtherUtil.getPath("serversettings.json"), obj.toString(4).getBytes());
+            Files.write(temp, obj.toString(4).getBytes());
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
         } catch (IOException ex) {
             LoggerFactory.getLogger("Settings").warn("ファイルへの書き込みに失敗しました： " + ex);
         }
     }
+
+    private JSONObject toJson(Settings settings) {
+        // 書き出している間に値が変更されても、同じ時点の値を書き出す
+        SettingsSnapshot s = settings.snapshot();
+        var o = new JSONObject();
+        if (s.getTextId() != 0)
+            o.put("text_channel_id", Long.toString(s.getTextId()));
+        if (s.getVoiceId() != 0)
+            o.put("voice_channel_id", Long.toString(s.getVoiceId()));
+        if (s.getRoleId() != 0)
+            o.put("dj_role_id", Long.toString(s.getRoleId()));
+        if (s.getVolume() != defaultVolume)
+            o.put("volume", s.getVolume());
+        if (s.getDefaultPlaylist() != null)
+            o.put("default_playlist", s.getDefaultPlaylist());
+        if (s.getRepeatMode() != RepeatMode.OFF)
+            o.put("repeat", s.getRepeatMode());
+        if (s.getPrefix() != null)
+            o.put("prefix", s.getPrefix());
+        if (s.getAnnounce() != 0)
+            o.put("announce", s.getAnnounce());
+        if (s.getSkipRatio() != SKIP_RATIO)
+            o.put("skip_ratio", s.getSkipRatio());
+        if (!s.getVCStatus())
+            o.put("vc_status", s.getVCStatus());
+        if(s.isForceToEndQue())
+            o.put("force_to_end_que", s.isForceToEndQue());
+        if (s.getFrameBufferDuration() != 0)
+            o.put("frame_buffer_duration", s.getFrameBufferDuration());
+        if (s.getStallPolicy() != StallPolicy.RETRY)
+            o.put("stall_policy", s.getStallPolicy());
+        return o;
+    }
 }
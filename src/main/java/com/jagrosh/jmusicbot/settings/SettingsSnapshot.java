@@ -0,0 +1,190 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot.settings;
+
+import dev.cosgy.jmusicbot.settings.RepeatMode;
+import dev.cosgy.jmusicbot.settings.StallPolicy;
+
+/**
+ * ある時点のサーバーの設定です。内容は変更されません。
+ * <p>
+ * {@link Settings} の値を変更すると、新しいスナップショットが作成されて置き換えられます。
+ * 再生中のイベントのように複数の値を続けて読む場合は、{@link Settings#snapshot()} で一度だけ取得すると、
+ * 途中で設定が変更されても同じ時点の値を読むことができます。
+ *
+ * @author Cosgy Dev
+ */
+public final class SettingsSnapshot {
+    private final long textId;
+    private final long voiceId;
+    private final long roleId;
+    private final int volume;
+    private final String defaultPlaylist;
+    private final RepeatMode repeatMode;
+    private final String prefix;
+    private final boolean bitrateWarningReaded;
+    private final int announce;
+    private final double skipRatio;
+    private final boolean vcStatus;
+    private final boolean forceToEndQue;
+    private final int frameBufferDuration;
+    private final StallPolicy stallPolicy;
+
+    SettingsSnapshot(long textId, long voiceId, long roleId, int volume, String defaultPlaylist, RepeatMode repeatMode,
+                     String prefix, boolean bitrateWarningReaded, int announce, double skipRatio, boolean vcStatus,
+                     boolean forceToEndQue, int frameBufferDuration, StallPolicy stallPolicy) {
+        this.textId = textId;
+        this.voiceId = voiceId;
+        this.roleId = roleId;
+        this.volume = volume;
+        this.defaultPlaylist = defaultPlaylist;
+        this.repeatMode = repeatMode;
+        this.prefix = prefix;
+        this.bitrateWarningReaded = bitrateWarningReaded;
+        this.announce = announce;
+        this.skipRatio = skipRatio;
+        this.vcStatus = vcStatus;
+        this.forceToEndQue = forceToEndQue;
+        this.frameBufferDuration = frameBufferDuration;
+        this.stallPolicy = stallPolicy;
+    }
+
+    public long getTextId() {
+        return textId;
+    }
+
+    public long getVoiceId() {
+        return voiceId;
+    }
+
+    public long getRoleId() {
+        return roleId;
+    }
+
+    public int getVolume() {
+        return volume;
+    }
+
+    public String getDefaultPlaylist() {
+        return defaultPlaylist;
+    }
+
+    public RepeatMode getRepeatMode() {
+        return repeatMode;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public boolean isBitrateWarningReaded() {
+        return bitrateWarningReaded;
+    }
+
+    public int getAnnounce() {
+        return announce;
+    }
+
+    public double getSkipRatio() {
+        return skipRatio;
+    }
+
+    public boolean getVCStatus() {
+        return vcStatus;
+    }
+
+    public boolean isForceToEndQue() {
+        return forceToEndQue;
+    }
+
+    public int getFrameBufferDuration() {
+        return frameBufferDuration;
+    }
+
+    public StallPolicy getStallPolicy() {
+        return stallPolicy;
+    }
+
+    SettingsSnapshot withTextId(long textId) {
+        return new SettingsSnapshot(textId, voiceId, roleId, volume, defaultPlaylist, repeatMode, prefix,
+                bitrateWarningReaded, announce, skipRatio, vcStatus, forceToEndQue, frameBufferDuration, stallPolicy);
+    }
+
+    SettingsSnapshot withVoiceId(long voiceId) {
+        return new SettingsSnapshot(textId, voiceId, roleId, volume, defaultPlaylist, repeatMode, prefix,
+                bitrateWarningReaded, announce, skipRatio, vcStatus, forceToEndQue, frameBufferDuration, stallPolicy);
+    }
+
+    SettingsSnapshot withRoleId(long roleId) {
+        return new SettingsSnapshot(textId, voiceId, roleId, volume, defaultPlaylist, repeatMode, prefix,
+                bitrateWarningReaded, announce, skipRatio, vcStatus, forceToEndQue, frameBufferDuration, stallPolicy);
+    }
+
+    SettingsSnapshot withVolume(int volume) {
+        return new SettingsSnapshot(textId, voiceId, roleId, volume, defaultPlaylist, repeatMode, prefix,
+                bitrateWarningReaded, announce, skipRatio, vcStatus, forceToEndQue, frameBufferDuration, stallPolicy);
+    }
+
+    SettingsSnapshot withDefaultPlaylist(String defaultPlaylist) {
+        return new SettingsSnapshot(textId, voiceId, roleId, volume, defaultPlaylist, repeatMode, prefix,
+                bitrateWarningReaded, announce, skipRatio, vcStatus, forceToEndQue, frameBufferDuration, stallPolicy);
+    }
+
+    SettingsSnapshot withRepeatMode(RepeatMode repeatMode) {
+        return new SettingsSnapshot(textId, voiceId, roleId, volume, defaultPlaylist, repeatMode, prefix,
+                bitrateWarningReaded, announce, skipRatio, vcStatus, forceToEndQue, frameBufferDuration, stallPolicy);
+    }
+
+    SettingsSnapshot withPrefix(String prefix) {
+        return new SettingsSnapshot(textId, voiceId, roleId, volume, defaultPlaylist, repeatMode, prefix,
+                bitrateWarningReaded, announce, skipRatio, vcStatus, forceToEndQue, frameBufferDuration, stallPolicy);
+    }
+
+    SettingsSnapshot withBitrateWarningReaded(boolean bitrateWarningReaded) {
+        return new SettingsSnapshot(textId, voiceId, roleId, volume, defaultPlaylist, repeatMode, prefix,
+                bitrateWarningReaded, announce, skipRatio, vcStatus, forceToEndQue, frameBufferDuration, stallPolicy);
+    }
+
+    SettingsSnapshot withAnnounce(int announce) {
+        return new SettingsSnapshot(textId, voiceId, roleId, volume, defaultPlaylist, repeatMode, prefix,
+                bitrateWarningReaded, announce, skipRatio, vcStatus, forceToEndQue, frameBufferDuration, stallPolicy);
+    }
+
+    SettingsSnapshot withSkipRatio(double skipRatio) {
+        return new SettingsSnapshot(textId, voiceId, roleId, volume, defaultPlaylist, repeatMode, prefix,
+                bitrateWarningReaded, announce, skipRatio, vcStatus, forceToEndQue, frameBufferDuration, stallPolicy);
+    }
+
+    SettingsSnapshot withVCStatus(boolean vcStatus) {
+        return new SettingsSnapshot(textId, voiceId, roleId, volume, defaultPlaylist, repeatMode, prefix,
+                bitrateWarningReaded, announce, skipRatio, vcStatus, forceToEndQue, frameBufferDuration, stallPolicy);
+    }
+
+    SettingsSnapshot withForceToEndQue(boolean forceToEndQue) {
+        return new SettingsSnapshot(textId, voiceId, roleId, volume, defaultPlaylist, repeatMode, prefix,
+                bitrateWarningReaded, announce, skipRatio, vcStatus, forceToEndQue, frameBufferDuration, stallPolicy);
+    }
+
+    SettingsSnapshot withFrameBufferDuration(int frameBufferDuration) {
+        return new SettingsSnapshot(textId, voiceId, roleId, volume, defaultPlaylist, repeatMode, prefix,
+                bitrateWarningReaded, announce, skipRatio, vcStatus, forceToEndQue, frameBufferDuration, stallPolicy);
+    }
+
+    SettingsSnapshot withStallPolicy(StallPolicy stallPolicy) {
+        return new SettingsSnapshot(textId, voiceId, roleId, volume, defaultPlaylist, repeatMode, prefix,
+                bitrateWarningReaded, announce, skipRatio, vcStatus, forceToEndQue, frameBufferDuration, stallPolicy);
+    }
+}
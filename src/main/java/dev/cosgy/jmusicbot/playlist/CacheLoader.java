@@ -19,15 +19,16 @@ package dev.cosgy.jmusicbot.playlist;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jagrosh.jmusicbot.BotConfig;
+import com.jagrosh.jmusicbot.audio.GuildQueue;
+import com.jagrosh.jmusicbot.audio.LoadSession;
 import com.jagrosh.jmusicbot.audio.QueuedTrack;
-import com.jagrosh.jmusicbot.audio.RequestMetadata;
-import com.jagrosh.jmusicbot.queue.FairQueue;
 import com.jagrosh.jmusicbot.utils.OtherUtil;
 import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
 import dev.cosgy.jmusicbot.util.Cache;
 import org.msgpack.jackson.dataformat.MessagePackFactory;
 import org.slf4j.Logger;
@@ -52,7 +53,7 @@ public class CacheLoader {
         this.config = config;
     }
 
-    public void Save(String guildId, FairQueue<QueuedTrack> queue) {
+    public void Save(String guildId, GuildQueue<QueuedTrack> queue) {
         List<QueuedTrack> list = queue.getList();
         if (list.isEmpty()) {
             return;
@@ -148,16 +149,15 @@ public class CacheLoader {
         List<dev.cosgy.jmusicbot.util.Cache> data = new ArrayList<>();
 
         for (QueuedTrack queuedTrack : queuedTracks) {
-            AudioTrack que = queuedTrack.getTrack();
-            queuedTrack.getTrack().getUserData();
+            AudioTrackInfo info = queuedTrack.getInfo();
             data.add(new Cache(
-                    que.getInfo().title,
-                    que.getInfo().author,
-                    que.getInfo().length,
-                    que.getInfo().identifier,
-                    que.getInfo().isStream,
-                    que.getInfo().uri,
-                    que.getUserData(RequestMetadata.class).getOwner()));
+                    info.title,
+                    info.author,
+                    info.length,
+                    info.identifier,
+                    info.isStream,
+                    info.uri,
+                    queuedTrack.getIdentifier()));
         }
 
         ObjectMapper objectMapper = new ObjectMapper(new MessagePackFactory());
@@ -209,69 +209,67 @@ public class CacheLoader {
             this.shuffle = shuffle;
         }
 
-        public void loadTracks(AudioPlayerManager manager, Consumer<AudioTrack> consumer, Runnable callback) {
+        public void loadTracks(AudioPlayerManager manager, LoadSession session, Consumer<AudioTrack> consumer, Runnable callback) {
+            loadTrackBatches(manager, session, batch -> batch.forEach(consumer), callback);
+        }
+
+        /**
+         * 楽曲を {@link OrderedResolver} で同時にいくつか読み込み、キャッシュの順番のまま {@link TrackBatcher} でまとめて
+         * {@code consumer} に渡します。
+         */
+        public void loadTrackBatches(AudioPlayerManager manager, LoadSession session, Consumer<List<AudioTrack>> consumer, Runnable callback) {
             if (loaded)
                 return;
             loaded = true;
-            for (int i = 0; i < items.size(); i++) {
-                boolean last = i + 1 == items.size();
-                int index = i;
-                manager.loadItemOrdered("キャッシュ", items.get(i), new AudioLoadResultHandler() {
-                    private void done() {
-                        if (last) {
-                            if (callback != null)
-                                callback.run();
-                        }
-                    }
-
-                    @Override
-                    public void trackLoaded(AudioTrack at) {
-                        if (config.isTooLong(at))
-                            errors.add(new CacheLoadError(index, items.get(index), "このトラックは許可された最大長を超えています。"));
-                        else {
-                            at.setUserData(0L);
-                            tracks.add(at);
-                            consumer.accept(at);
-                        }
-                        done();
-                    }
-
-                    @Override
-                    public void playlistLoaded(AudioPlaylist ap) {
-                        if (ap.isSearchResult()) {
-                            trackLoaded(ap.getTracks().get(0));
-                        } else if (ap.getSelectedTrack() != null) {
-                            trackLoaded(ap.getSelectedTrack());
-                        } else {
-                            List<AudioTrack> loaded = new ArrayList<>(ap.getTracks());
-                            if (shuffle)
-                                for (int first = 0; first < loaded.size(); first++) {
-                                    int second = (int) (Math.random() * loaded.size());
-                                    AudioTrack tmp = loaded.get(first);
-                                    loaded.set(first, loaded.get(second));
-                                    loaded.set(second, tmp);
-                                }
-                            loaded.removeIf(config::isTooLong);
-                            loaded.forEach(at -> at.setUserData(0L));
-                            tracks.addAll(loaded);
-                            loaded.forEach(consumer);
-                        }
-                        done();
+            TrackBatcher batcher = new TrackBatcher(consumer);
+            OrderedResolver.resolve(manager, session, items, config.getPlaylistLoadConcurrency(), index -> new AudioLoadResultHandler() {
+                @Override
+                public void trackLoaded(AudioTrack at) {
+                    if (config.isTooLong(at))
+                        errors.add(new CacheLoadError(index, items.get(index), "このトラックは許可された最大長を超えています。"));
+                    else {
+                        at.setUserData(0L);
+                        tracks.add(at);
+                        batcher.add(at);
                     }
-
-                    @Override
-                    public void noMatches() {
-                        errors.add(new CacheLoadError(index, items.get(index), "一致するものが見つかりませんでした。"));
-                        done();
+                }
+
+                @Override
+                public void playlistLoaded(AudioPlaylist ap) {
+                    if (ap.isSearchResult()) {
+                        trackLoaded(ap.getTracks().get(0));
+                    } else if (ap.getSelectedTrack() != null) {
+                        trackLoaded(ap.getSelectedTrack());
+                    } else {
+                        List<AudioTrack> loaded = new ArrayList<>(ap.getTracks());
+                        if (shuffle)
+                            for (int first = 0; first < loaded.size(); first++) {
+                                int second = (int) (Math.random() * loaded.size());
+                                AudioTrack tmp = loaded.get(first);
+                                loaded.set(first, loaded.get(second));
+                                loaded.set(second, tmp);
+                            }
+                        loaded.removeIf(config::isTooLong);
+                        loaded.forEach(at -> at.setUserData(0L));
+                        tracks.addAll(loaded);
+                        batcher.addAll(loaded);
                     }
-
-                    @Override
-                    public void loadFailed(FriendlyException fe) {
-                        errors.add(new CacheLoadError(index, items.get(index), "トラックを読み込めませんでした: " + fe.getLocalizedMessage()));
-                        done();
-                    }
-                });
-            }
+                }
+
+                @Override
+                public void noMatches() {
+                    errors.add(new CacheLoadError(index, items.get(index), "一致するものが見つかりませんでした。"));
+                }
+
+                @Override
+                public void loadFailed(FriendlyException fe) {
+                    errors.add(new CacheLoadError(index, items.get(index), "トラックを読み込めませんでした: " + fe.getLocalizedMessage()));
+                }
+            }, () -> {
+                batcher.flush();
+                if (callback != null)
+                    callback.run();
+            });
         }
 
         public List<String> getItems() {
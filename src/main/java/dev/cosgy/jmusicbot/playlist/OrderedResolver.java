@@ -0,0 +1,311 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package dev.cosgy.jmusicbot.playlist;
+
+import com.jagrosh.jmusicbot.audio.LoadScheduler;
+import com.jagrosh.jmusicbot.audio.LoadSession;
+import com.jagrosh.jmusicbot.audio.PlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * 再生リストの項目を同時にいくつか読み込み、結果をファイルの順番のまま渡します。
+ * <p>
+ * 同時に読み込むのは最大 {@code concurrency} 件です。先に読み込みが終わった項目の結果は、
+ * それより前の項目がすべて渡されるまで保持しておきます。保持する件数は {@code concurrency} の {@link #WINDOW_FACTOR} 倍までで、
+ * それを超える場合は前の項目が終わるまで次の項目の読み込みを始めません。
+ * <p>
+ * 結果は読み込みが終わったスレッドから、1件ずつ順番に {@code handlers} が返すハンドラーに渡されます。
+ * ハンドラーはロックを持たずに呼び出し、同時に呼び出すのは1つのスレッドだけです。
+ * 最初の項目は読み込みが終わり次第渡されるため、残りの項目を待たずに再生を始めることができます。
+ * <p>
+ * {@link PlayerManager} の場合は、項目を {@link PlayerManager#loadItemCached} で {@link LoadScheduler} の一括の列から読み込みます。
+ * {@link TrackCache} に保存された結果の復元もその列のスレッドで行われるため、呼び出したスレッドで結果を渡すことはありません。
+ * <p>
+ * {@link LoadSession} が取り消された場合は、それ以降の項目を読み込まず、読み込み中だった項目の結果も渡さずに終わります。
+ * 期限切れの場合も同様ですが、それまでに渡した結果を使えるように {@code finished} を呼び出します。
+ * 一括の列で順番を待っている間に取り消し・期限切れになった項目は {@link LoadScheduler.DroppedException} で返されるため、
+ * 読み込み中の項目がすべて列に残っていても、最初に返された時点で終わります。
+ * 渡さなかった項目の数は、{@link LoadScheduler} が数えた項目を除いて {@link LoadScheduler#recordDropped(int)} に記録します。
+ *
+ * @author Cosgy Dev
+ */
+public final class OrderedResolver {
+    private static final Logger LOG = LoggerFactory.getLogger(OrderedResolver.class);
+    private static final int WINDOW_FACTOR = 4;
+
+    private final AudioPlayerManager manager;
+    private final LoadSession session;
+    private final LoadScheduler scheduler;
+    private final List<String> identifiers;
+    private final int concurrency;
+    private final IntFunction<AudioLoadResultHandler> handlers;
+    private final Runnable finished;
+    // 読み込みが終わり、まだ渡していない結果。項目の番号を長さで割った余りの位置に置く
+    private final Result[] window;
+    private int started;
+    private int delivered;
+    private int running;
+    // 取り消し・期限切れで途中で終わった
+    private boolean stopped;
+    // 結果を渡しているスレッドがある間は true。その間に届いた結果も、そのスレッドが続けて渡す
+    private boolean delivering;
+    // 結果を渡している間に期限切れになった場合、渡し終えたスレッドが finished を呼び出す
+    private boolean finishAfterDelivery;
+
+    private OrderedResolver(AudioPlayerManager manager, LoadSession session, List<String> identifiers, int concurrency,
+                            IntFunction<AudioLoadResultHandler> handlers, Runnable finished) {
+        this.manager = manager;
+        this.session = session;
+        this.scheduler = manager instanceof PlayerManager ? ((PlayerManager) manager).getLoadScheduler() : null;
+        this.identifiers = identifiers;
+        this.concurrency = Math.max(1, concurrency);
+        this.handlers = handlers;
+        this.finished = finished;
+        this.window = new Result[this.concurrency * WINDOW_FACTOR];
+    }
+
+    /**
+     * 項目の読み込みを始めます。読み込みの結果は別のスレッドから渡されます。
+     *
+     * @param session     読み込みを依頼したギルドの処理。取り消されるか期限切れになると、読み込みを止めます
+     * @param identifiers 読み込む項目
+     * @param concurrency 同時に読み込む最大の件数。1 の場合は1件ずつ読み込みます
+     * @param handlers    項目の番号を受け取り、その項目の結果を渡すハンドラーを返します
+     * @param finished    すべての結果を渡した後か、期限切れで打ち切った後に呼び出されます。{@code null} の場合は何もしません
+     */
+    public static void resolve(AudioPlayerManager manager, LoadSession session, List<String> identifiers, int concurrency,
+                               IntFunction<AudioLoadResultHandler> handlers, Runnable finished) {
+        OrderedResolver resolver = new OrderedResolver(manager, session, identifiers, concurrency, handlers, finished);
+        if (identifiers.isEmpty())
+            resolver.finish();
+        else
+            resolver.fill();
+    }
+
+    /**
+     * 同時に読み込む件数と保持する件数の範囲で、次の項目の読み込みを始めます。
+     */
+    private void fill() {
+        while (true) {
+            int index;
+            boolean expired = false;
+            synchronized (this) {
+                if (stopped)
+                    return;
+                if (session.isActive()) {
+                    if (started >= identifiers.size() || running >= concurrency || started - delivered >= window.length)
+                        return;
+                    index = started++;
+                    running++;
+                } else {
+                    index = -1;
+                    expired = halt() == State.FINISHED;
+                }
+            }
+            if (index < 0) {
+                if (expired)
+                    finish();
+                return;
+            }
+            Result result = new Result(index);
+            try {
+                if (manager instanceof PlayerManager)
+                    ((PlayerManager) manager).loadItemCached(session, identifiers.get(index), result);
+                else
+                    manager.loadItem(identifiers.get(index), result);
+            } catch (RuntimeException e) {
+                // 読み込みを依頼できなかった項目は失敗として渡し、このスレッドで続けて次の項目に進む
+                LOG.warn("再生リストの項目の読み込みを開始できませんでした: {}", identifiers.get(index), e);
+                result.exception = new FriendlyException("読み込みを開始できませんでした。", FriendlyException.Severity.FAULT, e);
+                State state = store(result);
+                if (state == State.FINISHED)
+                    finish();
+                if (state != State.RUNNING)
+                    return;
+            }
+        }
+    }
+
+    private void complete(Result result) {
+        State state = store(result);
+        if (state == State.FINISHED)
+            finish();
+        else if (state == State.RUNNING)
+            fill();
+    }
+
+    /**
+     * 結果を保持し、順番が来た結果を渡します。結果はロックの外で渡し、他のスレッドが渡している間はそのスレッドに任せます。
+     *
+     * @return すべての結果を渡し終えた場合と、期限切れで打ち切った場合は {@link State#FINISHED}
+     */
+    private State store(Result result) {
+        List<Result> ready;
+        synchronized (this) {
+            if (stopped || !session.isActive()) {
+                // この項目は読み込み中として数え、stop() で数える項目に含めない
+                State state = stopped ? State.STOPPED : halt();
+                running--;
+                if (!(result.exception instanceof LoadScheduler.DroppedException))
+                    dropped(1);
+                return state;
+            }
+            running--;
+            window[result.index % window.length] = result;
+            if (delivering)
+                return State.RUNNING;
+            delivering = true;
+            ready = takeReady();
+        }
+        while (true) {
+            for (Result next : ready)
+                deliver(next);
+            synchronized (this) {
+                ready = takeReady();
+                if (!ready.isEmpty())
+                    continue;
+                delivering = false;
+                if (stopped)
+                    return finishAfterDelivery ? State.FINISHED : State.STOPPED;
+                // 全件が渡されるのは、最後の結果を渡したスレッドの中だけ
+                return delivered == identifiers.size() ? State.FINISHED : State.RUNNING;
+            }
+        }
+    }
+
+    /**
+     * 順番が来た結果を取り出します。
+     */
+    private List<Result> takeReady() {
+        List<Result> ready = new ArrayList<>();
+        while (delivered < identifiers.size()) {
+            int slot = delivered % window.length;
+            Result next = window[slot];
+            if (next == null)
+                break;
+            window[slot] = null;
+            ready.add(next);
+            delivered++;
+        }
+        return ready;
+    }
+
+    /**
+     * {@link #stop()} を呼び出し、{@code finished} を呼び出す必要があるかを返します。
+     * 他のスレッドが結果を渡している間は、そのスレッドが渡し終えてから呼び出します。
+     */
+    private State halt() {
+        boolean expired = stop();
+        if (delivering) {
+            finishAfterDelivery = expired;
+            return State.STOPPED;
+        }
+        return expired ? State.FINISHED : State.STOPPED;
+    }
+
+    /**
+     * 読み込みを止め、まだ渡していない項目のうち読み込み中でない項目を捨てます。読み込み中の項目は、結果が届いたときに捨てます。
+     *
+     * @return 期限切れのため {@code finished} を呼び出す場合は {@code true}
+     */
+    private boolean stop() {
+        stopped = true;
+        dropped(identifiers.size() - delivered - running);
+        Arrays.fill(window, null);
+        return !session.isCancelled();
+    }
+
+    private void dropped(int count) {
+        if (scheduler != null && count > 0)
+            scheduler.recordDropped(count);
+    }
+
+    private void deliver(Result result) {
+        try {
+            result.replay(handlers.apply(result.index));
+        } catch (RuntimeException e) {
+            LOG.warn("再生リストの項目の処理中にエラーが発生しました: {}", identifiers.get(result.index), e);
+        }
+    }
+
+    private void finish() {
+        if (finished != null)
+            finished.run();
+    }
+
+    private enum State {
+        RUNNING, FINISHED, STOPPED
+    }
+
+    /**
+     * 1件の読み込み結果を保持し、順番が来たときに本来のハンドラーへ渡し直します。
+     */
+    private final class Result implements AudioLoadResultHandler {
+        private final int index;
+        private AudioTrack track;
+        private AudioPlaylist playlist;
+        private FriendlyException exception;
+
+        private Result(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void trackLoaded(AudioTrack track) {
+            this.track = track;
+            complete(this);
+        }
+
+        @Override
+        public void playlistLoaded(AudioPlaylist playlist) {
+            this.playlist = playlist;
+            complete(this);
+        }
+
+        @Override
+        public void noMatches() {
+            complete(this);
+        }
+
+        @Override
+        public void loadFailed(FriendlyException exception) {
+            this.exception = exception;
+            complete(this);
+        }
+
+        private void replay(AudioLoadResultHandler handler) {
+            if (track != null)
+                handler.trackLoaded(track);
+            else if (playlist != null)
+                handler.playlistLoaded(playlist);
+            else if (exception != null)
+                handler.loadFailed(exception);
+            else
+                handler.noMatches();
+        }
+    }
+}
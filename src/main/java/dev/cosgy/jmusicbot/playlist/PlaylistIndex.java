@@ -0,0 +1,268 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package dev.cosgy.jmusicbot.playlist;
+
+import com.jagrosh.jmusicbot.utils.OtherUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 再生リストのフォルダの内容をメモリに保持します。
+ * <p>
+ * サーバー・ユーザーごとのフォルダ(公開リストはフォルダ全体)を1つの単位とし、初めて使われたときに一度だけ
+ * フォルダ内の再生リストの名前を読み込みます。再生リストの内容は、初めて読み込まれたときに解析して保持します。
+ * <p>
+ * 読み込んだフォルダは {@link WatchService} で監視し、ファイルが追加・変更・削除された場合はそのフォルダの内容を破棄して、
+ * 次に使われたときに読み込み直します。Botからの作成・変更・削除の場合も同様に破棄します。
+ *
+ * @author Cosgy Dev
+ */
+public class PlaylistIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(PlaylistIndex.class);
+    private static final String EXTENSION = ".txt";
+
+    private final Path root;
+    private final boolean scoped;
+    private final Map<String, Scope> scopes = new ConcurrentHashMap<>();
+    private final Map<WatchKey, String> keys = new ConcurrentHashMap<>();
+    // 読み込み中に破棄されたかどうかを判定するため、破棄するたびに増やす
+    private final AtomicLong invalidations = new AtomicLong();
+    private final WatchService watcher;
+
+    /**
+     * @param folder 再生リストのフォルダ
+     * @param scoped サーバー・ユーザーごとのフォルダに分かれている場合は {@code true}
+     */
+    public PlaylistIndex(String folder, boolean scoped) {
+        this.root = OtherUtil.getPath(folder);
+        this.scoped = scoped;
+        this.watcher = startWatcher();
+    }
+
+    private WatchService startWatcher() {
+        try {
+            WatchService service = root.getFileSystem().newWatchService();
+            Thread thread = new Thread(() -> watch(service), "playlist-watcher-" + root.getFileName());
+            thread.setDaemon(true);
+            thread.start();
+            return service;
+        } catch (IOException | UnsupportedOperationException e) {
+            LOG.warn("{} の変更を監視できません。Bot以外から変更した再生リストは再起動するまで反映されません: {}", root, e.toString());
+            return null;
+        }
+    }
+
+    private void watch(WatchService service) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            String scope = keys.get(key);
+            boolean overflow = false;
+            for (WatchEvent<?> event : key.pollEvents())
+                overflow |= event.kind() == StandardWatchEventKinds.OVERFLOW;
+            if (overflow)
+                invalidateAll();
+            else if (scope != null)
+                invalidate(scope);
+            // フォルダが削除された場合は監視も終わる
+            if (!key.reset()) {
+                keys.remove(key);
+                if (scope != null)
+                    invalidate(scope);
+            }
+        }
+    }
+
+    /**
+     * @return フォルダ内の再生リストの名前。フォルダがない場合は {@code null}
+     */
+    public List<String> getNames(String scope) {
+        Scope s = scope(scope);
+        return s == null ? null : s.names;
+    }
+
+    /**
+     * @return 再生リストの内容。フォルダまたは再生リストがない場合は {@code null}
+     */
+    public Items getItems(String scope, String name) throws IOException {
+        Scope s = scope(scope);
+        if (s == null || !s.nameSet.contains(name))
+            return null;
+        Items items = s.items.get(name);
+        if (items == null) {
+            long version = invalidations.get();
+            try (BufferedReader reader = Files.newBufferedReader(s.dir.resolve(name + EXTENSION))) {
+                items = Items.parse(reader);
+            }
+            // 読み込み中に変更された場合は、次回も読み込み直す
+            if (invalidations.get() == version)
+                s.items.put(name, items);
+        }
+        return items;
+    }
+
+    /**
+     * @return 再生リストのファイル
+     */
+    public Path getPath(String scope, String name) {
+        return dir(scope).resolve(name + EXTENSION);
+    }
+
+    /**
+     * フォルダの内容を破棄し、次に使われたときに読み込み直します。
+     * Botから再生リストを作成・変更・削除した場合に呼び出します。
+     */
+    public void invalidate(String scope) {
+        invalidations.incrementAndGet();
+        scopes.remove(scope);
+    }
+
+    private void invalidateAll() {
+        invalidations.incrementAndGet();
+        scopes.clear();
+    }
+
+    private Path dir(String scope) {
+        return scoped ? root.resolve(scope) : root;
+    }
+
+    private Scope scope(String scope) {
+        Scope s = scopes.get(scope);
+        if (s != null)
+            return s;
+        Path dir = dir(scope);
+        if (!Files.isDirectory(dir))
+            return null;
+        long version = invalidations.get();
+        // 読み込んでいる間の変更も検知できるように、先に監視を始める
+        register(dir, scope);
+        try {
+            s = Scope.load(dir);
+        } catch (IOException e) {
+            LOG.warn("再生リストのフォルダを読み込めませんでした: {} {}", dir, e.toString());
+            return null;
+        }
+        scopes.put(scope, s);
+        if (invalidations.get() != version)
+            scopes.remove(scope, s);
+        return s;
+    }
+
+    private void register(Path dir, String scope) {
+        if (watcher == null)
+            return;
+        try {
+            WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            keys.put(key, scope);
+        } catch (IOException e) {
+            LOG.warn("再生リストのフォルダを監視できませんでした: {} {}", dir, e.toString());
+        }
+    }
+
+    /**
+     * 1つのフォルダ内の再生リストの名前と、読み込み済みの内容です。
+     */
+    private static final class Scope {
+        private final Path dir;
+        private final List<String> names;
+        private final Set<String> nameSet;
+        private final Map<String, Items> items = new ConcurrentHashMap<>();
+
+        private Scope(Path dir, List<String> names) {
+            this.dir = dir;
+            this.names = Collections.unmodifiableList(names);
+            this.nameSet = Set.copyOf(names);
+        }
+
+        private static Scope load(Path dir) throws IOException {
+            List<String> names = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + EXTENSION)) {
+                for (Path file : stream) {
+                    String fileName = file.getFileName().toString();
+                    names.add(fileName.substring(0, fileName.length() - EXTENSION.length()));
+                }
+            }
+            return new Scope(dir, names);
+        }
+    }
+
+    /**
+     * 再生リストのファイルを解析した内容です。
+     */
+    public static final class Items {
+        private final List<String> items;
+        private final boolean shuffle;
+
+        private Items(List<String> items, boolean shuffle) {
+            this.items = Collections.unmodifiableList(items);
+            this.shuffle = shuffle;
+        }
+
+        /**
+         * 空の行を除き、{@code #} または {@code //} で始まる行はコメントとして扱います。
+         * {@code #shuffle} または {@code //shuffle} の行がある場合は、読み込むたびに順番を入れ替えます。
+         * ファイル全体を読み込まずに、1行ずつ読みながら解析します。
+         */
+        static Items parse(BufferedReader reader) throws IOException {
+            boolean shuffle = false;
+            List<String> list = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String s = line.trim();
+                if (s.isEmpty())
+                    continue;
+                if (s.startsWith("#") || s.startsWith("//")) {
+                    s = s.replaceAll("\\s+", "");
+                    if (s.equalsIgnoreCase("#shuffle") || s.equalsIgnoreCase("//shuffle"))
+                        shuffle = true;
+                } else
+                    list.add(s);
+            }
+            return new Items(list, shuffle);
+        }
+
+        public List<String> getItems() {
+            return items;
+        }
+
+        public boolean isShuffle() {
+            return shuffle;
+        }
+    }
+}
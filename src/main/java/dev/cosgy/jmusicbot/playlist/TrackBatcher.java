@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package dev.cosgy.jmusicbot.playlist;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * プレイリストの読み込み中に見つかった楽曲をためておき、まとめて渡します。
+ * <p>
+ * すぐに再生を始められるように最初の楽曲だけはその場で渡し、それ以降は {@link #BATCH_SIZE} 曲ごとか、
+ * {@link #flush()} が呼ばれたときに、見つかった順番のまま渡します。
+ *
+ * @author Cosgy Dev
+ */
+public class TrackBatcher {
+    public static final int BATCH_SIZE = 100;
+
+    private final Consumer<List<AudioTrack>> consumer;
+    private List<AudioTrack> pending = new ArrayList<>();
+    private boolean flushed = false;
+
+    public TrackBatcher(Consumer<List<AudioTrack>> consumer) {
+        this.consumer = consumer;
+    }
+
+    public synchronized void add(AudioTrack track) {
+        pending.add(track);
+        flushIfNeeded();
+    }
+
+    public synchronized void addAll(List<AudioTrack> tracks) {
+        pending.addAll(tracks);
+        flushIfNeeded();
+    }
+
+    /**
+     * ためている楽曲をすべて渡します。
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty())
+            return;
+        List<AudioTrack> batch = pending;
+        pending = new ArrayList<>();
+        flushed = true;
+        consumer.accept(batch);
+    }
+
+    private void flushIfNeeded() {
+        if (!flushed || pending.size() >= BATCH_SIZE)
+            flush();
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package dev.cosgy.jmusicbot.playlist;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.DecodedTrackHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UTFDataFormatException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 再生リストの項目(URLや検索語)を読み込んだ結果を、エンコードした楽曲のバイト列としてファイルに保存します。
+ * <p>
+ * 同じ項目をもう一度読み込む場合は、YouTube などに問い合わせずに保存した楽曲を復元します。
+ * 保存してから {@code ttlMillis} が経過した項目は使用せず、もう一度読み込みます。
+ * 合計の大きさが {@code maxBytes} を超えた場合は、最も長く使われていない項目から削除します。
+ * <p>
+ * 内容はメモリに保持し、{@link #save()} で1つのファイルに書き出します。ファイルには使われていない順に項目を並べるため、
+ * 読み込み直した後も削除する順番が変わりません。配信中の楽曲や、エンコードできない楽曲は保存しません。
+ *
+ * @author Cosgy Dev
+ */
+public class TrackCache {
+    private static final Logger LOG = LoggerFactory.getLogger("TrackCache");
+    private static final int MAGIC = 0x4A4D5443;
+    private static final int VERSION = 1;
+    // 項目の名前などの文字列を除いた、楽曲のバイト列以外に使う大きさの目安
+    private static final int ENTRY_OVERHEAD = 64;
+    // ファイル上の1項目の最小の大きさ(空の名前・期限・種類・楽曲数)
+    private static final int MIN_RECORD_BYTES = 2 + 8 + 1 + 4;
+    // これより長い項目は保存しない(ファイルに書き出せる文字列の長さに制限があるため)
+    private static final int MAX_IDENTIFIER_LENGTH = 2000;
+
+    private final AudioPlayerManager manager;
+    private final Path path;
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long totalBytes;
+    private boolean dirty;
+
+    /**
+     * ファイルがあれば、期限切れでない項目を読み込みます。
+     *
+     * @param manager   楽曲のエンコードと復元に使用するマネージャー
+     * @param path      保存するファイル
+     * @param maxBytes  保存する楽曲の合計の大きさの上限
+     * @param ttlMillis 保存した結果を使用する期間
+     */
+    public TrackCache(AudioPlayerManager manager, Path path, long maxBytes, long ttlMillis) {
+        this.manager = manager;
+        this.path = path;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+        load();
+    }
+
+    /**
+     * 保存した結果があれば、楽曲を復元して {@code handler} に渡します。
+     *
+     * @return 保存した結果を渡した場合は {@code true}。{@code false} の場合は通常通り読み込んでください
+     */
+    public boolean replay(String identifier, AudioLoadResultHandler handler) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(identifier);
+            if (entry != null && entry.expires < System.currentTimeMillis()) {
+                remove(identifier);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return false;
+        }
+        List<AudioTrack> tracks = new ArrayList<>(entry.tracks.length);
+        for (byte[] encoded : entry.tracks) {
+            AudioTrack track = decode(encoded);
+            if (track == null) {
+                // ソースの設定が変わったなどで復元できない場合は、読み込み直す
+                synchronized (this) {
+                    if (entries.get(identifier) == entry)
+                        remove(identifier);
+                }
+                misses.incrementAndGet();
+                return false;
+            }
+            tracks.add(track);
+        }
+        hits.incrementAndGet();
+        if (entry.name == null)
+            handler.trackLoaded(tracks.get(0));
+        else
+            handler.playlistLoaded(new BasicAudioPlaylist(entry.name, tracks, null, false));
+        return true;
+    }
+
+    /**
+     * 読み込んだ楽曲を保存します。
+     */
+    public void put(String identifier, AudioTrack track) {
+        byte[] encoded = encode(track);
+        if (encoded != null)
+            put(identifier, new Entry(identifier, null, new byte[][]{encoded}, System.currentTimeMillis() + ttlMillis));
+    }
+
+    /**
+     * 読み込んだプレイリストを保存します。検索結果の場合は最初の楽曲、選択された楽曲がある場合はその楽曲だけを保存します。
+     */
+    public void put(String identifier, AudioPlaylist playlist) {
+        if (playlist.isSearchResult() && !playlist.getTracks().isEmpty()) {
+            put(identifier, playlist.getTracks().get(0));
+            return;
+        }
+        if (playlist.getSelectedTrack() != null) {
+            put(identifier, playlist.getSelectedTrack());
+            return;
+        }
+        List<AudioTrack> tracks = playlist.getTracks();
+        if (tracks.isEmpty())
+            return;
+        byte[][] encoded = new byte[tracks.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = encode(tracks.get(i));
+            if (encoded[i] == null)
+                return;
+        }
+        put(identifier, new Entry(identifier, playlist.getName(), encoded, System.currentTimeMillis() + ttlMillis));
+    }
+
+    private synchronized void put(String identifier, Entry entry) {
+        if (entry.size > maxBytes || identifier.length() > MAX_IDENTIFIER_LENGTH)
+            return;
+        remove(identifier);
+        entries.put(identifier, entry);
+        totalBytes += entry.size;
+        evict();
+        dirty = true;
+    }
+
+    private void remove(String identifier) {
+        Entry old = entries.remove(identifier);
+        if (old != null) {
+            totalBytes -= old.size;
+            dirty = true;
+        }
+    }
+
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            totalBytes -= it.next().size;
+            it.remove();
+        }
+    }
+
+    private byte[] encode(AudioTrack track) {
+        if (track.getInfo().isStream || track.getSourceManager() == null || !track.getSourceManager().isTrackEncodable(track))
+            return null;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+            manager.encodeTrack(new MessageOutput(out), track);
+            return out.toByteArray();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private AudioTrack decode(byte[] encoded) {
+        try {
+            DecodedTrackHolder holder = manager.decodeTrack(new MessageInput(new ByteArrayInputStream(encoded)));
+            return holder == null ? null : holder.decodedTrack;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 変更があれば、一時ファイルに書き出してから置き換えます。
+     */
+    public void save() {
+        List<Map.Entry<String, Entry>> snapshot;
+        synchronized (this) {
+            if (!dirty)
+                return;
+            dirty = false;
+            snapshot = new ArrayList<>(entries.entrySet());
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        long now = System.currentTimeMillis();
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Entry> e : snapshot) {
+                    Entry entry = e.getValue();
+                    out.writeUTF(e.getKey());
+                    // 期限切れの項目もそのまま書き出し、読み込むときに捨てる
+                    out.writeLong(entry.expires);
+                    out.writeBoolean(entry.name != null);
+                    if (entry.name != null)
+                        out.writeUTF(entry.name);
+                    out.writeInt(entry.tracks.length);
+                    for (byte[] track : entry.tracks) {
+                        out.writeInt(track.length);
+                        out.write(track);
+                    }
+                }
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            LOG.debug("{} 件の読み込み結果を保存しました ({} ms)", snapshot.size(), System.currentTimeMillis() - now);
+        } catch (IOException e) {
+            synchronized (this) {
+                dirty = true;
+            }
+            LOG.warn("読み込み結果のキャッシュを保存できませんでした: {}", e.toString());
+        }
+    }
+
+    /**
+     * ファイルから項目を読み込みます。件数や長さはファイルの残りの大きさと照らし合わせ、
+     * 壊れている・途中で切れている場合は読み込んだ項目を捨ててファイルを削除します。
+     */
+    private void load() {
+        long now = System.currentTimeMillis();
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            long fileSize = Files.size(path);
+            DataInputStream in = new DataInputStream(counter);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.warn("読み込み結果のキャッシュの形式が異なるため、使用しません: {}", path);
+                return;
+            }
+            int count = checkSize(in.readInt(), (fileSize - counter.position) / MIN_RECORD_BYTES);
+            for (int i = 0; i < count; i++) {
+                String identifier = in.readUTF();
+                long expires = in.readLong();
+                String name = in.readBoolean() ? in.readUTF() : null;
+                byte[][] tracks = new byte[checkSize(in.readInt(), (fileSize - counter.position) / 4)][];
+                for (int j = 0; j < tracks.length; j++) {
+                    tracks[j] = new byte[checkSize(in.readInt(), fileSize - counter.position)];
+                    in.readFully(tracks[j]);
+                }
+                if (expires >= now)
+                    put(identifier, new Entry(identifier, name, tracks, expires));
+            }
+            synchronized (this) {
+                dirty = false;
+            }
+            LOG.info("{} 件の読み込み結果をキャッシュから読み込みました", entries.size());
+        } catch (NoSuchFileException ignored) {
+        } catch (EOFException | UTFDataFormatException | CorruptCacheException e) {
+            synchronized (this) {
+                entries.clear();
+                totalBytes = 0;
+                dirty = false;
+            }
+            LOG.warn("読み込み結果のキャッシュが壊れているため、削除します: {}", e.toString());
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ex) {
+                LOG.warn("読み込み結果のキャッシュを削除できませんでした: {}", ex.toString());
+            }
+        } catch (IOException e) {
+            LOG.warn("読み込み結果のキャッシュを読み込めませんでした: {}", e.toString());
+        }
+    }
+
+    /**
+     * ファイルから読んだ件数や長さが、0 以上 {@code max} 以下であることを確認します。
+     */
+    private static int checkSize(int value, long max) throws CorruptCacheException {
+        if (value < 0 || value > max)
+            throw new CorruptCacheException("不正な長さ " + value + " (最大 " + max + ")");
+        return value;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * 1つの項目の読み込み結果です。{@code name} が {@code null} の場合は1曲、それ以外はプレイリストです。
+     */
+    private static final class Entry {
+        private final String name;
+        private final byte[][] tracks;
+        private final long expires;
+        private final long size;
+
+        private Entry(String identifier, String name, byte[][] tracks, long expires) {
+            this.name = name;
+            this.tracks = tracks;
+            this.expires = expires;
+            // 項目の名前と再生リストの名前も、1文字2バイトとして大きさに含める
+            long size = ENTRY_OVERHEAD + 2L * identifier.length() + (name != null ? 2L * name.length() : 0);
+            for (byte[] track : tracks)
+                size += track.length;
+            this.size = size;
+        }
+    }
+
+    /**
+     * 読み込んだバイト数を数えます。
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long position;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                position++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            position += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * ファイルの内容が壊れていることを表します。
+     */
+    private static final class CorruptCacheException extends IOException {
+        private CorruptCacheException(String message) {
+            super(message);
+        }
+    }
+}
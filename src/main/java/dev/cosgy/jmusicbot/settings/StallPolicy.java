@@ -0,0 +1,17 @@
+package dev.cosgy.jmusicbot.settings;
+
+/**
+ * 再生が止まった(フレームが届かなくなった)トラックをどう扱うか
+ *
+ * @author Cosgy Dev
+ */
+public enum StallPolicy {
+    /**
+     * 同じトラックを止まった位置から再生し直す
+     */
+    RETRY,
+    /**
+     * 次の曲へスキップする
+     */
+    SKIP
+}
@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2024 Cosgy Dev (info@cosgy.dev).
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package dev.cosgy.jmusicbot.slashcommands.admin;
+
+import com.jagrosh.jdautilities.command.CommandEvent;
+import com.jagrosh.jdautilities.command.SlashCommandEvent;
+import com.jagrosh.jmusicbot.Bot;
+import com.jagrosh.jmusicbot.settings.Settings;
+import dev.cosgy.jmusicbot.settings.StallPolicy;
+import dev.cosgy.jmusicbot.slashcommands.AdminCommand;
+import net.dv8tion.jda.api.interactions.commands.OptionType;
+import net.dv8tion.jda.api.interactions.commands.build.OptionData;
+
+import java.util.List;
+import java.util.Objects;
+
+public class StallpolicyCmd extends AdminCommand {
+    public StallpolicyCmd(Bot bot) {
+        this.name = "stallpolicy";
+        this.help = "再生が止まった曲を自動で再生し直すか、スキップするかを設定します。";
+        this.arguments = "<retry|skip>";
+        this.aliases = bot.getConfig().getAliases(this.name);
+
+        this.options = List.of(
+                new OptionData(OptionType.STRING, "policy", "再生し直す:retry スキップ:skip", true)
+                        .addChoice("retry", "RETRY")
+                        .addChoice("skip", "SKIP")
+        );
+    }
+
+    @Override
+    protected void execute(SlashCommandEvent event) {
+        if (checkAdminPermission(event.getClient(), event)) {
+            event.reply(event.getClient().getWarning() + "権限がないため実行できません。").queue();
+            return;
+        }
+
+        StallPolicy policy = StallPolicy.valueOf(Objects.requireNonNull(event.getOption("policy")).getAsString());
+        Settings s = event.getClient().getSettingsFor(event.getGuild());
+        s.setStallPolicy(policy);
+
+        event.reply(event.getClient().getSuccess() + describe(policy)).queue();
+    }
+
+    @Override
+    protected void execute(CommandEvent event) {
+        Settings s = event.getClient().getSettingsFor(event.getGuild());
+
+        if (event.getArgs().toLowerCase().matches("(retry|再生)")) {
+            s.setStallPolicy(StallPolicy.RETRY);
+            event.reply(event.getClient().getSuccess() + describe(StallPolicy.RETRY));
+        } else if (event.getArgs().toLowerCase().matches("(skip|スキップ)")) {
+            s.setStallPolicy(StallPolicy.SKIP);
+            event.reply(event.getClient().getSuccess() + describe(StallPolicy.SKIP));
+        } else {
+            event.reply(event.getClient().getError() + "retryかskipを含めてください。");
+        }
+    }
+
+    private static String describe(StallPolicy policy) {
+        return policy == StallPolicy.RETRY
+                ? "再生が止まった曲は、止まった位置から再生し直すように設定しました。"
+                : "再生が止まった曲は、次の曲へスキップするように設定しました。";
+    }
+}
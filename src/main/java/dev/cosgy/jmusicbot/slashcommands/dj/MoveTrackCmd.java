@@ -21,8 +21,8 @@ import com.jagrosh.jdautilities.command.CommandEvent;
 import com.jagrosh.jdautilities.command.SlashCommandEvent;
 import com.jagrosh.jmusicbot.Bot;
 import com.jagrosh.jmusicbot.audio.AudioHandler;
+import com.jagrosh.jmusicbot.audio.GuildQueue;
 import com.jagrosh.jmusicbot.audio.QueuedTrack;
-import com.jagrosh.jmusicbot.queue.FairQueue;
 import dev.cosgy.jmusicbot.slashcommands.DJCommand;
 import net.dv8tion.jda.api.interactions.commands.OptionType;
 import net.dv8tion.jda.api.interactions.commands.build.OptionData;
@@ -41,50 +41,68 @@ public class MoveTrackCmd extends DJCommand {
         super(bot);
         this.name = "movetrack";
         this.help = "再生待ちの曲の再生順を変更します";
-        this.arguments = "<from> <to>";
+        this.arguments = "<from|曲名> <to>";
         this.aliases = bot.getConfig().getAliases(this.name);
         this.bePlaying = true;
 
         List<OptionData> options = new ArrayList<>();
-        options.add(new OptionData(OptionType.INTEGER, "from", "from", true));
+        options.add(new OptionData(OptionType.STRING, "from", "移動する曲の再生待ち番号または曲名", true));
         options.add(new OptionData(OptionType.INTEGER, "to", "to", true));
         this.options = options;
 
     }
 
-    private static boolean isUnavailablePosition(FairQueue<QueuedTrack> queue, int position) {
+    private static boolean isUnavailablePosition(GuildQueue<QueuedTrack> queue, int position) {
         return (position < 1 || position > queue.size());
     }
 
+    /**
+     * @return 番号の場合はその番号、それ以外は曲名で検索して見つかった曲の再生待ち番号 (見つからない場合は 0)
+     */
+    private static int findPosition(GuildQueue<QueuedTrack> queue, String input) {
+        try {
+            return Integer.parseInt(input);
+        } catch (NumberFormatException e) {
+            return queue.indexOf(input) + 1;
+        }
+    }
+
     @Override
     public void doCommand(CommandEvent event) {
         Logger log = LoggerFactory.getLogger("MoveTrack");
         int from;
         int to;
 
-        String[] parts = event.getArgs().split("\\s+", 2);
-        if (parts.length < 2) {
+        // 移動元は曲名の場合もあるので、最後の引数を移動先とする
+        String args = event.getArgs().trim();
+        int split = args.lastIndexOf(' ');
+        if (split < 0) {
             event.replyError("2つの有効な数字を含んでください。");
             return;
         }
 
         try {
             // Validate the args
-            from = Integer.parseInt(parts[0]);
-            to = Integer.parseInt(parts[1]);
+            to = Integer.parseInt(args.substring(split + 1));
         } catch (NumberFormatException e) {
             event.replyError("2つの有効な数字を含んでください。");
             return;
         }
 
+        AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
+        GuildQueue<QueuedTrack> queue = handler.getQueue();
+        from = findPosition(queue, args.substring(0, split).trim());
+        if (from == 0) {
+            event.replyError("`" + args.substring(0, split).trim() + "` に一致する曲は再生待ちにありません。");
+            return;
+        }
+
         if (from == to) {
             event.replyError("同じ位置に移動することはできません。");
             return;
         }
 
         // Validate that from and to are available
-        AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
-        FairQueue<QueuedTrack> queue = handler.getQueue();
         if (isUnavailablePosition(queue, from)) {
             String reply = String.format("`%d` は再生待ちに存在しない位置です。", from);
             event.replyError(reply);
@@ -97,8 +115,13 @@ public class MoveTrackCmd extends DJCommand {
         }
 
         // Move the track
+        // 確認の後に再生待ちが変わった場合は、移動時の確認で範囲外になる
         QueuedTrack track = queue.moveItem(from - 1, to - 1);
-        String trackTitle = track.getTrack().getInfo().title;
+        if (track == null) {
+            event.replyError(String.format("`%d` から `%d` への移動は、再生待ちが変更されたためできませんでした。", from, to));
+            return;
+        }
+        String trackTitle = track.getInfo().title;
         String reply = String.format("**%s** を `%d` から `%d`に移動しました。", trackTitle, from, to);
         log.info(event.getGuild().getName() + "で %s を %d から %d に移動しました。", trackTitle, from, to);
         event.replySuccess(reply);
@@ -113,8 +136,14 @@ public class MoveTrackCmd extends DJCommand {
         int from;
         int to;
 
-        from = Integer.parseInt(event.getOption("from").getAsString());
+        AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
+        GuildQueue<QueuedTrack> queue = handler.getQueue();
+        from = findPosition(queue, event.getOption("from").getAsString());
         to = Integer.parseInt(event.getOption("to").getAsString());
+        if (from == 0) {
+            event.reply(event.getClient().getError() + "`" + event.getOption("from").getAsString() + "` に一致する曲は再生待ちにありません。").queue();
+            return;
+        }
 
         if (from == to) {
             event.reply(event.getClient().getError() + "同じ位置に移動することはできません。").queue();
@@ -122,8 +151,6 @@ public class MoveTrackCmd extends DJCommand {
         }
 
         // Validate that from and to are available
-        AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
-        FairQueue<QueuedTrack> queue = handler.getQueue();
         if (isUnavailablePosition(queue, from)) {
             String reply = String.format("`%d` は再生待ちに存在しない位置です。", from);
             event.reply(event.getClient().getError() + reply).queue();
@@ -136,8 +163,13 @@ public class MoveTrackCmd extends DJCommand {
         }
 
         // Move the track
+        // 確認の後に再生待ちが変わった場合は、移動時の確認で範囲外になる
         QueuedTrack track = queue.moveItem(from - 1, to - 1);
-        String trackTitle = track.getTrack().getInfo().title;
+        if (track == null) {
+            event.reply(event.getClient().getError() + String.format("`%d` から `%d` への移動は、再生待ちが変更されたためできませんでした。", from, to)).queue();
+            return;
+        }
+        String trackTitle = track.getInfo().title;
         String reply = String.format("**%s** を `%d` から `%d`に移動しました。", trackTitle, from, to);
         event.reply(event.getClient().getSuccess() + reply).queue();
     }
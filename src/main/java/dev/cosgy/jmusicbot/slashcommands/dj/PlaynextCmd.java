@@ -67,7 +67,7 @@ public class PlaynextCmd extends DJCommand {
                 ? event.getArgs().substring(1, event.getArgs().length() - 1)
                 : event.getArgs().isEmpty() ? event.getMessage().getAttachments().get(0).getUrl() : event.getArgs();
         log.info(event.getGuild().getName() + "で[" + args + "]の読み込みを開始しました。");
-        event.reply(loadingEmoji + "`[" + args + "]`を読み込み中です...", m -> bot.getPlayerManager().loadItemOrdered(event.getGuild(), args, new ResultHandler(m, event, false)));
+        event.reply(loadingEmoji + "`[" + args + "]`を読み込み中です...", m -> bot.getPlayerManager().loadInteractive(event.getGuild(), args, new ResultHandler(m, event, false)));
     }
 
     @Override
@@ -78,7 +78,7 @@ public class PlaynextCmd extends DJCommand {
         }
         String args = event.getOption("title").getAsString();
         log.info(event.getGuild().getName() + "で[" + args + "]の読み込みを開始しました。");
-        event.reply(loadingEmoji + "`[" + args + "]`を読み込み中です...").queue(m -> bot.getPlayerManager().loadItemOrdered(event.getGuild(), args, new SlashResultHandler(m, event, false)));
+        event.reply(loadingEmoji + "`[" + args + "]`を読み込み中です...").queue(m -> bot.getPlayerManager().loadInteractive(event.getGuild(), args, new SlashResultHandler(m, event, false)));
     }
 
     private class SlashResultHandler implements AudioLoadResultHandler {
@@ -131,7 +131,7 @@ public class PlaynextCmd extends DJCommand {
             if (ytsearch)
                 m.editOriginal(FormatUtil.filter(event.getClient().getWarning() + " この検索結果はありません `" + event.getUser() + "`.")).queue();
             else
-                bot.getPlayerManager().loadItemOrdered(event.getGuild(), "ytsearch:" + event.getUser(), new SlashResultHandler(m, event, true));
+                bot.getPlayerManager().loadInteractive(event.getGuild(), "ytsearch:" + event.getUser(), new SlashResultHandler(m, event, true));
         }
 
         @Override
@@ -195,7 +195,7 @@ public class PlaynextCmd extends DJCommand {
             if (ytsearch)
                 m.editMessage(FormatUtil.filter(event.getClient().getWarning() + " この検索結果はありません `" + event.getArgs() + "`.")).queue();
             else
-                bot.getPlayerManager().loadItemOrdered(event.getGuild(), "ytsearch:" + event.getArgs(), new ResultHandler(m, event, true));
+                bot.getPlayerManager().loadInteractive(event.getGuild(), "ytsearch:" + event.getArgs(), new ResultHandler(m, event, true));
         }
 
         @Override
@@ -19,6 +19,7 @@ import com.jagrosh.jdautilities.command.CommandEvent;
 import com.jagrosh.jdautilities.command.SlashCommandEvent;
 import com.jagrosh.jmusicbot.Bot;
 import com.jagrosh.jmusicbot.audio.AudioHandler;
+import com.jagrosh.jmusicbot.audio.QueuedTrack;
 import dev.cosgy.jmusicbot.slashcommands.DJCommand;
 import net.dv8tion.jda.api.interactions.commands.OptionType;
 import net.dv8tion.jda.api.interactions.commands.build.OptionData;
@@ -38,32 +39,41 @@ public class SkipToCmd extends DJCommand {
         super(bot);
         this.name = "skipto";
         this.help = "指定された曲にスキップします";
-        this.arguments = "<position>";
+        this.arguments = "<position|曲名>";
         this.aliases = bot.getConfig().getAliases(this.name);
         this.bePlaying = true;
 
         List<OptionData> options = new ArrayList<>();
-        options.add(new OptionData(OptionType.INTEGER, "position", "position", true));
+        options.add(new OptionData(OptionType.STRING, "position", "再生待ち番号または曲名", true));
         this.options = options;
 
     }
 
     @Override
     public void doCommand(CommandEvent event) {
-        int index = 0;
+        AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
+        int index;
         try {
             index = Integer.parseInt(event.getArgs());
         } catch (NumberFormatException e) {
-            event.reply(event.getClient().getError() + " `" + event.getArgs() + "` は有効な整数ではありません。");
-            return;
+            // 番号でない場合は曲名で検索する
+            index = handler.getQueue().indexOf(event.getArgs()) + 1;
+            if (index < 1) {
+                event.reply(event.getClient().getError() + " `" + event.getArgs() + "` に一致する曲は再生待ちにありません。");
+                return;
+            }
         }
-        AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
         if (index < 1 || index > handler.getQueue().size()) {
             event.reply(event.getClient().getError() + " 1から" + handler.getQueue().size() + "の間の整数でないといけません!");
             return;
         }
-        handler.getQueue().skip(index - 1);
-        event.reply(event.getClient().getSuccess() + " **" + handler.getQueue().get(0).getTrack().getInfo().title + "にスキップしました。**");
+        // 飛ばした後の先頭は、同じ順番待ちの中で取得する
+        QueuedTrack next = handler.getQueue().skipTo(index - 1);
+        if (next == null) {
+            event.reply(event.getClient().getError() + " 1から" + handler.getQueue().size() + "の間の整数でないといけません!");
+            return;
+        }
+        event.reply(event.getClient().getSuccess() + " **" + next.getInfo().title + "にスキップしました。**");
         handler.getPlayer().stopTrack();
     }
 
@@ -73,20 +83,29 @@ public class SkipToCmd extends DJCommand {
             event.reply(event.getClient().getWarning() + "権限がないため実行できません。").queue();
             return;
         }
-        int index = 0;
+        AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
+        int index;
         try {
             index = Integer.parseInt(event.getOption("position").getAsString());
         } catch (NumberFormatException e) {
-            event.reply(event.getClient().getError() + " `" + event.getOption("position").getAsString() + "` は有効な整数ではありません。").queue();
-            return;
+            // 番号でない場合は曲名で検索する
+            index = handler.getQueue().indexOf(event.getOption("position").getAsString()) + 1;
+            if (index < 1) {
+                event.reply(event.getClient().getError() + " `" + event.getOption("position").getAsString() + "` に一致する曲は再生待ちにありません。").queue();
+                return;
+            }
         }
-        AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
         if (index < 1 || index > handler.getQueue().size()) {
             event.reply(event.getClient().getError() + " 1から" + handler.getQueue().size() + "の間の整数でないといけません!").queue();
             return;
         }
-        handler.getQueue().skip(index - 1);
-        event.reply(event.getClient().getSuccess() + " **" + handler.getQueue().get(0).getTrack().getInfo().title + "にスキップしました。**").queue();
+        // 飛ばした後の先頭は、同じ順番待ちの中で取得する
+        QueuedTrack next = handler.getQueue().skipTo(index - 1);
+        if (next == null) {
+            event.reply(event.getClient().getError() + " 1から" + handler.getQueue().size() + "の間の整数でないといけません!").queue();
+            return;
+        }
+        event.reply(event.getClient().getSuccess() + " **" + next.getInfo().title + "にスキップしました。**").queue();
         handler.getPlayer().stopTrack();
     }
 }
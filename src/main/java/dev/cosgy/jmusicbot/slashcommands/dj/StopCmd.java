@@ -19,8 +19,8 @@ import com.jagrosh.jdautilities.command.CommandEvent;
 import com.jagrosh.jdautilities.command.SlashCommandEvent;
 import com.jagrosh.jmusicbot.Bot;
 import com.jagrosh.jmusicbot.audio.AudioHandler;
+import com.jagrosh.jmusicbot.audio.GuildQueue;
 import com.jagrosh.jmusicbot.audio.QueuedTrack;
-import com.jagrosh.jmusicbot.queue.FairQueue;
 import dev.cosgy.jmusicbot.playlist.CacheLoader;
 import dev.cosgy.jmusicbot.slashcommands.DJCommand;
 import net.dv8tion.jda.api.events.interaction.command.CommandAutoCompleteInteractionEvent;
@@ -58,7 +58,7 @@ public class StopCmd extends DJCommand {
     public void doCommand(CommandEvent event) {
         AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
         CacheLoader cache = bot.getCacheLoader();
-        FairQueue<QueuedTrack> queue = handler.getQueue();
+        GuildQueue<QueuedTrack> queue = handler.getQueue();
 
         if (queue.size() > 0 && event.getArgs().matches("save")) {
             cache.Save(event.getGuild().getId(), handler.getQueue());
@@ -79,7 +79,7 @@ public class StopCmd extends DJCommand {
         }
         AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
         CacheLoader cache = bot.getCacheLoader();
-        FairQueue<QueuedTrack> queue = handler.getQueue();
+        GuildQueue<QueuedTrack> queue = handler.getQueue();
 
         log.debug("再生待ちのサイズ：" + queue.size());
 
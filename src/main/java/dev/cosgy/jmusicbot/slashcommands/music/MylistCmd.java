@@ -5,9 +5,8 @@ import com.jagrosh.jdautilities.command.CommandEvent;
 import com.jagrosh.jdautilities.command.SlashCommandEvent;
 import com.jagrosh.jmusicbot.Bot;
 import com.jagrosh.jmusicbot.audio.AudioHandler;
-import com.jagrosh.jmusicbot.audio.QueuedTrack;
+import com.jagrosh.jmusicbot.playlist.PlaylistLoader.Playlist;
 import com.jagrosh.jmusicbot.utils.FormatUtil;
-import dev.cosgy.jmusicbot.playlist.MylistLoader;
 import dev.cosgy.jmusicbot.slashcommands.DJCommand;
 import dev.cosgy.jmusicbot.slashcommands.MusicCommand;
 import dev.cosgy.jmusicbot.util.StackTraceUtil;
@@ -78,7 +77,7 @@ public class MylistCmd extends MusicCommand {
                 return;
             }
 
-            MylistLoader.Playlist playlist = bot.getMylistLoader().getPlaylist(userId, playlistName);
+            Playlist playlist = bot.getMylistLoader().getPlaylist(userId, playlistName);
             if (playlist == null) {
                 event.reply(event.getClient().getError() + " マイリスト `" + playlistName + "` が見つかりませんでした。");
                 return;
@@ -107,7 +106,7 @@ public class MylistCmd extends MusicCommand {
             String userId = event.getUser().getId();
             String playlistName = event.getOption("name").getAsString();
 
-            MylistLoader.Playlist playlist = bot.getMylistLoader().getPlaylist(userId, playlistName);
+            Playlist playlist = bot.getMylistLoader().getPlaylist(userId, playlistName);
             if (playlist == null) {
                 event.reply(event.getClient().getError() + " マイリスト `" + playlistName + "` が見つかりませんでした。").queue();
                 return;
@@ -155,7 +154,7 @@ public class MylistCmd extends MusicCommand {
                 event.reply(event.getClient().getError() + " マイリスト名を含めてください。");
                 return;
             }
-            MylistLoader.Playlist playlist = bot.getMylistLoader().getPlaylist(userId, event.getArgs());
+            Playlist playlist = bot.getMylistLoader().getPlaylist(userId, event.getArgs());
             if (playlist == null) {
                 event.replyError("`" + event.getArgs() + ".txt `を見つけられませんでした ");
                 return;
@@ -163,10 +162,10 @@ public class MylistCmd extends MusicCommand {
             event.getChannel().sendMessage(":calling: マイリスト**" + event.getArgs() + "**を読み込んでいます... (" + playlist.getItems().size() + " 曲)").queue(m ->
             {
                 AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
-                playlist.loadTracks(bot.getPlayerManager(), (at) -> handler.addTrack(new QueuedTrack(at, event.getAuthor())), () -> {
-                    StringBuilder builder = new StringBuilder(playlist.getTracks().isEmpty()
+                playlist.queueTo(bot.getPlayerManager(), handler, event.getAuthor(), () -> {
+                    StringBuilder builder = new StringBuilder(playlist.getQueuedCount() == 0
                             ? event.getClient().getWarning() + " 楽曲がロードされていません。"
-                            : event.getClient().getSuccess() + "**" + playlist.getTracks().size() + "**曲、読み込みました。");
+                            : event.getClient().getSuccess() + "**" + playlist.getQueuedCount() + "**曲、読み込みました。");
                     if (!playlist.getErrors().isEmpty())
                         builder.append("\n以下の楽曲をロードできませんでした:");
                     playlist.getErrors().forEach(err -> builder.append("\n`[").append(err.getIndex() + 1)
@@ -185,7 +184,7 @@ public class MylistCmd extends MusicCommand {
 
             String name = event.getOption("name").getAsString();
 
-            MylistLoader.Playlist playlist = bot.getMylistLoader().getPlaylist(userId, name);
+            Playlist playlist = bot.getMylistLoader().getPlaylist(userId, name);
             if (playlist == null) {
                 event.reply(event.getClient().getError() + "`" + name + ".txt `を見つけられませんでした ").queue();
                 return;
@@ -193,10 +192,10 @@ public class MylistCmd extends MusicCommand {
             event.reply(":calling: マイリスト**" + name + "**を読み込んでいます... (" + playlist.getItems().size() + " 曲)").queue(m ->
             {
                 AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
-                playlist.loadTracks(bot.getPlayerManager(), (at) -> handler.addTrack(new QueuedTrack(at, event.getUser())), () -> {
-                    StringBuilder builder = new StringBuilder(playlist.getTracks().isEmpty()
+                playlist.queueTo(bot.getPlayerManager(), handler, event.getUser(), () -> {
+                    StringBuilder builder = new StringBuilder(playlist.getQueuedCount() == 0
                             ? event.getClient().getWarning() + " 楽曲がロードされていません。"
-                            : event.getClient().getSuccess() + "**" + playlist.getTracks().size() + "**曲、読み込みました。");
+                            : event.getClient().getSuccess() + "**" + playlist.getQueuedCount() + "**曲、読み込みました。");
                     if (!playlist.getErrors().isEmpty())
                         builder.append("\n以下の楽曲をロードできませんでした:");
                     playlist.getErrors().forEach(err -> builder.append("\n`[").append(err.getIndex() + 1)
@@ -365,7 +364,7 @@ public class MylistCmd extends MusicCommand {
                 return;
             }
             String pName = parts[0];
-            MylistLoader.Playlist playlist = bot.getMylistLoader().getPlaylist(userId, pName);
+            Playlist playlist = bot.getMylistLoader().getPlaylist(userId, pName);
             if (playlist == null)
                 event.reply(event.getClient().getError() + " マイリストは存在しません:`" + pName + "`");
             else {
@@ -391,7 +390,7 @@ public class MylistCmd extends MusicCommand {
         public void doCommand(SlashCommandEvent event) {
             String userId = event.getUser().getId();
             String pname = event.getOption("name").getAsString();
-            MylistLoader.Playlist playlist = bot.getMylistLoader().getPlaylist(userId, pname);
+            Playlist playlist = bot.getMylistLoader().getPlaylist(userId, pname);
             if (playlist == null)
                 event.reply(event.getClient().getError() + " マイリストは存在しません:`" + pname + "`").queue();
             else {
@@ -74,7 +74,7 @@ public class NicoSearchCmd extends MusicCommand {
                     .setSelection((msg, sel) -> {
                         nicoVideoSearchResult selectedResultVideo = results.get((sel - 1));
                         System.out.println("URL = " + selectedResultVideo.getWatchUrl() + ", title = " + selectedResultVideo.getTitle());
-                        bot.getPlayerManager().loadItemOrdered(event.getGuild(), selectedResultVideo.getWatchUrl(), new ResultHandler(m, event, bot));
+                        bot.getPlayerManager().loadInteractive(event.getGuild(), selectedResultVideo.getWatchUrl(), new ResultHandler(m, event, bot));
                     });
 
             results.forEach(result -> builder.addChoice("`[" + result.getInfo().getLengthFormatted() + "]` [**" + result.getTitle() + "**](" + result.getWatchUrl() + ")"));
@@ -112,7 +112,7 @@ public class NicoSearchCmd extends MusicCommand {
                     .setSelection((msg, sel) -> {
                         nicoVideoSearchResult selectedResultVideo = results.get((sel - 1));
                         System.out.println("URL = " + selectedResultVideo.getWatchUrl() + ", title = " + selectedResultVideo.getTitle());
-                        bot.getPlayerManager().loadItemOrdered(event.getGuild(), selectedResultVideo.getWatchUrl(), new SlashResultHandler(m, event, bot));
+                        bot.getPlayerManager().loadInteractive(event.getGuild(), selectedResultVideo.getWatchUrl(), new SlashResultHandler(m, event, bot));
                     });
 
             results.forEach(result -> builder.addChoice("`[" + result.getInfo().getLengthFormatted() + "]` [**" + result.getTitle() + "**](" + result.getWatchUrl() + ")"));
@@ -23,6 +23,7 @@ import com.jagrosh.jdautilities.menu.ButtonMenu;
 import com.jagrosh.jmusicbot.Bot;
 import com.jagrosh.jmusicbot.PlayStatus;
 import com.jagrosh.jmusicbot.audio.AudioHandler;
+import com.jagrosh.jmusicbot.audio.LoadSession;
 import com.jagrosh.jmusicbot.audio.QueuedTrack;
 import com.jagrosh.jmusicbot.playlist.PlaylistLoader.Playlist;
 import com.jagrosh.jmusicbot.settings.Settings;
@@ -33,8 +34,6 @@ import com.sedmelluq.discord.lavaplayer.tools.FriendlyException.Severity;
 import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import dev.cosgy.jmusicbot.playlist.CacheLoader;
-import dev.cosgy.jmusicbot.playlist.MylistLoader;
-import dev.cosgy.jmusicbot.playlist.PubliclistLoader;
 import dev.cosgy.jmusicbot.slashcommands.DJCommand;
 import dev.cosgy.jmusicbot.slashcommands.MusicCommand;
 import dev.cosgy.jmusicbot.util.Cache;
@@ -105,9 +104,12 @@ public class PlayCmd extends MusicCommand {
                 AtomicInteger count = new AtomicInteger();
                 CacheLoader.CacheResult cache = bot.getCacheLoader().ConvertCache(data);
                 event.getChannel().sendMessage(":calling: キャッシュファイルを読み込んでいます... (" + cache.getItems().size() + "曲)").queue(m -> {
-                    cache.loadTracks(bot.getPlayerManager(), (at) -> {
-                        handler.addTrack(new QueuedTrack(at, (User) User.fromId(data.get(count.get()).getUserId())));
-                        count.getAndIncrement();
+                    LoadSession session = handler.newLoadSession();
+                    cache.loadTrackBatches(bot.getPlayerManager(), session, (batch) -> {
+                        List<QueuedTrack> queued = new ArrayList<>(batch.size());
+                        for (AudioTrack at : batch)
+                            queued.add(new QueuedTrack(at, (User) User.fromId(data.get(count.getAndIncrement()).getUserId())));
+                        handler.addTracks(session, queued);
                     }, () -> {
                         StringBuilder builder = new StringBuilder(cache.getTracks().isEmpty()
                                 ? event.getClient().getWarning() + " 楽曲がロードされていません。"
@@ -140,10 +142,10 @@ public class PlayCmd extends MusicCommand {
                 event.getChannel().sendMessage(loadingEmoji + " プレイリストを読み込んでいます**" + settings.getDefaultPlaylist() + " ** ...（ " + playlist.getItems().size() + "曲）").queue(m ->
                 {
 
-                    playlist.loadTracks(bot.getPlayerManager(), (at) -> handler.addTrack(new QueuedTrack(at, event.getAuthor())), () -> {
-                        StringBuilder builder = new StringBuilder(playlist.getTracks().isEmpty()
+                    playlist.queueTo(bot.getPlayerManager(), handler, event.getAuthor(), () -> {
+                        StringBuilder builder = new StringBuilder(playlist.getQueuedCount() == 0
                                 ? event.getClient().getWarning() + " 曲がロードされていません！"
-                                : event.getClient().getSuccess() + " ** " + playlist.getTracks().size() + " **曲をロードしました！");
+                                : event.getClient().getSuccess() + " ** " + playlist.getQueuedCount() + " **曲をロードしました！");
                         if (!playlist.getErrors().isEmpty())
                             builder.append("\n次の曲を読み込めませんでした。:");
                         playlist.getErrors().forEach(err -> builder.append("\n`[").append(err.getIndex() + 1).append("]` **").append(err.getItem()).append("**: ").append(err.getReason()));
@@ -168,7 +170,7 @@ public class PlayCmd extends MusicCommand {
         String args = event.getArgs().startsWith("<") && event.getArgs().endsWith(">")
                 ? event.getArgs().substring(1, event.getArgs().length() - 1)
                 : event.getArgs().isEmpty() ? event.getMessage().getAttachments().get(0).getUrl() : event.getArgs();
-        event.reply(loadingEmoji + "`[" + args + "]`を読み込み中です…", m -> bot.getPlayerManager().loadItemOrdered(event.getGuild(), args, new ResultHandler(m, event, false)));
+        event.reply(loadingEmoji + "`[" + args + "]`を読み込み中です…", m -> bot.getPlayerManager().loadInteractive(event.getGuild(), args, new ResultHandler(m, event, false)));
     }
 
     @Override
@@ -195,10 +197,11 @@ public class PlayCmd extends MusicCommand {
                 AtomicInteger count = new AtomicInteger();
                 CacheLoader.CacheResult cache = bot.getCacheLoader().ConvertCache(data);
                 event.reply(":calling: キャッシュファイルを読み込んでいます... (" + cache.getItems().size() + "曲)").queue(m -> {
-                    cache.loadTracks(bot.getPlayerManager(), (at) -> {
+                    LoadSession session = handler.newLoadSession();
+                    cache.loadTrackBatches(bot.getPlayerManager(), session, (batch) -> {
                         // TODO:キャッシュに保存されているユーザーIDを使用する。
-                        handler.addTrack(new QueuedTrack(at, event.getUser()));
-                        count.getAndIncrement();
+                        handler.addTracks(session, batch, event.getUser());
+                        count.getAndAdd(batch.size());
                     }, () -> {
                         StringBuilder builder = new StringBuilder(cache.getTracks().isEmpty()
                                 ? event.getClient().getWarning() + " 楽曲がロードされていません。"
@@ -231,10 +234,10 @@ public class PlayCmd extends MusicCommand {
                 event.reply(loadingEmoji + " プレイリストを読み込んでいます**" + settings.getDefaultPlaylist() + " ** ...（ " + playlist.getItems().size() + "曲）").queue(m ->
                 {
 
-                    playlist.loadTracks(bot.getPlayerManager(), (at) -> handler.addTrack(new QueuedTrack(at, event.getUser())), () -> {
-                        StringBuilder builder = new StringBuilder(playlist.getTracks().isEmpty()
+                    playlist.queueTo(bot.getPlayerManager(), handler, event.getUser(), () -> {
+                        StringBuilder builder = new StringBuilder(playlist.getQueuedCount() == 0
                                 ? event.getClient().getWarning() + " 曲がロードされていません！"
-                                : event.getClient().getSuccess() + " ** " + playlist.getTracks().size() + " **曲をロードしました！");
+                                : event.getClient().getSuccess() + " ** " + playlist.getQueuedCount() + " **曲をロードしました！");
                         if (!playlist.getErrors().isEmpty())
                             builder.append("\n次の曲を読み込めませんでした。:");
                         playlist.getErrors().forEach(err -> builder.append("\n`[").append(err.getIndex() + 1).append("]` **").append(err.getItem()).append("**: ").append(err.getReason()));
@@ -256,7 +259,7 @@ public class PlayCmd extends MusicCommand {
             event.reply(builder.toString()).queue();
             return;
         }
-        event.reply(loadingEmoji + "`[" + event.getOption("input").getAsString() + "]`を読み込み中です…").queue(m -> bot.getPlayerManager().loadItemOrdered(event.getGuild(), event.getOption("input").getAsString(), new SlashResultHandler(m, event, false)));
+        event.reply(loadingEmoji + "`[" + event.getOption("input").getAsString() + "]`を読み込み中です…").queue(m -> bot.getPlayerManager().loadInteractive(event.getGuild(), event.getOption("input").getAsString(), new SlashResultHandler(m, event, false)));
 
     }
 
@@ -355,7 +358,7 @@ public class PlayCmd extends MusicCommand {
             if (ytsearch)
                 m.editOriginal(FormatUtil.filter(event.getClient().getWarning() + " の検索結果はありません `" + event.getOption("input").getAsString() + "`.")).queue();
             else
-                bot.getPlayerManager().loadItemOrdered(event.getGuild(), "ytsearch:" + event.getOption("input").getAsString(), new SlashResultHandler(m, event, true));
+                bot.getPlayerManager().loadInteractive(event.getGuild(), "ytsearch:" + event.getOption("input").getAsString(), new SlashResultHandler(m, event, true));
         }
 
         @Override
@@ -463,7 +466,7 @@ public class PlayCmd extends MusicCommand {
             if (ytsearch)
                 m.editMessage(FormatUtil.filter(event.getClient().getWarning() + " の検索結果はありません `" + event.getArgs() + "`.")).queue();
             else
-                bot.getPlayerManager().loadItemOrdered(event.getGuild(), "ytsearch:" + event.getArgs(), new ResultHandler(m, event, true));
+                bot.getPlayerManager().loadInteractive(event.getGuild(), "ytsearch:" + event.getArgs(), new ResultHandler(m, event, true));
         }
 
         @Override
@@ -535,10 +538,11 @@ public class PlayCmd extends MusicCommand {
                     AtomicInteger count = new AtomicInteger();
                     CacheLoader.CacheResult cache = bot.getCacheLoader().ConvertCache(data);
                     event.reply(":calling: キャッシュファイルを読み込んでいます... (" + cache.getItems().size() + "曲)").queue(m -> {
-                        cache.loadTracks(bot.getPlayerManager(), (at) -> {
+                        LoadSession session = handler.newLoadSession();
+                        cache.loadTrackBatches(bot.getPlayerManager(), session, (batch) -> {
                             // TODO:キャッシュに保存されているユーザーIDを使用する。
-                            handler.addTrack(new QueuedTrack(at, event.getUser()));
-                            count.getAndIncrement();
+                            handler.addTracks(session, batch, event.getUser());
+                            count.getAndAdd(batch.size());
                         }, () -> {
                             StringBuilder builder = new StringBuilder(cache.getTracks().isEmpty()
                                     ? event.getClient().getWarning() + " 楽曲がロードされていません。"
@@ -571,10 +575,10 @@ public class PlayCmd extends MusicCommand {
                     event.reply(loadingEmoji + " プレイリストを読み込んでいます**" + settings.getDefaultPlaylist() + " ** ...（ " + playlist.getItems().size() + "曲）").queue(m ->
                     {
 
-                        playlist.loadTracks(bot.getPlayerManager(), (at) -> handler.addTrack(new QueuedTrack(at, event.getUser())), () -> {
-                            StringBuilder builder = new StringBuilder(playlist.getTracks().isEmpty()
+                        playlist.queueTo(bot.getPlayerManager(), handler, event.getUser(), () -> {
+                            StringBuilder builder = new StringBuilder(playlist.getQueuedCount() == 0
                                     ? event.getClient().getWarning() + " 曲がロードされていません！"
-                                    : event.getClient().getSuccess() + " ** " + playlist.getTracks().size() + " **曲をロードしました！");
+                                    : event.getClient().getSuccess() + " ** " + playlist.getQueuedCount() + " **曲をロードしました！");
                             if (!playlist.getErrors().isEmpty())
                                 builder.append("\n次の曲を読み込めませんでした。:");
                             playlist.getErrors().forEach(err -> builder.append("\n`[").append(err.getIndex() + 1).append("]` **").append(err.getItem()).append("**: ").append(err.getReason()));
@@ -596,7 +600,7 @@ public class PlayCmd extends MusicCommand {
                 event.reply(builder.toString()).queue();
                 return;
             }
-            event.reply(loadingEmoji + "`[" + event.getOption("input").getAsString() + "]`を読み込み中です…").queue(m -> bot.getPlayerManager().loadItemOrdered(event.getGuild(), event.getOption("input").getAsString(), new SlashResultHandler(m, event, false)));
+            event.reply(loadingEmoji + "`[" + event.getOption("input").getAsString() + "]`を読み込み中です…").queue(m -> bot.getPlayerManager().loadInteractive(event.getGuild(), event.getOption("input").getAsString(), new SlashResultHandler(m, event, false)));
         }
 
 
@@ -633,10 +637,10 @@ public class PlayCmd extends MusicCommand {
             event.getChannel().sendMessage(":calling: 再生リスト **" + event.getArgs() + "**を読み込んでいます... (" + playlist.getItems().size() + " 曲)").queue(m ->
             {
                 AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
-                playlist.loadTracks(bot.getPlayerManager(), (at) -> handler.addTrack(new QueuedTrack(at, event.getAuthor())), () -> {
-                    StringBuilder builder = new StringBuilder(playlist.getTracks().isEmpty()
+                playlist.queueTo(bot.getPlayerManager(), handler, event.getAuthor(), () -> {
+                    StringBuilder builder = new StringBuilder(playlist.getQueuedCount() == 0
                             ? event.getClient().getWarning() + " 楽曲がロードされていません。"
-                            : event.getClient().getSuccess() + "**" + playlist.getTracks().size() + "**曲読み込みました。");
+                            : event.getClient().getSuccess() + "**" + playlist.getQueuedCount() + "**曲読み込みました。");
                     if (!playlist.getErrors().isEmpty())
                         builder.append("\n以下の楽曲をロードできませんでした:");
                     playlist.getErrors().forEach(err -> builder.append("\n`[").append(err.getIndex() + 1).append("]` **").append(err.getItem()).append("**: ").append(err.getReason()));
@@ -662,10 +666,10 @@ public class PlayCmd extends MusicCommand {
             event.reply(":calling: 再生リスト **" + name + "**を読み込んでいます... (" + playlist.getItems().size() + " 曲)").queue(m ->
             {
                 AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
-                playlist.loadTracks(bot.getPlayerManager(), (at) -> handler.addTrack(new QueuedTrack(at, event.getUser())), () -> {
-                    StringBuilder builder = new StringBuilder(playlist.getTracks().isEmpty()
+                playlist.queueTo(bot.getPlayerManager(), handler, event.getUser(), () -> {
+                    StringBuilder builder = new StringBuilder(playlist.getQueuedCount() == 0
                             ? event.getClient().getWarning() + " 楽曲がロードされていません。"
-                            : event.getClient().getSuccess() + "**" + playlist.getTracks().size() + "**曲読み込みました。");
+                            : event.getClient().getSuccess() + "**" + playlist.getQueuedCount() + "**曲読み込みました。");
                     if (!playlist.getErrors().isEmpty())
                         builder.append("\n以下の楽曲をロードできませんでした:");
                     playlist.getErrors().forEach(err -> builder.append("\n`[").append(err.getIndex() + 1).append("]` **").append(err.getItem()).append("**: ").append(err.getReason()));
@@ -700,7 +704,7 @@ public class PlayCmd extends MusicCommand {
                 event.reply(event.getClient().getError() + " マイリスト名を含めてください。");
                 return;
             }
-            MylistLoader.Playlist playlist = bot.getMylistLoader().getPlaylist(userId, event.getArgs());
+            Playlist playlist = bot.getMylistLoader().getPlaylist(userId, event.getArgs());
             if (playlist == null) {
                 event.replyError("`" + event.getArgs() + ".txt `を見つけられませんでした ");
                 return;
@@ -708,10 +712,10 @@ public class PlayCmd extends MusicCommand {
             event.getChannel().sendMessage(":calling: マイリスト**" + event.getArgs() + "**を読み込んでいます... (" + playlist.getItems().size() + " 曲)").queue(m ->
             {
                 AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
-                playlist.loadTracks(bot.getPlayerManager(), (at) -> handler.addTrack(new QueuedTrack(at, event.getAuthor())), () -> {
-                    StringBuilder builder = new StringBuilder(playlist.getTracks().isEmpty()
+                playlist.queueTo(bot.getPlayerManager(), handler, event.getAuthor(), () -> {
+                    StringBuilder builder = new StringBuilder(playlist.getQueuedCount() == 0
                             ? event.getClient().getWarning() + " 楽曲がロードされていません。"
-                            : event.getClient().getSuccess() + "**" + playlist.getTracks().size() + "**曲、読み込みました。");
+                            : event.getClient().getSuccess() + "**" + playlist.getQueuedCount() + "**曲、読み込みました。");
                     if (!playlist.getErrors().isEmpty())
                         builder.append("\n以下の楽曲をロードできませんでした:");
                     playlist.getErrors().forEach(err -> builder.append("\n`[").append(err.getIndex() + 1)
@@ -730,7 +734,7 @@ public class PlayCmd extends MusicCommand {
 
             String name = event.getOption("name").getAsString();
 
-            MylistLoader.Playlist playlist = bot.getMylistLoader().getPlaylist(userId, name);
+            Playlist playlist = bot.getMylistLoader().getPlaylist(userId, name);
             if (playlist == null) {
                 event.reply(event.getClient().getError() + "`" + name + ".txt `を見つけられませんでした ").queue();
                 return;
@@ -738,10 +742,10 @@ public class PlayCmd extends MusicCommand {
             event.reply(":calling: マイリスト**" + name + "**を読み込んでいます... (" + playlist.getItems().size() + " 曲)").queue(m ->
             {
                 AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
-                playlist.loadTracks(bot.getPlayerManager(), (at) -> handler.addTrack(new QueuedTrack(at, event.getUser())), () -> {
-                    StringBuilder builder = new StringBuilder(playlist.getTracks().isEmpty()
+                playlist.queueTo(bot.getPlayerManager(), handler, event.getUser(), () -> {
+                    StringBuilder builder = new StringBuilder(playlist.getQueuedCount() == 0
                             ? event.getClient().getWarning() + " 楽曲がロードされていません。"
-                            : event.getClient().getSuccess() + "**" + playlist.getTracks().size() + "**曲、読み込みました。");
+                            : event.getClient().getSuccess() + "**" + playlist.getQueuedCount() + "**曲、読み込みました。");
                     if (!playlist.getErrors().isEmpty())
                         builder.append("\n以下の楽曲をロードできませんでした:");
                     playlist.getErrors().forEach(err -> builder.append("\n`[").append(err.getIndex() + 1)
@@ -776,7 +780,7 @@ public class PlayCmd extends MusicCommand {
                 event.reply(event.getClient().getError() + " 再生リスト名を含めてください。");
                 return;
             }
-            PubliclistLoader.Playlist playlist = bot.getPublistLoader().getPlaylist(event.getArgs());
+            Playlist playlist = bot.getPublistLoader().getPlaylist(event.getArgs());
             if (playlist == null) {
                 event.replyError("`" + event.getArgs() + ".txt `を見つけられませんでした ");
                 return;
@@ -784,10 +788,10 @@ public class PlayCmd extends MusicCommand {
             event.getChannel().sendMessage(":calling: 再生リスト**" + event.getArgs() + "**を読み込んでいます... (" + playlist.getItems().size() + " 曲)").queue(m ->
             {
                 AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
-                playlist.loadTracks(bot.getPlayerManager(), (at) -> handler.addTrack(new QueuedTrack(at, event.getAuthor())), () -> {
-                    StringBuilder builder = new StringBuilder(playlist.getTracks().isEmpty()
+                playlist.queueTo(bot.getPlayerManager(), handler, event.getAuthor(), () -> {
+                    StringBuilder builder = new StringBuilder(playlist.getQueuedCount() == 0
                             ? event.getClient().getWarning() + " 楽曲がロードされていません。"
-                            : event.getClient().getSuccess() + "**" + playlist.getTracks().size() + "**曲、読み込みました。");
+                            : event.getClient().getSuccess() + "**" + playlist.getQueuedCount() + "**曲、読み込みました。");
                     if (!playlist.getErrors().isEmpty())
                         builder.append("\n以下の楽曲をロードできませんでした:");
                     playlist.getErrors().forEach(err -> builder.append("\n`[").append(err.getIndex() + 1)
@@ -803,7 +807,7 @@ public class PlayCmd extends MusicCommand {
         @Override
         public void doCommand(SlashCommandEvent event) {
             String name = event.getOption("name").getAsString();
-            PubliclistLoader.Playlist playlist = bot.getPublistLoader().getPlaylist(name);
+            Playlist playlist = bot.getPublistLoader().getPlaylist(name);
             if (playlist == null) {
                 event.reply(event.getClient().getError() + "`" + name + ".txt `を見つけられませんでした ").queue();
                 return;
@@ -811,10 +815,10 @@ public class PlayCmd extends MusicCommand {
             event.reply(":calling: 再生リスト**" + name + "**を読み込んでいます... (" + playlist.getItems().size() + " 曲)").queue(m ->
             {
                 AudioHandler handler = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
-                playlist.loadTracks(bot.getPlayerManager(), (at) -> handler.addTrack(new QueuedTrack(at, event.getUser())), () -> {
-                    StringBuilder builder = new StringBuilder(playlist.getTracks().isEmpty()
+                playlist.queueTo(bot.getPlayerManager(), handler, event.getUser(), () -> {
+                    StringBuilder builder = new StringBuilder(playlist.getQueuedCount() == 0
                             ? event.getClient().getWarning() + " 楽曲がロードされていません。"
-                            : event.getClient().getSuccess() + "**" + playlist.getTracks().size() + "**曲、読み込みました。");
+                            : event.getClient().getSuccess() + "**" + playlist.getQueuedCount() + "**曲、読み込みました。");
                     if (!playlist.getErrors().isEmpty())
                         builder.append("\n以下の楽曲をロードできませんでした:");
                     playlist.getErrors().forEach(err -> builder.append("\n`[").append(err.getIndex() + 1)
@@ -19,7 +19,6 @@ import com.jagrosh.jdautilities.command.CommandEvent;
 import com.jagrosh.jdautilities.command.SlashCommandEvent;
 import com.jagrosh.jmusicbot.Bot;
 import com.jagrosh.jmusicbot.audio.AudioHandler;
-import com.jagrosh.jmusicbot.audio.QueuedTrack;
 import com.jagrosh.jmusicbot.playlist.PlaylistLoader;
 import com.jagrosh.jmusicbot.utils.FormatUtil;
 import dev.cosgy.jmusicbot.slashcommands.MusicCommand;
@@ -143,12 +142,12 @@ public class PlaylistsCmd extends MusicCommand {
                     ? cmdEvent.getGuild().getAudioManager().getSendingHandler()
                     : slashEvent.getGuild().getAudioManager().getSendingHandler());
 
-            playlist.loadTracks(bot.getPlayerManager(), track -> handler.addTrack(new QueuedTrack(track, cmdEvent != null ? cmdEvent.getAuthor() : slashEvent.getUser())), () -> {
+            playlist.queueTo(bot.getPlayerManager(), handler, cmdEvent != null ? cmdEvent.getAuthor() : slashEvent.getUser(), () -> {
                 StringBuilder builder = new StringBuilder();
-                if (playlist.getTracks().isEmpty()) {
+                if (playlist.getQueuedCount() == 0) {
                     builder.append((cmdEvent != null ? cmdEvent.getClient().getWarning() : slashEvent.getClient().getWarning())).append(" 楽曲がロードされていません。");
                 } else {
-                    builder.append((cmdEvent != null ? cmdEvent.getClient().getSuccess() : slashEvent.getClient().getSuccess())).append(" **").append(playlist.getTracks().size()).append("** 曲をロードしました。");
+                    builder.append((cmdEvent != null ? cmdEvent.getClient().getSuccess() : slashEvent.getClient().getSuccess())).append(" **").append(playlist.getQueuedCount()).append("** 曲をロードしました。");
                 }
                 if (!playlist.getErrors().isEmpty()) {
                     builder.append("\n以下の楽曲をロードできませんでした:");
@@ -17,23 +17,24 @@ package dev.cosgy.jmusicbot.slashcommands.music;
 
 import com.jagrosh.jdautilities.command.CommandEvent;
 import com.jagrosh.jdautilities.command.SlashCommandEvent;
-import com.jagrosh.jdautilities.menu.Paginator;
 import com.jagrosh.jmusicbot.Bot;
 import com.jagrosh.jmusicbot.JMusicBot;
 import com.jagrosh.jmusicbot.audio.AudioHandler;
+import com.jagrosh.jmusicbot.audio.GuildQueue;
 import com.jagrosh.jmusicbot.audio.QueuedTrack;
 import com.jagrosh.jmusicbot.settings.Settings;
 import com.jagrosh.jmusicbot.utils.FormatUtil;
 import dev.cosgy.jmusicbot.settings.RepeatMode;
 import dev.cosgy.jmusicbot.slashcommands.MusicCommand;
+import dev.cosgy.jmusicbot.util.LazyPaginator;
 import net.dv8tion.jda.api.Permission;
-import net.dv8tion.jda.api.exceptions.PermissionException;
 import net.dv8tion.jda.api.interactions.InteractionHook;
 import net.dv8tion.jda.api.utils.messages.MessageCreateBuilder;
 import net.dv8tion.jda.api.utils.messages.MessageCreateData;
 import net.dv8tion.jda.api.utils.messages.MessageEditBuilder;
 import net.dv8tion.jda.api.utils.messages.MessageEditData;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -44,7 +45,7 @@ public class QueueCmd extends MusicCommand {
     private final static String REPEAT_ALL = "\uD83D\uDD01"; // 🔁
     private final static String REPEAT_SINGLE = "\uD83D\uDD02"; // 🔂
 
-    private final Paginator.Builder builder;
+    private final LazyPaginator paginator;
 
     public QueueCmd(Bot bot) {
         super(bot);
@@ -54,21 +55,7 @@ public class QueueCmd extends MusicCommand {
         this.aliases = bot.getConfig().getAliases(this.name);
         this.bePlaying = true;
         this.botPermissions = new Permission[]{Permission.MESSAGE_ADD_REACTION, Permission.MESSAGE_EMBED_LINKS};
-        builder = new Paginator.Builder()
-                .setColumns(1)
-                .setFinalAction(m -> {
-                    try {
-                        m.clearReactions().queue();
-                    } catch (PermissionException ignore) {
-                    }
-                })
-                .setItemsPerPage(10)
-                .waitOnSinglePage(false)
-                .useNumberedItems(true)
-                .showPageNumbers(true)
-                .wrapPageEnds(true)
-                .setEventWaiter(bot.getWaiter())
-                .setTimeout(1, TimeUnit.MINUTES);
+        paginator = new LazyPaginator(bot.getWaiter(), 10, 1, TimeUnit.MINUTES);
     }
 
     @Override
@@ -79,8 +66,8 @@ public class QueueCmd extends MusicCommand {
         } catch (NumberFormatException ignore) {
         }
         AudioHandler ah = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
-        List<QueuedTrack> list = ah.getQueue().getList();
-        if (list.isEmpty()) {
+        GuildQueue<QueuedTrack> queue = ah.getQueue();
+        if (queue.isEmpty()) {
             MessageCreateData nowp = null;
             try {
                 nowp = ah.getNowPlaying(event.getJDA());
@@ -99,20 +86,10 @@ public class QueueCmd extends MusicCommand {
             });
             return;
         }
-        String[] songs = new String[list.size()];
-        long total = 0;
-        for (int i = 0; i < list.size(); i++) {
-            total += list.get(i).getTrack().getDuration();
-            songs[i] = list.get(i).toString();
-        }
         Settings settings = event.getClient().getSettingsFor(event.getGuild());
-        long finTotal = total;
-        builder.setText((i1, i2) -> getQueueTitle(ah, event.getClient().getSuccess(), songs.length, finTotal, settings.getRepeatMode()))
-                .setItems(songs)
-                .setUsers(event.getAuthor())
-                .setColor(event.getSelfMember().getColor());
-
-        builder.build().paginate(event.getChannel(), pagenum);
+        paginator.paginate(event.getChannel(), pagenum, pageSource(queue),
+                (page, pages) -> getQueueTitle(ah, event.getClient().getSuccess(), queue, settings.getRepeatMode()),
+                event.getSelfMember().getColor(), event.getAuthor());
     }
 
     @Override
@@ -120,8 +97,8 @@ public class QueueCmd extends MusicCommand {
         InteractionHook m = event.reply("再生待ちを取得しています。").complete();
         int pagenum = 1;
         AudioHandler ah = (AudioHandler) event.getGuild().getAudioManager().getSendingHandler();
-        List<QueuedTrack> list = ah.getQueue().getList();
-        if (list.isEmpty()) {
+        GuildQueue<QueuedTrack> queue = ah.getQueue();
+        if (queue.isEmpty()) {
             MessageCreateData nowp = null;
             try {
                 nowp = ah.getNowPlaying(event.getJDA());
@@ -135,23 +112,34 @@ public class QueueCmd extends MusicCommand {
             m.editOriginal(built).queue();
             return;
         }
-        String[] songs = new String[list.size()];
-        long total = 0;
-        for (int i = 0; i < list.size(); i++) {
-            total += list.get(i).getTrack().getDuration();
-            songs[i] = list.get(i).toString();
-        }
         Settings settings = event.getClient().getSettingsFor(event.getGuild());
-        long finTotal = total;
-        builder.setText((i1, i2) -> getQueueTitle(ah, event.getClient().getSuccess(), songs.length, finTotal, settings.getRepeatMode()))
-                .setItems(songs)
-                .setUsers(event.getUser())
-                .setColor(event.getGuild().getSelfMember().getColor());
-        builder.build().paginate(event.getChannel(), pagenum);
+        paginator.paginate(event.getChannel(), pagenum, pageSource(queue),
+                (page, pages) -> getQueueTitle(ah, event.getClient().getSuccess(), queue, settings.getRepeatMode()),
+                event.getGuild().getSelfMember().getColor(), event.getUser());
         m.deleteOriginal().queue();
     }
 
-    private String getQueueTitle(AudioHandler ah, String success, int songslength, long total, RepeatMode repeatmode) {
+    /**
+     * 表示するページの楽曲だけを文字列にします。
+     */
+    private static LazyPaginator.PageSource pageSource(GuildQueue<QueuedTrack> queue) {
+        return new LazyPaginator.PageSource() {
+            @Override
+            public int size() {
+                return queue.size();
+            }
+
+            @Override
+            public List<String> render(int from, int to) {
+                List<String> songs = new ArrayList<>();
+                for (QueuedTrack track : queue.getRange(from, to))
+                    songs.add(track.toString());
+                return songs;
+            }
+        };
+    }
+
+    private String getQueueTitle(AudioHandler ah, String success, GuildQueue<QueuedTrack> queue, RepeatMode repeatmode) {
         StringBuilder sb = new StringBuilder();
         if (ah.getPlayer().getPlayingTrack() != null) {
             sb.append(ah.getPlayer().isPaused() ? JMusicBot.PAUSE_EMOJI : JMusicBot.PLAY_EMOJI).append(" **")
@@ -159,8 +147,11 @@ public class QueueCmd extends MusicCommand {
                             ah.getPlayer().getPlayingTrack().getInfo().uri.matches(".*stream.gensokyoradio.net/.*") ? "幻想郷ラジオ" :
                                     ah.getPlayer().getPlayingTrack().getInfo().title).append("**\n");
         }
-        return FormatUtil.filter(sb.append(success).append(" 再生待ち楽曲一覧 | ").append(songslength)
-                .append(" エントリー | `").append(FormatUtil.formatTime(total)).append("` ")
+        // 曲数と長さは同じ時点の値を表示するため、まとめて読み取る
+        // まだ読み込んでいない楽曲の長さは、合計に含まれない
+        String summary = queue.call(q -> q.size() + " エントリー | `" + FormatUtil.formatTime(q.getTotalDuration()) + "` "
+                + (q.getUnknownDurationCount() > 0 ? "(長さ不明: " + q.getUnknownDurationCount() + "曲) " : ""));
+        return FormatUtil.filter(sb.append(success).append(" 再生待ち楽曲一覧 | ").append(summary)
                 // RepeatMode.OFF - ""
                 // RepeatMode.ALL - QueueCmd.REPEAT_ALL
                 // RepeatMode.SINGLE = QueueCmd.REPEAT_SINGLE
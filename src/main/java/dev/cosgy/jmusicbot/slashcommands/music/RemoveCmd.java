@@ -21,6 +21,7 @@ import com.jagrosh.jmusicbot.Bot;
 import com.jagrosh.jmusicbot.audio.AudioHandler;
 import com.jagrosh.jmusicbot.audio.QueuedTrack;
 import com.jagrosh.jmusicbot.settings.Settings;
+import com.jagrosh.jmusicbot.utils.FormatUtil;
 import dev.cosgy.jmusicbot.slashcommands.MusicCommand;
 import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.User;
@@ -38,12 +39,12 @@ public class RemoveCmd extends MusicCommand {
         super(bot);
         this.name = "remove";
         this.help = "再生待ちから曲を削除します";
-        this.arguments = "<再生待ち番号|すべて|ALL>";
+        this.arguments = "<再生待ち番号|曲名|すべて|ALL>";
         this.aliases = bot.getConfig().getAliases(this.name);
         this.beListening = true;
         this.bePlaying = true;
         List<OptionData> options = new ArrayList<>();
-        options.add(new OptionData(OptionType.STRING, "input", "再生待ち番号|すべて|ALL", true));
+        options.add(new OptionData(OptionType.STRING, "input", "再生待ち番号|曲名|すべて|ALL", true));
         this.options = options;
     }
 
@@ -66,7 +67,11 @@ public class RemoveCmd extends MusicCommand {
         try {
             pos = Integer.parseInt(event.getArgs());
         } catch (NumberFormatException e) {
-            pos = 0;
+            pos = findByTitle(handler, event.getArgs(), event.getAuthor().getIdLong());
+            if (pos < 1) {
+                event.replyError("`" + FormatUtil.filter(event.getArgs()) + "` に一致する曲は再生待ちにありません。");
+                return;
+            }
         }
         if (pos < 1 || pos > handler.getQueue().size()) {
             event.replyError(String.format("1から%sまでの有効な数字を入力してください!", handler.getQueue().size()));
@@ -76,22 +81,23 @@ public class RemoveCmd extends MusicCommand {
         boolean isDJ = event.getMember().hasPermission(Permission.MANAGE_SERVER);
         if (!isDJ)
             isDJ = event.getMember().getRoles().contains(settings.getRole(event.getGuild()));
-        QueuedTrack qt = handler.getQueue().get(pos - 1);
-        if (qt.getIdentifier() == event.getAuthor().getIdLong()) {
-            handler.getQueue().remove(pos - 1);
-            event.replySuccess("**" + (qt.getTrack().getInfo().uri.contains("https://stream.gensokyoradio.net/") ? "幻想郷ラジオ" : qt.getTrack().getInfo().title) + "**をキューから削除しました。");
+        // 確認と削除は同じ順番待ちの中で行う。削除したかどうかは、返された楽曲から同じ条件で判断する
+        QueuedTrack qt = handler.getQueue().removeIfAllowed(pos - 1, event.getAuthor().getIdLong(), isDJ);
+        if (qt == null) {
+            event.replyError(String.format("1から%sまでの有効な数字を入力してください!", handler.getQueue().size()));
+        } else if (qt.getIdentifier() == event.getAuthor().getIdLong()) {
+            event.replySuccess("**" + (qt.getInfo().uri.contains("https://stream.gensokyoradio.net/") ? "幻想郷ラジオ" : qt.getInfo().title) + "**をキューから削除しました。");
         } else if (isDJ) {
-            handler.getQueue().remove(pos - 1);
             User u;
             try {
                 u = event.getJDA().getUserById(qt.getIdentifier());
             } catch (Exception e) {
                 u = null;
             }
-            event.replySuccess("**" + qt.getTrack().getInfo().title
+            event.replySuccess("**" + qt.getInfo().title
                     + "**を再生待ちから削除しました。\n(この曲は" + (u == null ? "誰かがリクエストしました。" : "**" + u.getName() + "**がリクエストしました。") + ")");
         } else {
-            event.replyError("**" + (qt.getTrack().getInfo().uri.contains("https://stream.gensokyoradio.net/") ? "幻想郷ラジオ" : qt.getTrack().getInfo().title) + "** を削除できませんでした。理由: DJ権限を持っていますか？自分のリクエスト以外は削除できません。");
+            event.replyError("**" + (qt.getInfo().uri.contains("https://stream.gensokyoradio.net/") ? "幻想郷ラジオ" : qt.getInfo().title) + "** を削除できませんでした。理由: DJ権限を持っていますか？自分のリクエスト以外は削除できません。");
         }
     }
 
@@ -115,7 +121,11 @@ public class RemoveCmd extends MusicCommand {
         try {
             pos = Integer.parseInt(event.getOption("input").getAsString());
         } catch (NumberFormatException e) {
-            pos = 0;
+            pos = findByTitle(handler, event.getOption("input").getAsString(), event.getUser().getIdLong());
+            if (pos < 1) {
+                event.reply(event.getClient().getError() + "`" + FormatUtil.filter(event.getOption("input").getAsString()) + "` に一致する曲は再生待ちにありません。").queue();
+                return;
+            }
         }
         if (pos < 1 || pos > handler.getQueue().size()) {
             event.reply(event.getClient().getError() + String.format("1から%sまでの有効な数字を入力してください!", handler.getQueue().size())).queue();
@@ -125,22 +135,35 @@ public class RemoveCmd extends MusicCommand {
         boolean isDJ = event.getMember().hasPermission(Permission.MANAGE_SERVER);
         if (!isDJ)
             isDJ = event.getMember().getRoles().contains(settings.getRole(event.getGuild()));
-        QueuedTrack qt = handler.getQueue().get(pos - 1);
-        if (qt.getIdentifier() == event.getUser().getIdLong()) {
-            handler.getQueue().remove(pos - 1);
-            event.reply(event.getClient().getSuccess() + "**" + qt.getTrack().getInfo().title + "**をキューから削除しました。").queue();
+        // 確認と削除は同じ順番待ちの中で行う。削除したかどうかは、返された楽曲から同じ条件で判断する
+        QueuedTrack qt = handler.getQueue().removeIfAllowed(pos - 1, event.getUser().getIdLong(), isDJ);
+        if (qt == null) {
+            event.reply(event.getClient().getError() + String.format("1から%sまでの有効な数字を入力してください!", handler.getQueue().size())).queue();
+        } else if (qt.getIdentifier() == event.getUser().getIdLong()) {
+            event.reply(event.getClient().getSuccess() + "**" + qt.getInfo().title + "**をキューから削除しました。").queue();
         } else if (isDJ) {
-            handler.getQueue().remove(pos - 1);
             User u;
             try {
                 u = event.getJDA().getUserById(qt.getIdentifier());
             } catch (Exception e) {
                 u = null;
             }
-            event.reply(event.getClient().getSuccess() + "**" + qt.getTrack().getInfo().title
+            event.reply(event.getClient().getSuccess() + "**" + qt.getInfo().title
                     + "**を再生待ちから削除しました。\n(この曲は" + (u == null ? "誰かがリクエストしました。" : "**" + u.getName() + "**がリクエストしました。") + ")").queue();
         } else {
-            event.reply(event.getClient().getError() + "**" + qt.getTrack().getInfo().title + "** を削除できませんでした。理由: DJ権限を持っていますか？自分のリクエスト以外は削除できません。").queue();
+            event.reply(event.getClient().getError() + "**" + qt.getInfo().title + "** を削除できませんでした。理由: DJ権限を持っていますか？自分のリクエスト以外は削除できません。").queue();
         }
     }
+
+    /**
+     * 曲名で再生待ちを検索します。自分がリクエストした曲を優先します。
+     *
+     * @return 見つかった曲の再生待ち番号。見つからない場合は 0
+     */
+    private static int findByTitle(AudioHandler handler, String query, long userId) {
+        int index = handler.getQueue().indexOf(query, userId);
+        if (index < 0)
+            index = handler.getQueue().indexOf(query);
+        return index + 1;
+    }
 }
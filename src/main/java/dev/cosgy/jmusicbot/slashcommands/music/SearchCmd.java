@@ -76,13 +76,13 @@ public class SearchCmd extends MusicCommand {
             return;
         }
         event.reply(searchingEmoji + "`[" + event.getArgs() + "]`を検索中... ",
-                m -> bot.getPlayerManager().loadItemOrdered(event.getGuild(), searchPrefix + event.getArgs(), new ResultHandler(m, event)));
+                m -> bot.getPlayerManager().loadInteractive(event.getGuild(), searchPrefix + event.getArgs(), new ResultHandler(m, event)));
     }
 
     @Override
     public void doCommand(SlashCommandEvent event) {
         event.reply(searchingEmoji + "`[" + event.getOption("input").getAsString() + "]`を検索中... ").queue(
-                m -> bot.getPlayerManager().loadItemOrdered(event.getGuild(), searchPrefix + event.getOption("input").getAsString(), new SlashResultHandler(m, event)));
+                m -> bot.getPlayerManager().loadInteractive(event.getGuild(), searchPrefix + event.getOption("input").getAsString(), new SlashResultHandler(m, event)));
     }
 
     private class SlashResultHandler implements AudioLoadResultHandler {
@@ -163,7 +163,7 @@ public class SpotifyCmd extends MusicCommand {
 
             event.getTextChannel().sendMessageEmbeds(embed.build()).queue();
 
-            event.reply("`[" + trackName + "]`を読み込み中です…").queue(m -> bot.getPlayerManager().loadItemOrdered(event.getGuild(), "ytmsearch:"+trackName + " " + artistName, new SlashResultHandler(m, event)));
+            event.reply("`[" + trackName + "]`を読み込み中です…").queue(m -> bot.getPlayerManager().loadInteractive(event.getGuild(), "ytmsearch:"+trackName + " " + artistName, new SlashResultHandler(m, event)));
         } catch (IOException | InterruptedException e) {
             event.reply("Error: " + e.getMessage()).queue();
         }
@@ -237,7 +237,7 @@ public class SpotifyCmd extends MusicCommand {
 
             event.getTextChannel().sendMessageEmbeds(embed.build()).queue();
 
-            event.reply("`[" + trackName + "]`を読み込み中です…", m -> bot.getPlayerManager().loadItemOrdered(event.getGuild(), "ytmsearch:"+trackName + " " + artistName, new ResultHandler(m, event)));
+            event.reply("`[" + trackName + "]`を読み込み中です…", m -> bot.getPlayerManager().loadInteractive(event.getGuild(), "ytmsearch:"+trackName + " " + artistName, new ResultHandler(m, event)));
         } catch (IOException | InterruptedException e) {
             event.reply("Error: " + e.getMessage());
         }
@@ -4,14 +4,24 @@ import com.jagrosh.jdautilities.command.CommandEvent;
 import com.jagrosh.jdautilities.command.SlashCommandEvent;
 import com.jagrosh.jdautilities.commons.JDAUtilitiesInfo;
 import com.jagrosh.jmusicbot.Bot;
+import com.jagrosh.jmusicbot.audio.AudioHandler;
+import com.jagrosh.jmusicbot.audio.LiveStreamBroadcaster;
+import com.jagrosh.jmusicbot.audio.LoadScheduler;
+import com.jagrosh.jmusicbot.audio.PlaybackStats;
+import com.jagrosh.jmusicbot.audio.QualityController;
+import com.jagrosh.jmusicbot.audio.RequestMetadata;
 import com.jagrosh.jmusicbot.utils.OtherUtil;
 import com.sedmelluq.discord.lavaplayer.tools.PlayerLibrary;
+import dev.cosgy.jmusicbot.playlist.TrackCache;
 import dev.cosgy.jmusicbot.slashcommands.OwnerCommand;
 import net.dv8tion.jda.api.JDAInfo;
 import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.channel.ChannelType;
 import net.dv8tion.jda.api.utils.FileUpload;
 
+import java.util.Map;
+
 public class DebugCmd extends OwnerCommand {
     private final static String[] PROPERTIES = {"java.version", "java.vm.name", "java.vm.specification.version",
             "java.runtime.name", "java.runtime.version", "java.specification.version", "os.arch", "os.name"};
@@ -51,11 +61,16 @@ public class DebugCmd extends OwnerCommand {
         long used = total - (Runtime.getRuntime().freeMemory() / 1024 / 1024);
         sb.append("\n\nランタイム情報:")
                 .append("\n  Total Memory = ").append(total)
-                .append("\n  Used Memory = ").append(used);
+                .append("\n  Used Memory = ").append(used)
+                .append("\n  Transcoding Players = ").append(bot.getPlayerManager().getTranscodingPlayerCount())
+                .append("\n  Interned Requesters = ").append(RequestMetadata.getInternedCount())
+                .append("\n  Loaded Guild Settings = ").append(bot.getSettingsManager().getLoadedCount());
+        appendQualityInfo(sb);
         sb.append("\n\nDiscord情報:")
                 .append("\n  ID = ").append(event.getJDA().getSelfUser().getId())
                 .append("\n  Guilds = ").append(event.getJDA().getGuildCache().size())
                 .append("\n  Users = ").append(event.getJDA().getUserCache().size());
+        appendAudioInfo(sb, event.getGuild());
         sb.append("\nこのファイルを開発者に送信する場合は編集せずに送信するようにお願いします。")
                 .append("\nこのファイルには個人情報を特定、アカウントの乗っ取りなどに使用できるデータは含んでいません。");
 
@@ -92,11 +107,16 @@ public class DebugCmd extends OwnerCommand {
         long used = total - (Runtime.getRuntime().freeMemory() / 1024 / 1024);
         sb.append("\n\nランタイム情報:")
                 .append("\n  Total Memory = ").append(total)
-                .append("\n  Used Memory = ").append(used);
+                .append("\n  Used Memory = ").append(used)
+                .append("\n  Transcoding Players = ").append(bot.getPlayerManager().getTranscodingPlayerCount())
+                .append("\n  Interned Requesters = ").append(RequestMetadata.getInternedCount())
+                .append("\n  Loaded Guild Settings = ").append(bot.getSettingsManager().getLoadedCount());
+        appendQualityInfo(sb);
         sb.append("\n\nDiscord情報:")
                 .append("\n  ID = ").append(event.getJDA().getSelfUser().getId())
                 .append("\n  Guilds = ").append(event.getJDA().getGuildCache().size())
                 .append("\n  Users = ").append(event.getJDA().getUserCache().size());
+        appendAudioInfo(sb, event.isFromType(ChannelType.PRIVATE) ? null : event.getGuild());
         sb.append("\nこのファイルを開発者に送信する場合は編集せずに送信するようにお願いします。");
 
         if (event.isFromType(ChannelType.PRIVATE)
@@ -105,4 +125,62 @@ public class DebugCmd extends OwnerCommand {
         else
             event.reply("デバッグ情報: ```\n" + sb + "\n```");
     }
-}
\ No newline at end of file
+
+    private void appendAudioInfo(StringBuilder sb, Guild guild) {
+        if (guild == null || !(guild.getAudioManager().getSendingHandler() instanceof AudioHandler))
+            return;
+        AudioHandler handler = (AudioHandler) guild.getAudioManager().getSendingHandler();
+        PlaybackStats stats = handler.getStats();
+        sb.append("\n\n再生情報 (このサーバー):")
+                .append("\n  Opus Passthrough = ").append(!handler.isTranscoding())
+                .append("\n  Channel Bitrate = ").append(handler.getChannelBitrate() / 1000).append("kbps")
+                .append("\n  Opus Quality = ").append(handler.getAppliedQuality())
+                .append("\n  Buffered Frames = ").append(stats.getBufferedFrames()).append("/").append(stats.getBufferCapacity())
+                .append("\n  Buffer Low Water Mark = ").append(stats.getLowWaterMark())
+                .append("\n  Underruns = ").append(stats.getUnderruns())
+                .append("\n  Stalls = ").append(handler.getStalls())
+                .append("\n  Stall Policy = ").append(bot.getSettingsManager().getSettings(guild).getStallPolicy())
+                .append("\n  Last Recovery = ").append(stats.getLastRecoveryMillis()).append("ms")
+                .append("\n  Average Recovery = ").append(stats.getAverageRecoveryMillis()).append("ms")
+                .append("\n  Max Recovery = ").append(stats.getMaxRecoveryMillis()).append("ms");
+    }
+
+    private void appendQualityInfo(StringBuilder sb) {
+        QualityController qc = bot.getPlayerManager().getQualityController();
+        sb.append("\n\nエンコード品質:")
+                .append("\n  Opus Quality = ").append(qc.getQuality()).append(" (").append(qc.getFloor()).append("-").append(qc.getCeiling()).append(")")
+                .append("\n  Resampling Quality = ").append(qc.getResamplingQuality().name())
+                .append("\n  Process CPU = ").append(qc.getLastCpuLoad() < 0 ? "-" : Math.round(qc.getLastCpuLoad() * 100) + "%")
+                .append("\n  Steps Down = ").append(qc.getStepsDown())
+                .append("\n  Steps Up = ").append(qc.getStepsUp())
+                .append("\n  Bitrate Limited Players = ").append(bot.getPlayerManager().getBitrateLimitedPlayerCount())
+                .append("\n  Estimated Encoder CPU Saved = ").append(Math.round(bot.getPlayerManager().getEstimatedEncoderSaving() * 100)).append("%");
+        sb.append("\n\n曲間の無音時間 (").append(bot.getPlayerManager().getTrackGaps().getCount()).append("回):")
+                .append("\n  ").append(bot.getPlayerManager().getTrackGaps());
+        LiveStreamBroadcaster broadcaster = bot.getPlayerManager().getBroadcaster();
+        sb.append("\n\nライブ配信の共有:")
+                .append("\n  Enabled = ").append(bot.getConfig().isShareLiveStreams())
+                .append("\n  Shared Streams = ").append(broadcaster.getBroadcastCount())
+                .append("\n  Subscribers = ").append(broadcaster.getSubscriberCount());
+        TrackCache cache = bot.getPlayerManager().getTrackCache();
+        sb.append("\n\n読み込み結果のキャッシュ:")
+                .append("\n  Enabled = ").append(cache != null);
+        if (cache != null)
+            sb.append("\n  Entries = ").append(cache.size())
+                    .append("\n  Size = ").append(cache.getTotalBytes() / 1024).append("KB")
+                    .append("\n  Hits = ").append(cache.getHits())
+                    .append("\n  Misses = ").append(cache.getMisses());
+        LoadScheduler scheduler = bot.getPlayerManager().getLoadScheduler();
+        if (scheduler != null)
+            sb.append("\n\n楽曲の読み込み待ち:")
+                    .append("\n  Interactive = ").append(scheduler.getInteractivePending())
+                    .append("\n  Bulk = ").append(scheduler.getBulkPending())
+                    .append("\n  Dropped = ").append(scheduler.getDropped())
+                    .append("\n  Item Timeouts = ").append(scheduler.getItemTimeouts());
+        sb.append("\n\n再生停止の検出 (ソース別):");
+        Map<String, Long> stalls = bot.getPlayerManager().getStallsBySource();
+        if (stalls.isEmpty())
+            sb.append("\n  なし");
+        stalls.forEach((source, count) -> sb.append("\n  ").append(source).append(" = ").append(count));
+    }
+}
@@ -4,9 +4,7 @@ import com.jagrosh.jdautilities.command.Command;
 import com.jagrosh.jdautilities.command.CommandEvent;
 import com.jagrosh.jdautilities.command.SlashCommandEvent;
 import com.jagrosh.jmusicbot.Bot;
-import dev.cosgy.jmusicbot.playlist.MylistLoader;
-import dev.cosgy.jmusicbot.playlist.PubliclistLoader;
-import dev.cosgy.jmusicbot.playlist.PubliclistLoader.Playlist;
+import com.jagrosh.jmusicbot.playlist.PlaylistLoader.Playlist;
 import dev.cosgy.jmusicbot.slashcommands.OwnerCommand;
 import dev.cosgy.jmusicbot.slashcommands.admin.AutoplaylistCmd;
 import dev.cosgy.jmusicbot.slashcommands.music.MylistCmd;
@@ -79,7 +77,7 @@ public class PublistCmd extends OwnerCommand {
         protected void execute(SlashCommandEvent event) {
             String playlistName = event.getOption("name").getAsString();
 
-            PubliclistLoader.Playlist playlist = bot.getPublistLoader().getPlaylist(playlistName);
+            Playlist playlist = bot.getPublistLoader().getPlaylist(playlistName);
             if (playlist == null) {
                 event.reply(event.getClient().getError() + " 再生リスト `" + playlistName + "` が見つかりませんでした。").queue();
                 return;
@@ -112,7 +110,7 @@ public class PublistCmd extends OwnerCommand {
                 return;
             }
 
-            PubliclistLoader.Playlist playlist = bot.getPublistLoader().getPlaylist(playlistName);
+            Playlist playlist = bot.getPublistLoader().getPlaylist(playlistName);
             if (playlist == null) {
                 event.reply(event.getClient().getError() + " 再生リスト `" + playlistName + "` が見つかりませんでした。");
                 return;
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package dev.cosgy.jmusicbot.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongFunction;
+
+/**
+ * {@code long} をキーとするスレッドセーフなマップです。
+ * <p>
+ * 読み取りはロックを取らず、キーを {@link Long} に変換することもありません。
+ * 書き込みは1つのロックで順番に行います。ギルドIDのように、読み取りが非常に多く、書き込みが少ない用途を想定しています。
+ * <p>
+ * 開番地法のハッシュ表で、各要素はキーと値を持つ変更されないエントリです。
+ * 表を拡張する場合は新しい表を作成してから置き換えるため、読み取り中の表が書き換えられることはありません。
+ * 削除した位置には目印を置き、目印が増えたら表を作り直します。
+ *
+ * @param <V> 値の型
+ * @author Cosgy Dev
+ */
+public class ConcurrentLongMap<V> {
+    private static final int MIN_CAPACITY = 16;
+    private static final Entry<?> REMOVED = new Entry<>(0, null);
+
+    private volatile AtomicReferenceArray<Entry<V>> table = new AtomicReferenceArray<>(MIN_CAPACITY);
+    private volatile int size;
+    // 空でない位置の数(削除の目印を含む)
+    private int used;
+
+    /**
+     * @return キーに対応する値、ない場合は {@code null}
+     */
+    public V get(long key) {
+        AtomicReferenceArray<Entry<V>> t = table;
+        int mask = t.length() - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            Entry<V> e = t.get(i);
+            if (e == null)
+                return null;
+            if (e.key == key && e != REMOVED)
+                return e.value;
+        }
+    }
+
+    /**
+     * キーに対応する値がなければ {@code function} で作成して追加します。
+     * {@code function} はロックを取った状態で呼ばれるため、時間のかかる処理は避けてください。
+     *
+     * @return キーに対応する値
+     */
+    public V computeIfAbsent(long key, LongFunction<? extends V> function) {
+        V value = get(key);
+        if (value != null)
+            return value;
+        synchronized (this) {
+            int index = find(table, key);
+            if (index >= 0)
+                return table.get(index).value;
+            value = function.apply(key);
+            if (value != null)
+                insert(key, value);
+            return value;
+        }
+    }
+
+    /**
+     * @return 以前の値、ない場合は {@code null}
+     */
+    public synchronized V put(long key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        int index = find(table, key);
+        if (index >= 0) {
+            V old = table.get(index).value;
+            table.set(index, new Entry<>(key, value));
+            return old;
+        }
+        insert(key, value);
+        return null;
+    }
+
+    /**
+     * キーに対応する値が {@code value} と同じインスタンスの場合だけ削除します。
+     *
+     * @return 削除した場合は {@code true}
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized boolean remove(long key, V value) {
+        int index = find(table, key);
+        if (index < 0 || table.get(index).value != value)
+            return false;
+        table.set(index, (Entry<V>) REMOVED);
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * その時点の全ての要素を順に渡します。途中で追加・削除された要素は渡される場合と渡されない場合があります。
+     */
+    public void forEach(EntryConsumer<? super V> action) {
+        AtomicReferenceArray<Entry<V>> t = table;
+        for (int i = 0; i < t.length(); i++) {
+            Entry<V> e = t.get(i);
+            if (e != null && e != REMOVED)
+                action.accept(e.key, e.value);
+        }
+    }
+
+    private static <V> int find(AtomicReferenceArray<Entry<V>> t, long key) {
+        int mask = t.length() - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            Entry<V> e = t.get(i);
+            if (e == null)
+                return -1;
+            if (e.key == key && e != REMOVED)
+                return i;
+        }
+    }
+
+    /**
+     * キーがないことを確認した後に呼び出します。表の半分以上が埋まる場合は、先に表を作り直します。
+     */
+    private void insert(long key, V value) {
+        if ((used + 1) * 2 > table.length())
+            rehash();
+        AtomicReferenceArray<Entry<V>> t = table;
+        int mask = t.length() - 1;
+        int i = hash(key) & mask;
+        while (t.get(i) != null && t.get(i) != REMOVED)
+            i = (i + 1) & mask;
+        if (t.get(i) == null)
+            used++;
+        t.set(i, new Entry<>(key, value));
+        size++;
+    }
+
+    private void rehash() {
+        int capacity = MIN_CAPACITY;
+        while (capacity < (size + 1) * 4)
+            capacity <<= 1;
+        AtomicReferenceArray<Entry<V>> old = table;
+        AtomicReferenceArray<Entry<V>> t = new AtomicReferenceArray<>(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < old.length(); j++) {
+            Entry<V> e = old.get(j);
+            if (e == null || e == REMOVED)
+                continue;
+            int i = hash(e.key) & mask;
+            while (t.get(i) != null)
+                i = (i + 1) & mask;
+            t.set(i, e);
+        }
+        used = size;
+        table = t;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * {@link #forEach} に渡す処理です。
+     */
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    private static final class Entry<V> {
+        private final long key;
+        private final V value;
+
+        private Entry(long key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package dev.cosgy.jmusicbot.util;
+
+import com.jagrosh.jdautilities.commons.waiter.EventWaiter;
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.entities.UserSnowflake;
+import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
+import net.dv8tion.jda.api.entities.emoji.Emoji;
+import net.dv8tion.jda.api.events.message.react.MessageReactionAddEvent;
+import net.dv8tion.jda.api.exceptions.PermissionException;
+import net.dv8tion.jda.api.utils.messages.MessageCreateBuilder;
+import net.dv8tion.jda.api.utils.messages.MessageCreateData;
+import net.dv8tion.jda.api.utils.messages.MessageEditData;
+
+import java.awt.Color;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * 表示するページの項目だけをその都度作成するページ送りです。
+ * <p>
+ * {@link com.jagrosh.jdautilities.menu.Paginator} は全ての項目を先に文字列にしておく必要がありますが、
+ * こちらはページを表示するたびに {@link PageSource} から必要な範囲だけを受け取ります。
+ * 項目の数もページを表示するたびに取得し直すため、表示中に項目が増減しても正しいページ数になります。
+ *
+ * @author Cosgy Dev
+ */
+public class LazyPaginator {
+    private static final String LEFT = "◀";
+    private static final String STOP = "⏹";
+    private static final String RIGHT = "▶";
+
+    private final EventWaiter waiter;
+    private final int itemsPerPage;
+    private final long timeout;
+    private final TimeUnit unit;
+
+    public LazyPaginator(EventWaiter waiter, int itemsPerPage, long timeout, TimeUnit unit) {
+        this.waiter = waiter;
+        this.itemsPerPage = itemsPerPage;
+        this.timeout = timeout;
+        this.unit = unit;
+    }
+
+    /**
+     * ページの項目を提供します。
+     */
+    public interface PageSource {
+        int size();
+
+        /**
+         * @param from 最初の項目の位置
+         * @param to   最後の項目の位置の次
+         * @return 表示する文字列
+         */
+        List<String> render(int from, int to);
+    }
+
+    /**
+     * @param channel 表示するチャンネル
+     * @param pageNum 最初に表示するページ
+     * @param source  項目
+     * @param text    ページ番号とページ数から、埋め込みの上に表示する文字列を作成する
+     * @param color   埋め込みの色
+     * @param user    ページを送ることができるユーザー
+     */
+    public void paginate(MessageChannel channel, int pageNum, PageSource source, BiFunction<Integer, Integer, String> text,
+                         Color color, User user) {
+        int pages = pages(source);
+        int page = Math.max(1, Math.min(pageNum, pages));
+        channel.sendMessage(render(page, pages, source, text, color)).queue(m -> {
+            // 1ページしかない場合は操作を待たない
+            if (pages <= 1)
+                return;
+            m.addReaction(Emoji.fromUnicode(LEFT)).queue();
+            m.addReaction(Emoji.fromUnicode(STOP)).queue();
+            m.addReaction(Emoji.fromUnicode(RIGHT)).queue(v -> waitForReaction(m, page, source, text, color, user), t -> finish(m));
+        });
+    }
+
+    private void waitForReaction(Message message, int page, PageSource source, BiFunction<Integer, Integer, String> text,
+                                 Color color, User user) {
+        waiter.waitForEvent(MessageReactionAddEvent.class,
+                e -> e.getMessageIdLong() == message.getIdLong() && e.getUserIdLong() == user.getIdLong()
+                        && isControl(e.getEmoji().getName()),
+                e -> {
+                    String name = e.getEmoji().getName();
+                    if (STOP.equals(name)) {
+                        finish(message);
+                        return;
+                    }
+                    int pages = pages(source);
+                    int next = LEFT.equals(name) ? page - 1 : page + 1;
+                    if (next < 1)
+                        next = pages;
+                    else if (next > pages)
+                        next = 1;
+                    int shown = next;
+                    try {
+                        e.getReaction().removeReaction(UserSnowflake.fromId(e.getUserIdLong())).queue(v -> {
+                        }, t -> {
+                        });
+                    } catch (PermissionException ignore) {
+                    }
+                    message.editMessage(MessageEditData.fromCreateData(render(shown, pages, source, text, color)))
+                            .queue(m -> waitForReaction(m, shown, source, text, color, user), t -> finish(message));
+                },
+                timeout, unit, () -> finish(message));
+    }
+
+    private MessageCreateData render(int page, int pages, PageSource source, BiFunction<Integer, Integer, String> text, Color color) {
+        int start = (page - 1) * itemsPerPage;
+        List<String> items = source.render(start, start + itemsPerPage);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < items.size(); i++)
+            sb.append("\n`").append(start + i + 1).append(".` ").append(items.get(i));
+        EmbedBuilder eb = new EmbedBuilder()
+                .setDescription(sb.toString())
+                .setColor(color)
+                .setFooter("Page " + page + "/" + pages, null);
+        return new MessageCreateBuilder()
+                .setContent(text.apply(page, pages))
+                .setEmbeds(eb.build())
+                .build();
+    }
+
+    private int pages(PageSource source) {
+        return Math.max(1, (source.size() + itemsPerPage - 1) / itemsPerPage);
+    }
+
+    private static boolean isControl(String name) {
+        return LEFT.equals(name) || STOP.equals(name) || RIGHT.equals(name);
+    }
+
+    private static void finish(Message message) {
+        try {
+            message.clearReactions().queue(v -> {
+            }, t -> {
+            });
+        } catch (PermissionException ignore) {
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot;
+
+import com.sedmelluq.discord.lavaplayer.format.AudioDataFormat;
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
+import com.sedmelluq.discord.lavaplayer.track.playback.AllocatingAudioFrameBuffer;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrameBuffer;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+import com.sedmelluq.discord.lavaplayer.track.playback.NonAllocatingAudioFrameBuffer;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * AudioHandler の送信経路で1フレームあたりに確保されるバイト数を計測します。
+ * JUnit では実行されないので、main メソッドから直接実行してください。
+ *
+ * <ul>
+ *     <li>before: AllocatingAudioFrameBuffer + provide() + ByteBuffer.wrap() (以前の実装)</li>
+ *     <li>after: NonAllocatingAudioFrameBuffer + provide(MutableAudioFrame) + 使い回しの ByteBuffer</li>
+ * </ul>
+ */
+public class AudioSendBenchmark {
+    private static final AudioDataFormat FORMAT = StandardAudioDataFormats.DISCORD_OPUS;
+    private static final int WARMUP = 200_000;
+    private static final int FRAMES = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("before: %.1f bytes/frame%n", run(false));
+        System.out.printf("after : %.1f bytes/frame%n", run(true));
+    }
+
+    private static double run(boolean mutable) throws Exception {
+        AtomicBoolean stopping = new AtomicBoolean(false);
+        AudioFrameBuffer buffer = mutable
+                ? new NonAllocatingAudioFrameBuffer(5000, FORMAT, stopping)
+                : new AllocatingAudioFrameBuffer(5000, FORMAT, stopping);
+
+        // デコーダ側と同様に、生成側は同じフレームを使い回して consume() に渡す
+        byte[] payload = new byte[160];
+        ByteBuffer producerBuffer = ByteBuffer.allocate(FORMAT.maximumChunkSize());
+        MutableAudioFrame offered = new MutableAudioFrame();
+        offered.setFormat(FORMAT);
+        offered.setVolume(100);
+
+        ByteBuffer sendBuffer = ByteBuffer.allocate(FORMAT.maximumChunkSize());
+        MutableAudioFrame sendFrame = new MutableAudioFrame();
+        sendFrame.setBuffer(sendBuffer);
+
+        long sink = 0;
+        long start = 0;
+        for (int i = 0; i < WARMUP + FRAMES; i++) {
+            if (i == WARMUP)
+                start = allocatedBytes();
+
+            producerBuffer.clear();
+            offered.setBuffer(producerBuffer);
+            offered.setTimecode(i * 20L);
+            offered.store(payload, 0, payload.length);
+            buffer.consume(offered);
+
+            ByteBuffer sent;
+            if (mutable) {
+                if (!buffer.provide(sendFrame))
+                    continue;
+                sent = sendBuffer.flip();
+            } else {
+                sent = ByteBuffer.wrap(buffer.provide().getData());
+            }
+            sink += sent.remaining();
+        }
+        long allocated = allocatedBytes() - start;
+
+        if (sink == 0)
+            System.out.println("no frames were sent");
+        return (double) allocated / FRAMES;
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot;
+
+import com.jagrosh.jmusicbot.audio.AudioSendSystems;
+import com.jagrosh.jmusicbot.audio.DedicatedAudioSendFactory;
+import net.dv8tion.jda.api.audio.factory.DefaultSendFactory;
+import net.dv8tion.jda.api.audio.factory.IAudioSendFactory;
+import net.dv8tion.jda.api.audio.factory.IAudioSendSystem;
+import net.dv8tion.jda.api.audio.factory.IPacketProvider;
+import net.dv8tion.jda.api.audio.hooks.ConnectionStatus;
+import net.dv8tion.jda.api.entities.channel.middleman.AudioChannel;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JDA標準の送信処理と {@link DedicatedAudioSendFactory}、ネイティブの送信キューで、人工的にGCの負荷をかけた状態での
+ * パケットの送信間隔のばらつき(ジッター)を比較します。
+ * ループバックのUDPでパケットを受信し、受信間隔と20msとの差を集計します。
+ * JUnit では実行されないので、main メソッドから直接実行してください。
+ * <p>
+ * native の計測には、JDA 5 に対応した jda-nas をクラスパスに追加する必要があります。
+ * 読み込めない場合は native を省略せず、エラーを表示して終了コード 1 で終了します。
+ * <p>
+ * 引数: [1モードあたりの秒数 (既定: 60)]
+ */
+public class AudioSendJitterBenchmark {
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+
+        Thread[] load = new Thread[2];
+        for (int i = 0; i < load.length; i++) {
+            load[i] = new Thread(AudioSendJitterBenchmark::allocate, "allocation-load-" + i);
+            load[i].setDaemon(true);
+            load[i].start();
+        }
+
+        report("default  ", run(new DefaultSendFactory(), seconds));
+        report("dedicated", run(new DedicatedAudioSendFactory(), seconds));
+
+        IAudioSendFactory nativeFactory;
+        try {
+            nativeFactory = AudioSendSystems.createNative();
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+            // 比較結果に native が含まれないことを見落とさないよう、失敗として終了する
+            System.err.println("native   : ネイティブの送信キュー (" + AudioSendSystems.NATIVE_FACTORY + ") を読み込めませんでした");
+            e.printStackTrace();
+            System.exit(1);
+            return;
+        }
+        report("native   ", run(nativeFactory, seconds));
+    }
+
+    /**
+     * 寿命の異なるオブジェクトを確保し続け、若い世代と古い世代の両方でGCを発生させます。
+     */
+    private static void allocate() {
+        Object[] retained = new Object[4096];
+        int i = 0;
+        while (true) {
+            retained[i++ & (retained.length - 1)] = new byte[16 * 1024];
+            byte[] garbage = new byte[256];
+            garbage[0] = (byte) i;
+        }
+    }
+
+    private static long[] run(IAudioSendFactory factory, int seconds) throws Exception {
+        try (DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             DatagramSocket sender = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            receiver.setSoTimeout(1000);
+            FakePacketProvider provider = new FakePacketProvider(sender,
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.getLocalPort()));
+            IAudioSendSystem system = factory.createSendSystem(provider);
+
+            long[] deviations = new long[seconds * 50];
+            int count = 0;
+            byte[] data = new byte[2048];
+            DatagramPacket packet = new DatagramPacket(data, data.length);
+
+            system.start();
+            try {
+                long last = 0;
+                long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+                while (System.nanoTime() < end && count < deviations.length) {
+                    try {
+                        receiver.receive(packet);
+                    } catch (SocketTimeoutException e) {
+                        continue;
+                    }
+                    long now = System.nanoTime();
+                    if (last != 0)
+                        deviations[count++] = Math.abs(now - last - FRAME_NANOS);
+                    last = now;
+                }
+            } finally {
+                system.shutdown();
+            }
+            return Arrays.copyOf(deviations, count);
+        }
+    }
+
+    private static void report(String name, long[] deviations) {
+        Arrays.sort(deviations);
+        if (deviations.length == 0) {
+            System.out.println(name + ": no packets received");
+            return;
+        }
+        System.out.printf("%s: packets=%d p50=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms%n", name, deviations.length + 1,
+                millis(deviations, 0.50), millis(deviations, 0.99), millis(deviations, 0.999),
+                deviations[deviations.length - 1] / 1e6);
+    }
+
+    private static double millis(long[] sorted, double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, (long) (sorted.length * percentile))] / 1e6;
+    }
+
+    /**
+     * 常に同じ大きさの音声パケットを返す IPacketProvider です。
+     */
+    private static class FakePacketProvider implements IPacketProvider {
+        private final DatagramSocket socket;
+        private final InetSocketAddress address;
+        private final ByteBuffer packet = ByteBuffer.allocate(172);
+
+        private FakePacketProvider(DatagramSocket socket, InetSocketAddress address) {
+            this.socket = socket;
+            this.address = address;
+        }
+
+        @Override
+        public String getIdentifier() {
+            return "JitterBenchmark";
+        }
+
+        @Override
+        public AudioChannel getConnectedChannel() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public DatagramSocket getUdpSocket() {
+            return socket;
+        }
+
+        @Override
+        public InetSocketAddress getSocketAddress() {
+            return address;
+        }
+
+        @Override
+        public ByteBuffer getNextPacketRaw(boolean changeTalking) {
+            packet.clear();
+            return packet;
+        }
+
+        @Override
+        public DatagramPacket getNextPacket(boolean changeTalking) {
+            // JDA と同様にパケットごとに確保する
+            byte[] data = new byte[packet.capacity()];
+            return new DatagramPacket(data, data.length, address);
+        }
+
+        @Override
+        public void onConnectionError(ConnectionStatus status) {
+        }
+
+        @Override
+        public void onConnectionLost() {
+        }
+    }
+}
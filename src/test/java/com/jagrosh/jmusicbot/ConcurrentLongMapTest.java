@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot;
+
+import dev.cosgy.jmusicbot.util.ConcurrentLongMap;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * {@link ConcurrentLongMap} が HashMap と同じ結果を返し、書き込み中も読み取れることを確認します。
+ */
+public class ConcurrentLongMapTest {
+
+    /**
+     * HashMap と、ランダムな操作の結果が一致することを確認します。
+     */
+    @Test
+    public void sameAsHashMap() {
+        Random random = new Random(0);
+        ConcurrentLongMap<String> map = new ConcurrentLongMap<>();
+        Map<Long, String> expected = new HashMap<>();
+        for (int op = 0; op < 200_000; op++) {
+            long key = random.nextInt(2_000) * 4_194_304L;
+            int kind = random.nextInt(10);
+            if (kind < 4) {
+                String value = "v" + op;
+                assertEquals(expected.put(key, value), map.put(key, value));
+            } else if (kind < 6) {
+                String value = expected.get(key);
+                assertEquals(expected.remove(key, value), map.remove(key, value));
+            } else if (kind < 7) {
+                assertFalse(map.remove(key, "other"));
+            } else {
+                // remove は同じインスタンスかどうかで比較するため、同じ値を追加する
+                String value = "c" + key;
+                assertEquals(expected.computeIfAbsent(key, k -> value), map.computeIfAbsent(key, k -> value));
+            }
+            assertEquals(expected.get(key), map.get(key));
+            assertEquals(expected.size(), map.size());
+        }
+        Map<Long, String> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * 書き込みと表の作り直しが行われている間も、削除していないキーを読めることを確認します。
+     */
+    @Test(timeout = 60000)
+    public void readsDuringWrites() throws InterruptedException {
+        ConcurrentLongMap<Long> map = new ConcurrentLongMap<>();
+        for (long key = 0; key < 1_000; key++)
+            map.put(key, key);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            while (running.get()) {
+                for (long key = 0; key < 1_000; key++) {
+                    Long value = map.get(key);
+                    if (value == null || value != key)
+                        failure.compareAndSet(null, key + " -> " + value);
+                }
+            }
+        });
+        reader.start();
+        for (long key = 1_000; key < 200_000; key++) {
+            map.put(key, key);
+            if (key % 3 == 0)
+                map.remove(key, key);
+        }
+        running.set(false);
+        reader.join();
+        assertNull(failure.get());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot;
+
+import com.jagrosh.jmusicbot.queue.FairQueue;
+import com.jagrosh.jmusicbot.queue.Queueable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FairQueue に 10,000 件と 100,000 件を追加・参照・取り出しする時間を計測します。
+ * 4人のユーザーがそれぞれ同じ数の曲を続けて追加する(プレイリストを読み込む)場合を想定しています。
+ * また、2,000 曲のプレイリストを {@link FairQueue#addAll} で一度に追加する時間と、
+ * 50,000 件のキューでの曲名の検索・ユーザーの楽曲の一括削除の時間も計測します。
+ * JUnit では実行されないので、main メソッドから直接実行してください。
+ */
+public class FairQueueBenchmark {
+    private static final int OWNERS = 4;
+
+    public static void main(String[] args) {
+        // JIT のウォームアップ
+        run(10_000, false);
+        run(10_000, true);
+        run(100_000, true);
+
+        for (int i = 0; i < 50; i++)
+            addPlaylist(2_000, i == 49);
+
+        for (int i = 0; i < 5; i++)
+            search(50_000, i == 4);
+    }
+
+    /**
+     * 曲名での検索と、1人のユーザーの楽曲をすべて削除する時間を計測します。
+     */
+    private static void search(int entries, boolean print) {
+        FairQueue<Item> queue = new FairQueue<>();
+        for (int i = 0; i < entries; i++)
+            queue.add(new Item(i % OWNERS, "Song " + i + " by Artist " + (i % 100)), false);
+
+        long start = System.nanoTime();
+        long sink = 0;
+        for (int i = 0; i < 1000; i++)
+            sink += queue.indexOf("song " + (i * 37 % entries));
+        long searched = System.nanoTime();
+        sink += queue.removeAll(0);
+        long removed = System.nanoTime();
+
+        if (print)
+            System.out.printf("%,d entries: 1,000 title searches %.2fms, removeAll %.2fms (%d)%n", entries,
+                    (searched - start) / 1e6, (removed - searched) / 1e6, sink % 10);
+    }
+
+    /**
+     * 4人がそれぞれ 500 曲ずつ追加したキューに、2,000 曲のプレイリストを1曲ずつ追加した場合と一度に追加した場合を比較します。
+     */
+    private static void addPlaylist(int tracks, boolean print) {
+        FairQueue<Item> single = new FairQueue<>();
+        FairQueue<Item> bulk = new FairQueue<>();
+        for (int owner = 0; owner < OWNERS; owner++)
+            for (int i = 0; i < 500; i++) {
+                single.add(new Item(owner), false);
+                bulk.add(new Item(owner), false);
+            }
+        List<Item> playlist = new ArrayList<>();
+        for (int i = 0; i < tracks; i++)
+            playlist.add(new Item(OWNERS));
+
+        long start = System.nanoTime();
+        for (Item item : playlist)
+            single.add(item, false);
+        long added = System.nanoTime();
+        bulk.addAll(playlist, false);
+        long merged = System.nanoTime();
+
+        if (print)
+            System.out.printf("%,d track playlist: add one by one %.2fms, addAll %.2fms%n", tracks,
+                    (added - start) / 1e6, (merged - added) / 1e6);
+    }
+
+    private static void run(int entries, boolean print) {
+        FairQueue<Item> queue = new FairQueue<>();
+        int perOwner = entries / OWNERS;
+
+        long start = System.nanoTime();
+        for (int owner = 0; owner < OWNERS; owner++)
+            for (int i = 0; i < perOwner; i++)
+                queue.add(new Item(owner), false);
+        long added = System.nanoTime();
+
+        long sink = 0;
+        for (int i = 0; i < entries; i += 7)
+            sink += queue.get(i).getIdentifier();
+        for (int i = 0; i < 1000; i++)
+            queue.moveItem(queue.size() - 1, i);
+        queue.skip(entries / 10);
+        long accessed = System.nanoTime();
+
+        while (!queue.isEmpty())
+            sink += queue.pull().getIdentifier();
+        long pulled = System.nanoTime();
+
+        if (print)
+            System.out.printf("%,d entries: add %.1fms, get/move/skip %.1fms, pull %.1fms (%d)%n", entries,
+                    (added - start) / 1e6, (accessed - added) / 1e6, (pulled - accessed) / 1e6, sink % 10);
+    }
+
+    private static class Item implements Queueable {
+        private final long identifier;
+        private final String title;
+
+        private Item(long identifier) {
+            this(identifier, null);
+        }
+
+        private Item(long identifier, String title) {
+            this.identifier = identifier;
+            this.title = title;
+        }
+
+        @Override
+        public long getIdentifier() {
+            return identifier;
+        }
+
+        @Override
+        public String getTitle() {
+            return title;
+        }
+    }
+}
@@ -17,14 +17,26 @@ package com.jagrosh.jmusicbot;
 
 import com.jagrosh.jmusicbot.queue.FairQueue;
 import com.jagrosh.jmusicbot.queue.Queueable;
+import com.jagrosh.jmusicbot.queue.TitleTokens;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 /**
  * @author John Grosh (john.a.grosh@gmail.com)
  */
 public class FairQueueTest {
+    // 同じ結果を再現できるように、乱数は全てこの固定の種から作る
+    private final Random random = new Random(0);
+
     @Test
     public void differentIdentifierSize() {
         FairQueue<Q> queue = new FairQueue<>();
@@ -43,16 +55,193 @@ public class FairQueueTest {
         assertEquals(queue.size(), size);
     }
 
+    @Test
+    public void roundRobinOrder() {
+        FairQueue<Q> queue = new FairQueue<>();
+        for (int i = 0; i < 3; i++)
+            queue.add(new Q(1), false);
+        assertEquals(1, queue.add(new Q(2), false));
+        assertEquals(3, queue.add(new Q(2), false));
+        assertEquals(2, queue.add(new Q(3), false));
+        assertEquals(6, queue.add(new Q(2), true));
+    }
+
+    /**
+     * 以前の ArrayList による実装と、ランダムな操作の結果が一致することを確認します。
+     */
+    @Test
+    public void sameOrderAsListImplementation() {
+        for (int round = 0; round < 200; round++) {
+            FairQueue<Q> queue = new FairQueue<>();
+            List<Q> expected = new ArrayList<>();
+            int owners = 1 + random.nextInt(6);
+            for (int op = 0; op < 300; op++) {
+                int kind = random.nextInt(100);
+                Q item = new Q(random.nextInt(owners));
+                if (kind < 55) {
+                    boolean forceToEnd = random.nextInt(10) == 0;
+                    assertEquals(listAdd(expected, item, forceToEnd), queue.add(item, forceToEnd));
+                } else if (kind < 65 && !expected.isEmpty()) {
+                    assertSame(expected.remove(0), queue.pull());
+                } else if (kind < 70) {
+                    int index = random.nextInt(expected.size() + 2);
+                    queue.addAt(index, item);
+                    expected.add(Math.min(index, expected.size()), item);
+                } else if (kind < 78 && !expected.isEmpty()) {
+                    int from = random.nextInt(expected.size());
+                    int to = random.nextInt(expected.size());
+                    queue.moveItem(from, to);
+                    expected.add(to, expected.remove(from));
+                } else if (kind < 83 && !expected.isEmpty()) {
+                    int index = random.nextInt(expected.size());
+                    assertSame(expected.remove(index), queue.remove(index));
+                } else if (kind < 86) {
+                    long owner = random.nextInt(owners);
+                    int count = expected.size();
+                    expected.removeIf(q -> q.getIdentifier() == owner);
+                    assertEquals(count - expected.size(), queue.removeAll(owner));
+                } else if (kind < 89 && !expected.isEmpty()) {
+                    int number = random.nextInt(expected.size() + 1);
+                    queue.skip(number);
+                    expected.subList(0, number).clear();
+                } else if (kind < 91) {
+                    long owner = random.nextInt(owners);
+                    Set<Q> shuffled = new HashSet<>();
+                    for (Q q : expected)
+                        if (q.getIdentifier() == owner)
+                            shuffled.add(q);
+                    assertEquals(shuffled.size(), queue.shuffle(owner));
+                    // 他のユーザーの楽曲はそのままで、そのユーザーの楽曲の位置の中でだけ入れ替わる
+                    List<Q> actual = queue.getList();
+                    assertEquals(expected.size(), actual.size());
+                    Set<Q> after = new HashSet<>();
+                    for (int i = 0; i < actual.size(); i++) {
+                        if (expected.get(i).getIdentifier() == owner)
+                            after.add(actual.get(i));
+                        else
+                            assertSame(expected.get(i), actual.get(i));
+                    }
+                    assertEquals(shuffled, after);
+                    expected.clear();
+                    expected.addAll(actual);
+                } else if (kind < 94) {
+                    boolean forceToEnd = random.nextInt(10) == 0;
+                    List<Q> batch = new ArrayList<>();
+                    for (int i = random.nextInt(40); i > 0; i--)
+                        batch.add(new Q(item.getIdentifier()));
+                    int first = expected.size();
+                    for (int i = 0; i < batch.size(); i++) {
+                        int index = listAdd(expected, batch.get(i), forceToEnd);
+                        if (i == 0)
+                            first = index;
+                    }
+                    assertEquals(first, queue.addAll(batch, forceToEnd));
+                }
+                assertEquals(expected, queue.getList());
+                // 長さが分からない楽曲は合計に含めず、件数だけを数える
+                assertEquals(expected.stream().mapToLong(Q::getDuration).filter(d -> d >= 0).sum(), queue.getTotalDuration());
+                assertEquals(expected.stream().filter(q -> q.getDuration() < 0).count(), queue.getUnknownDurationCount());
+                for (long owner = 0; owner < owners; owner++) {
+                    long o = owner;
+                    assertEquals(expected.stream().filter(q -> q.getIdentifier() == o).count(), queue.count(owner));
+                }
+                String word = WORDS[random.nextInt(WORDS.length)];
+                long searchOwner = random.nextInt(owners);
+                assertEquals(listIndexOf(expected, word, null), queue.indexOf(word));
+                assertEquals(listIndexOf(expected, word, searchOwner), queue.indexOf(word, searchOwner));
+                if (!expected.isEmpty()) {
+                    int from = random.nextInt(expected.size());
+                    int to = from + random.nextInt(12);
+                    assertEquals(expected.subList(from, Math.min(to, expected.size())), queue.getRange(from, to));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void titleSearch() {
+        FairQueue<Q> queue = new FairQueue<>();
+        queue.add(new Q(1, "Never Gonna Give You Up"), false);
+        queue.add(new Q(2, "千本桜 / 初音ミク"), false);
+        queue.add(new Q(1, "ＮＥＶＥＲ ＥＮＤＩＮＧ ＳＴＯＲＹ"), false);
+        assertEquals(0, queue.indexOf("never"));
+        assertEquals(2, queue.indexOf("never ending"));
+        assertEquals(1, queue.indexOf("本桜"));
+        assertEquals(1, queue.indexOf("ミク"));
+        assertEquals(1, queue.indexOf("桜"));
+        assertEquals(-1, queue.indexOf("桜ミ"));
+        assertEquals(-1, queue.indexOf("千本桜", 1));
+        assertEquals(-1, queue.indexOf("missing"));
+        queue.remove(0);
+        assertEquals(1, queue.indexOf("never"));
+        // 英数字と日本語が続いている場合も、それぞれの部分で検索できる
+        queue.add(new Q(3, "Lemon米津玄師"), false);
+        assertEquals(2, queue.indexOf("lemon"));
+        assertEquals(2, queue.indexOf("米津"));
+    }
+
+    private static final String[] WORDS = {"alpha", "beta", "gamma", "delta", "桜の歌", "夜に駆ける"};
+
+    private static int listIndexOf(List<Q> list, String word, Long owner) {
+        String[] query = TitleTokens.tokenize(word);
+        for (int i = 0; i < list.size(); i++) {
+            Q q = list.get(i);
+            if (owner != null && q.getIdentifier() != owner)
+                continue;
+            List<String> tokens = Arrays.asList(TitleTokens.tokenize(q.getTitle()));
+            if (tokens.containsAll(Arrays.asList(query)))
+                return i;
+        }
+        return -1;
+    }
+
+    private static int listAdd(List<Q> list, Q item, boolean forceToEnd) {
+        if (forceToEnd) {
+            list.add(item);
+            return list.size() - 1;
+        }
+        int lastIndex;
+        for (lastIndex = list.size() - 1; lastIndex > -1; lastIndex--)
+            if (list.get(lastIndex).getIdentifier() == item.getIdentifier())
+                break;
+        lastIndex++;
+        Set<Long> set = new HashSet<>();
+        for (; lastIndex < list.size(); lastIndex++) {
+            if (set.contains(list.get(lastIndex).getIdentifier()))
+                break;
+            set.add(list.get(lastIndex).getIdentifier());
+        }
+        list.add(lastIndex, item);
+        return lastIndex;
+    }
+
     private class Q implements Queueable {
         private final long identifier;
+        private final long duration = random.nextInt(10) == 0 ? -1 : random.nextInt(600_000);
+        private final String title;
 
         private Q(long identifier) {
+            this(identifier, WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]);
+        }
+
+        private Q(long identifier, String title) {
             this.identifier = identifier;
+            this.title = title;
         }
 
         @Override
         public long getIdentifier() {
             return identifier;
         }
+
+        @Override
+        public long getDuration() {
+            return duration;
+        }
+
+        @Override
+        public String getTitle() {
+            return title;
+        }
     }
 }
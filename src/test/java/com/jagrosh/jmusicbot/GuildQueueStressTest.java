@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot;
+
+import com.jagrosh.jmusicbot.audio.GuildMailbox;
+import com.jagrosh.jmusicbot.audio.GuildQueue;
+import com.jagrosh.jmusicbot.queue.Queueable;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 複数のスレッドから同時に {@link GuildQueue} を操作しても、楽曲が失われたり重複したりしないことを確認します。
+ */
+public class GuildQueueStressTest {
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 5000;
+
+    @Test(timeout = 60000)
+    public void concurrentOperations() throws Exception {
+        GuildQueue<Q> queue = new GuildQueue<>(new GuildMailbox());
+        AtomicInteger added = new AtomicInteger();
+        AtomicInteger removed = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            long seed = t;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    start.await();
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        long owner = random.nextInt(5);
+                        switch (random.nextInt(6)) {
+                            case 0:
+                            case 1:
+                                queue.add(new Q(owner), random.nextBoolean());
+                                added.incrementAndGet();
+                                break;
+                            case 2:
+                                try {
+                                    queue.pull();
+                                    removed.incrementAndGet();
+                                } catch (IndexOutOfBoundsException ignored) {
+                                    // 他のスレッドが先に取り出した
+                                }
+                                break;
+                            case 3:
+                                removed.addAndGet(queue.removeAll(owner));
+                                break;
+                            case 4:
+                                queue.shuffle(owner);
+                                break;
+                            default:
+                                // 取得したコピーは他の変更の途中の状態であってはならない
+                                List<Q> list = queue.getList();
+                                for (Q q : list)
+                                    if (q == null)
+                                        throw new AssertionError("null in snapshot");
+                                break;
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertNull(String.valueOf(failure.get()), failure.get());
+        assertEquals(added.get() - removed.get(), queue.size());
+        assertEquals(queue.size(), queue.getList().size());
+    }
+
+    private static class Q implements Queueable {
+        private final long identifier;
+
+        private Q(long identifier) {
+            this.identifier = identifier;
+        }
+
+        @Override
+        public long getIdentifier() {
+            return identifier;
+        }
+    }
+}
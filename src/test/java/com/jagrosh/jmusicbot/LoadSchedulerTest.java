@@ -0,0 +1,324 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot;
+
+import com.jagrosh.jmusicbot.audio.LoadScheduler;
+import com.jagrosh.jmusicbot.audio.LoadSession;
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.AudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioItem;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioReference;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link LoadScheduler} の列ごとの順番と同時に読み込む件数、取り消し・制限時間の扱いを確認します。
+ */
+public class LoadSchedulerTest {
+    private DefaultAudioPlayerManager manager;
+    private SlowSourceManager source;
+
+    @Before
+    public void setUp() {
+        manager = new DefaultAudioPlayerManager();
+        manager.setItemLoaderThreadPoolSize(16);
+        source = new SlowSourceManager();
+        manager.registerSourceManager(source);
+    }
+
+    @After
+    public void tearDown() {
+        manager.shutdown();
+    }
+
+    @Test
+    public void interactiveKeepsOrderPerGuild() throws InterruptedException {
+        LoadScheduler scheduler = new LoadScheduler(manager, 4, 1, 0);
+        List<Integer> results = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            int index = i;
+            scheduler.loadInteractive(1, "slow:" + i, handler(() -> {
+                results.add(index);
+                done.countDown();
+            }));
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 20; i++)
+            assertEquals(i, (int) results.get(i));
+        assertEquals(1, source.peak.get());
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void bulkUsesAllThreadsForOneGuild() throws InterruptedException {
+        LoadScheduler scheduler = new LoadScheduler(manager, 1, 4, 0);
+        CountDownLatch done = new CountDownLatch(40);
+        for (int i = 0; i < 40; i++)
+            scheduler.loadBulk(session(1), "slow:" + i, handler(done::countDown));
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(4, source.peak.get());
+        assertEquals(0, scheduler.getBulkPending());
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void bulkIsFairBetweenGuilds() throws InterruptedException {
+        LoadScheduler scheduler = new LoadScheduler(manager, 1, 1, 0);
+        CountDownLatch done = new CountDownLatch(13);
+        for (int i = 0; i < 10; i++)
+            scheduler.loadBulk(session(1), "gate:1-" + i, handler(done::countDown));
+        // 1つ目の項目で止まっている間に、もう1つのギルドの項目を追加する
+        assertEquals("gate:1-0", source.started.poll(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++)
+            scheduler.loadBulk(session(2), "gate:2-" + i, handler(done::countDown));
+        source.gate.release(13);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        // 後から追加したギルドの項目も、交互に読み込まれる
+        List<String> order = new ArrayList<>();
+        source.started.drainTo(order);
+        assertEquals(Arrays.asList("gate:1-1", "gate:2-0", "gate:1-2", "gate:2-1", "gate:1-3", "gate:2-2",
+                "gate:1-4", "gate:1-5", "gate:1-6", "gate:1-7", "gate:1-8", "gate:1-9"), order);
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void interactiveIsNotBlockedByBulk() throws InterruptedException {
+        LoadScheduler scheduler = new LoadScheduler(manager, 1, 1, 0);
+        CountDownLatch bulkDone = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++)
+            scheduler.loadBulk(session(1), "gate:" + i, handler(bulkDone::countDown));
+        // 一括の列のスレッドが止まっている間も、通常の列の項目は読み込まれる
+        assertEquals("gate:0", source.started.poll(10, TimeUnit.SECONDS));
+        CountDownLatch interactive = new CountDownLatch(1);
+        scheduler.loadInteractive(1, "slow:interactive", handler(interactive::countDown));
+        assertTrue(interactive.await(10, TimeUnit.SECONDS));
+        assertEquals(10, bulkDone.getCount());
+        source.gate.release(10);
+        assertTrue(bulkDone.await(10, TimeUnit.SECONDS));
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void cancelledSessionIsDropped() throws InterruptedException {
+        LoadScheduler scheduler = new LoadScheduler(manager, 1, 1, 0);
+        AtomicLong generation = new AtomicLong();
+        LoadSession session = new LoadSession(1, generation, 0);
+        AtomicInteger loaded = new AtomicInteger();
+        AtomicInteger dropped = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(50);
+        for (int i = 0; i < 50; i++)
+            scheduler.loadBulk(session, "gate:" + i, handler(() -> {
+                loaded.incrementAndGet();
+                done.countDown();
+            }, e -> {
+                if (e instanceof LoadScheduler.DroppedException)
+                    dropped.incrementAndGet();
+                done.countDown();
+            }));
+        // 1件目の読み込み中に、stopAndClear と同じく世代を進める
+        assertEquals("gate:0", source.started.poll(10, TimeUnit.SECONDS));
+        generation.incrementAndGet();
+        assertFalse(session.isActive());
+        source.gate.release();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        // 読み込み中だった1件だけが読み込まれ、残りは読み込まずに失敗として返される
+        assertEquals(1, loaded.get());
+        assertEquals(49, dropped.get());
+        assertEquals(49, scheduler.getDropped());
+        assertTrue(source.started.isEmpty());
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void expiredSessionIsDropped() throws InterruptedException {
+        LoadScheduler scheduler = new LoadScheduler(manager, 1, 1, 0);
+        LoadSession session = new LoadSession(1, new AtomicLong(), 1);
+        Thread.sleep(5);
+        assertTrue(session.isExpired());
+        CountDownLatch failed = new CountDownLatch(1);
+        scheduler.loadBulk(session, "slow:0", handler(() -> {
+        }, e -> {
+            if (e instanceof LoadScheduler.DroppedException)
+                failed.countDown();
+        }));
+        assertTrue(failed.await(10, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.getDropped());
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void slowItemTimesOut() throws InterruptedException {
+        LoadScheduler scheduler = new LoadScheduler(manager, 1, 1, 50);
+        CountDownLatch failed = new CountDownLatch(1);
+        AtomicInteger results = new AtomicInteger();
+        scheduler.loadInteractive(1, "hang:0", new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                results.incrementAndGet();
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                results.incrementAndGet();
+            }
+
+            @Override
+            public void noMatches() {
+                results.incrementAndGet();
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                results.incrementAndGet();
+                failed.countDown();
+            }
+        });
+        assertTrue(failed.await(10, TimeUnit.SECONDS));
+        // 後から届いた結果は渡さない
+        Thread.sleep(100);
+        assertEquals(1, results.get());
+        assertEquals(1, scheduler.getItemTimeouts());
+        scheduler.shutdown();
+    }
+
+    private static LoadSession session(long guildId) {
+        return new LoadSession(guildId, new AtomicLong(), 0);
+    }
+
+    private static AudioLoadResultHandler handler(Runnable done) {
+        return handler(done, e -> done.run());
+    }
+
+    private static AudioLoadResultHandler handler(Runnable done, Consumer<FriendlyException> failed) {
+        return new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                done.run();
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                done.run();
+            }
+
+            @Override
+            public void noMatches() {
+                done.run();
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                failed.accept(exception);
+            }
+        };
+    }
+
+    /**
+     * {@code slow:} で始まる項目を少し待ってから「見つからない」として返し、同時に読み込んでいる件数の最大を記録するソースです。
+     * {@code gate:} で始まる項目は読み込みを始めた順番に {@link #started} へ記録し、{@link #gate} の許可を得るまで待ちます。
+     * {@code hang:} で始まる項目は、中断されるまで待ち続けます。
+     */
+    private static class SlowSourceManager implements AudioSourceManager {
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger peak = new AtomicInteger();
+        private final BlockingQueue<String> started = new LinkedBlockingQueue<>();
+        private final Semaphore gate = new Semaphore(0);
+
+        @Override
+        public String getSourceName() {
+            return "slow";
+        }
+
+        @Override
+        public AudioItem loadItem(AudioPlayerManager manager, AudioReference reference) {
+            if (reference.identifier.startsWith("hang:")) {
+                try {
+                    Thread.sleep(60_000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return AudioReference.NO_TRACK;
+            }
+            if (reference.identifier.startsWith("gate:")) {
+                started.add(reference.identifier);
+                try {
+                    gate.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return AudioReference.NO_TRACK;
+            }
+            if (!reference.identifier.startsWith("slow:"))
+                return null;
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+            return AudioReference.NO_TRACK;
+        }
+
+        @Override
+        public boolean isTrackEncodable(AudioTrack track) {
+            return false;
+        }
+
+        @Override
+        public void encodeTrack(AudioTrack track, DataOutput output) {
+        }
+
+        @Override
+        public AudioTrack decodeTrack(AudioTrackInfo trackInfo, DataInput input) {
+            return null;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot;
+
+import com.jagrosh.jmusicbot.audio.LoadSession;
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.AudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.bandcamp.BandcampAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.bandcamp.BandcampAudioTrack;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioItem;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioReference;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import dev.cosgy.jmusicbot.playlist.OrderedResolver;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 再生リストの 200 項目を {@link OrderedResolver} で読み込み、同時に読み込む件数ごとの速さを比較します。
+ * 項目の読み込みには、ネットワークの待ち時間の代わりに 10〜30ms 待ってから楽曲を返すソースを使います。
+ * 同時に読み込む件数が 1 の場合が、以前の1件ずつ読み込む方法と同じです。
+ * 楽曲がファイルの順番のまま渡されたことも確認します。
+ * JUnit では実行されないので、main メソッドから直接実行してください。
+ */
+public class OrderedResolverBenchmark {
+    private static final int ENTRIES = 200;
+
+    public static void main(String[] args) throws Exception {
+        DefaultAudioPlayerManager manager = new DefaultAudioPlayerManager();
+        manager.setItemLoaderThreadPoolSize(16);
+        manager.registerSourceManager(new SlowSourceManager());
+
+        List<String> items = new ArrayList<>(ENTRIES);
+        for (int i = 0; i < ENTRIES; i++)
+            items.add("slow:" + i);
+
+        for (int concurrency : new int[]{1, 2, 4, 8, 16})
+            run(manager, items, concurrency);
+        manager.shutdown();
+    }
+
+    private static void run(AudioPlayerManager manager, List<String> items, int concurrency) throws InterruptedException {
+        List<String> delivered = new ArrayList<>(items.size());
+        long[] firstTrack = new long[1];
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        OrderedResolver.resolve(manager, new LoadSession(0, new AtomicLong(), 0), items, concurrency, index -> new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                if (delivered.isEmpty())
+                    firstTrack[0] = System.nanoTime() - start;
+                delivered.add(track.getIdentifier());
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+            }
+
+            @Override
+            public void noMatches() {
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+            }
+        }, done::countDown);
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        if (!delivered.equals(items))
+            throw new IllegalStateException("順番が変わっています: " + delivered);
+        System.out.printf("concurrency %2d: %6.1f entries/s, first track %5.1fms, total %6.0fms%n", concurrency,
+                items.size() / (elapsed / 1e9), firstTrack[0] / 1e6, elapsed / 1e6);
+    }
+
+    /**
+     * {@code slow:} で始まる項目を、少し待ってから楽曲として返すソースです。
+     */
+    private static class SlowSourceManager implements AudioSourceManager {
+        private final BandcampAudioSourceManager owner = new BandcampAudioSourceManager();
+
+        @Override
+        public String getSourceName() {
+            return "slow";
+        }
+
+        @Override
+        public AudioItem loadItem(AudioPlayerManager manager, AudioReference reference) {
+            if (!reference.identifier.startsWith("slow:"))
+                return null;
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(10, 31));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            AudioTrackInfo info = new AudioTrackInfo(reference.identifier, "Some Artist", 200_000,
+                    reference.identifier, false, reference.identifier, null, null);
+            return new BandcampAudioTrack(info, owner);
+        }
+
+        @Override
+        public boolean isTrackEncodable(AudioTrack track) {
+            return false;
+        }
+
+        @Override
+        public void encodeTrack(AudioTrack track, DataOutput output) {
+        }
+
+        @Override
+        public AudioTrack decodeTrack(AudioTrackInfo trackInfo, DataInput input) {
+            return null;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot;
+
+import com.jagrosh.jmusicbot.audio.QueuedTrack;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.bandcamp.BandcampAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.bandcamp.BandcampAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import net.dv8tion.jda.api.entities.User;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 再生待ちの楽曲 10,000 件が使用するヒープの量を、{@link QueuedTrack#compact} の前後で比較します。
+ * 1人のユーザーが大きなプレイリストを追加した場合を想定しています。
+ * 圧縮後の方が大きい場合や、圧縮しても楽曲情報が失われている場合は、{@link AssertionError} で終了します。
+ * JUnit では実行されないので、main メソッドから直接実行してください。
+ */
+public class QueuedTrackHeapBenchmark {
+    private static final int ENTRIES = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        DefaultAudioPlayerManager manager = new DefaultAudioPlayerManager();
+        BandcampAudioSourceManager source = new BandcampAudioSourceManager();
+        manager.registerSourceManager(source);
+        User user = fakeUser();
+
+        long base = usedHeap();
+        List<QueuedTrack> live = create(source, user);
+        long liveBytes = usedHeap() - base;
+
+        live.forEach(qt -> qt.compact(manager));
+        long compactBytes = usedHeap() - base;
+
+        System.out.printf("%,d entries: live %.1fMB (%,d bytes/entry), compact %.1fMB (%,d bytes/entry) (%.0f%%)%n",
+                live.size(), liveBytes / 1048576.0, liveBytes / ENTRIES, compactBytes / 1048576.0, compactBytes / ENTRIES,
+                100.0 * compactBytes / liveBytes);
+        if (compactBytes >= liveBytes)
+            throw new AssertionError("圧縮後の方がヒープを多く使用しています: live=" + liveBytes + ", compact=" + compactBytes);
+
+        // 圧縮したままの楽曲情報と、元に戻した楽曲が内容を失っていないことを確認する
+        QueuedTrack last = live.get(ENTRIES - 1);
+        check(last.getInfo().uri.endsWith("/track-" + (ENTRIES - 1)), "圧縮した楽曲の楽曲情報を復元できません");
+        check(last.isCompact(), "楽曲情報を取得しただけで圧縮が解除されています");
+        QueuedTrack first = live.get(0);
+        check(first.getTrack().getInfo().title.endsWith(" 0") && first.getDuration() == 200_000,
+                "元に戻した楽曲の内容が失われています");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+
+    private static List<QueuedTrack> create(BandcampAudioSourceManager source, User user) {
+        List<QueuedTrack> list = new ArrayList<>(ENTRIES);
+        for (int i = 0; i < ENTRIES; i++) {
+            String id = "track-" + i;
+            AudioTrackInfo info = new AudioTrackInfo("Some Artist - A Fairly Typical Song Title (Official Audio) " + i,
+                    "Some Artist", 200_000 + i, id, false, "https://someartist.bandcamp.com/track/" + id,
+                    "https://f4.bcbits.com/img/a" + (1_000_000_000L + i) + "_10.jpg", null);
+            list.add(new QueuedTrack(new BandcampAudioTrack(info, source), user));
+        }
+        return list;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * RequestMetadata が必要とする値だけを返す User です。
+     */
+    private static User fakeUser() {
+        return (User) Proxy.newProxyInstance(User.class.getClassLoader(), new Class<?>[]{User.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getIdLong":
+                    return 123456789012345678L;
+                case "getName":
+                    return "someone";
+                case "getDiscriminator":
+                    return "0000";
+                case "getEffectiveAvatarUrl":
+                    // JDA と同様に呼び出すたびに文字列を作る
+                    return new StringBuilder("https://cdn.discordapp.com/avatars/123456789012345678/")
+                            .append("0123456789abcdef0123456789abcdef.png").toString();
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot;
+
+import com.jagrosh.jmusicbot.settings.Settings;
+import dev.cosgy.jmusicbot.settings.RepeatMode;
+import dev.cosgy.jmusicbot.settings.StallPolicy;
+import dev.cosgy.jmusicbot.util.ConcurrentLongMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongFunction;
+
+/**
+ * 再生中のイベントがギルドの設定を読む時間を、設定を変更するスレッドが動いている状態で計測します。
+ * 50,000 ギルドの設定から、読み取り用のスレッドがランダムなギルドのリピートモードとキューの追加モードを読み、
+ * 書き込み用のスレッドが 10µs ごとに新しい設定を作成して置き換えます。
+ * 以前の HashMap を synchronized で保護した場合、ConcurrentHashMap、ConcurrentLongMap を比較します。
+ * JUnit では実行されないので、main メソッドから直接実行してください。
+ */
+public class SettingsLookupBenchmark {
+    private static final int GUILDS = 50_000;
+    private static final int LOOKUPS = 5_000_000;
+    private static final int READERS = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+
+    public static void main(String[] args) throws InterruptedException {
+        long[] ids = new long[GUILDS];
+        for (int i = 0; i < GUILDS; i++)
+            ids[i] = 100_000_000_000_000_000L + i * 7_919L;
+
+        Map<Long, Settings> locked = Collections.synchronizedMap(new HashMap<>());
+        Map<Long, Settings> chm = new ConcurrentHashMap<>();
+        ConcurrentLongMap<Settings> clm = new ConcurrentLongMap<>();
+        for (long id : ids) {
+            locked.put(id, create(id));
+            chm.put(id, create(id));
+            clm.put(id, create(id));
+        }
+
+        for (int round = 0; round < 3; round++) {
+            boolean print = round == 2;
+            run("synchronized HashMap", ids, locked::get, (id, s) -> locked.put(id, s), print);
+            run("ConcurrentHashMap", ids, chm::get, (id, s) -> chm.put(id, s), print);
+            run("ConcurrentLongMap", ids, clm::get, clm::put, print);
+        }
+    }
+
+    private static void run(String name, long[] ids, LongFunction<Settings> get, Writer put, boolean print) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            long n = 0;
+            while (running.get()) {
+                put.put(ids[(int) (n++ % ids.length)], create(n));
+                // 設定の変更はコマンドからのみ行われるので、読み取りよりずっと少ない
+                LockSupport.parkNanos(10_000);
+            }
+        });
+        writer.start();
+
+        CountDownLatch done = new CountDownLatch(READERS);
+        long[] sinks = new long[READERS];
+        List<Thread> readers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int r = 0; r < READERS; r++) {
+            int reader = r;
+            Thread t = new Thread(() -> {
+                long seed = reader * 31L + 17;
+                long sink = 0;
+                for (int i = 0; i < LOOKUPS; i++) {
+                    seed = seed * 6364136223846793005L + 1442695040888963407L;
+                    Settings s = get.apply(ids[(int) ((seed >>> 33) % ids.length)]);
+                    sink += s.snapshot().getRepeatMode().ordinal() + (s.snapshot().isForceToEndQue() ? 1 : 0);
+                }
+                sinks[reader] = sink;
+                done.countDown();
+            });
+            readers.add(t);
+            t.start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        running.set(false);
+        writer.join();
+
+        if (print)
+            System.out.printf("%-22s %d readers x %,d lookups: %.1fns/lookup (%d)%n", name, READERS, LOOKUPS,
+                    (double) elapsed / LOOKUPS, sinks[0] % 10);
+    }
+
+    /**
+     * 書き込み用のスレッドは保存を行わないため、SettingsManager なしで作成します。
+     */
+    private static Settings create(long seed) {
+        return new Settings(null, 0L, 0L, 0L, 10, null, RepeatMode.values()[(int) (seed % 3)], null, false, 0, .55,
+                true, seed % 2 == 0, 0, StallPolicy.RETRY);
+    }
+
+    private interface Writer {
+        void put(long id, Settings settings);
+    }
+}
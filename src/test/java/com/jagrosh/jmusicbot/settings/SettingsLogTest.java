@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018-2020 Cosgy Dev
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.jagrosh.jmusicbot.settings;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link SettingsLog} の読み込み・整理と、{@link SettingsManager} からの移行・メモリから外した設定の読み直しを確認します。
+ */
+public class SettingsLogTest {
+    private Path dir;
+    private Path logPath;
+    private Path jsonPath;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("settings-log-test");
+        logPath = dir.resolve("serversettings.log");
+        jsonPath = dir.resolve("serversettings.json");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void tornFinalLineIsTruncated() throws IOException {
+        String complete = "1\t{\"volume\":5}\n";
+        Files.write(logPath, (complete + "2\t{\"vol").getBytes(StandardCharsets.UTF_8));
+
+        SettingsLog log = SettingsLog.open(logPath);
+        assertEquals(1, log.size());
+        assertEquals("{\"volume\":5}", log.read(1));
+        assertNull(log.read(2));
+        assertEquals(complete.length(), Files.size(logPath));
+
+        // 切り捨てた位置から追記を続けられる
+        log.append(Collections.singletonMap(2L, "{}"));
+        log.close();
+        log = SettingsLog.open(logPath);
+        assertEquals(2, log.size());
+        assertEquals("{\"volume\":5}", log.read(1));
+        assertEquals("{}", log.read(2));
+        log.close();
+    }
+
+    @Test
+    public void compactionKeepsLatestRecordPerGuild() throws IOException {
+        SettingsLog log = SettingsLog.open(logPath);
+        String padding = String.join("", Collections.nCopies(4000, "x"));
+        int rounds = 120;
+        for (int i = 0; i < rounds; i++) {
+            Map<Long, String> records = new LinkedHashMap<>();
+            for (long guild = 1; guild <= 3; guild++)
+                records.put(guild, "{\"prefix\":\"" + padding + "\",\"round\":" + i + "}");
+            log.append(records);
+        }
+        // 3ギルド x 約4KB x 120回 = 約1.4MB 書き込んだが、古い行は整理されている
+        assertTrue("ファイルの大きさ: " + Files.size(logPath), Files.size(logPath) < 1 << 20);
+        assertFalse(Files.exists(dir.resolve("serversettings.log.tmp")));
+        for (long guild = 1; guild <= 3; guild++)
+            assertTrue(log.read(guild).endsWith("\"round\":" + (rounds - 1) + "}"));
+        log.close();
+
+        log = SettingsLog.open(logPath);
+        assertEquals(3, log.size());
+        for (long guild = 1; guild <= 3; guild++)
+            assertTrue(log.read(guild).endsWith("\"round\":" + (rounds - 1) + "}"));
+        log.close();
+    }
+
+    @Test
+    public void migratesFromServerSettingsJson() throws IOException {
+        Files.write(jsonPath, "{\"1\":{\"volume\":30,\"prefix\":\"!\"},\"2\":{}}".getBytes(StandardCharsets.UTF_8));
+
+        SettingsManager manager = new SettingsManager(jsonPath, logPath, false, 0, true, 0);
+        assertEquals(30, manager.getSettings(1).getVolume());
+        assertEquals("!", manager.getSettings(1).getPrefix());
+        assertNull(manager.getSettings(2).getPrefix());
+        manager.shutdown();
+
+        // 既定値だけのギルドは書き込まない
+        SettingsLog log = SettingsLog.open(logPath);
+        assertEquals(1, log.size());
+        log.close();
+    }
+
+    @Test
+    public void evictedSettingsAreReloaded() throws IOException, InterruptedException {
+        SettingsManager manager = new SettingsManager(jsonPath, logPath, false, 0, true, 1);
+        Settings settings = manager.getSettings(5);
+        settings.setVolume(42);
+        Thread.sleep(10);
+        manager.evictIdle();
+        assertEquals(0, manager.getLoadedCount());
+
+        // まだ使われている設定は、同じインスタンスを返す
+        assertSame(settings, manager.getSettings(5));
+        assertEquals(1, manager.getLoadedCount());
+        manager.shutdown();
+
+        // 保存した内容はファイルから読み直せる
+        SettingsManager reopened = new SettingsManager(jsonPath, logPath, false, 0, true, 1);
+        assertEquals(42, reopened.getSettings(5).getVolume());
+        reopened.shutdown();
+    }
+}